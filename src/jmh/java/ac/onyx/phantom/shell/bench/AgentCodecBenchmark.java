@@ -0,0 +1,76 @@
+package ac.onyx.phantom.shell.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ac.onyx.phantom.shell.agent.AgentCodec;
+import ac.onyx.phantom.shell.agent.AgentRequest;
+import ac.onyx.phantom.shell.agent.AgentResponse;
+
+/**
+ * Encoding requests and decoding responses of the agent protocol, with the
+ * codec and with the untyped Map approach it replaced.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AgentCodecBenchmark {
+
+    private static final String ID = "4f1c2d3e-0000-4000-8000-000000000000";
+    private static final String[] ARGS = { "-la", "/var/log" };
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AgentCodec.FrameBuffer buffer = new AgentCodec.FrameBuffer();
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = mapper.writeValueAsBytes(AgentResponse.output(ID,
+            "total 48\ndrwxr-xr-x  2 root root 4096 syslog\n", "", 0));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCodec() throws IOException {
+        return AgentCodec.encode(new AgentRequest("devtoken123", "ls", ARGS, ID, false), buffer);
+    }
+
+    @Benchmark
+    public ByteBuffer[] encodeMap() throws IOException {
+        var req = new LinkedHashMap<String, Object>();
+        req.put("token", "devtoken123");
+        req.put("command", "ls");
+        req.put("args", ARGS);
+        req.put("request_id", ID);
+        byte[] body = mapper.writeValueAsBytes(req);
+        return new ByteBuffer[] { ByteBuffer.allocate(4).putInt(0, body.length), ByteBuffer.wrap(body) };
+    }
+
+    @Benchmark
+    public AgentResponse decodeCodec() throws IOException {
+        return AgentCodec.decodeResponse(response, 0, response.length);
+    }
+
+    @Benchmark
+    public Map<?, ?> decodeMap() throws IOException {
+        return mapper.readValue(response, Map.class);
+    }
+}
@@ -0,0 +1,75 @@
+package ac.onyx.phantom.shell.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ac.onyx.phantom.shell.agent.AgentClient;
+import ac.onyx.phantom.shell.agent.AgentResponse;
+import ac.onyx.phantom.shell.agent.StubAgentServer;
+
+/**
+ * Requests against the in-process stub agent over a real Unix socket: one at a
+ * time on the shared connection, and a window of pipelined requests.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AgentRoundTripBenchmark {
+
+    private static final int IN_FLIGHT = 64;
+
+    private Path dir;
+    private StubAgentServer server;
+    private AgentClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jmh-agent");
+        server = new StubAgentServer(dir.resolve("agent.sock"), 0);
+        client = new AgentClient("bench", server.getSocketPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public AgentResponse sequential() throws IOException {
+        return client.executeUnix("echo", "bench");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public void pipelined() {
+        List<CompletableFuture<AgentResponse>> futures = new ArrayList<>(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            futures.add(client.executeAsync("echo", "bench"));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+}
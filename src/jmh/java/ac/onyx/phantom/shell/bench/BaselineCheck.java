@@ -0,0 +1,98 @@
+package ac.onyx.phantom.shell.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks a JMH JSON result against the expected ratios in {@code ratios.json}.
+ *
+ * Absolute scores depend on the machine and on the run, so nothing is compared
+ * with an earlier result. Instead each rule pairs a benchmark with a reference
+ * from the same run (the codec with the Map path, the pumps with a naive copy
+ * loop) and asks for a minimum speedup and, optionally, a maximum allocation
+ * ratio. A rule only fails when even the most favourable ends of the two
+ * confidence intervals miss the speedup, so noisy runs do not fail the build.
+ * A rule whose benchmarks are missing from the result fails too, so a renamed
+ * or filtered-out benchmark cannot pass unchecked.
+ */
+public final class BaselineCheck {
+
+    private record Score(String mode, double score, double low, double high, String unit, double allocPerOp) {}
+
+    private BaselineCheck() {}
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode rules = mapper.readTree(Path.of(args[0]).toFile());
+        Map<String, Score> scores = read(mapper.readTree(Path.of(args[1]).toFile()));
+
+        int failures = 0;
+        System.out.printf("%-50s %-46s %9s %9s %9s %9s%n", "benchmark", "against", "speedup", "best", "minimum", "alloc");
+        for (JsonNode rule : rules) {
+            String name = rule.path("benchmark").asText();
+            String against = rule.path("against").asText();
+            Score s = scores.get(name);
+            Score ref = scores.get(against);
+            if (s == null || ref == null) {
+                System.out.printf("%-50s %-46s %9s  << NOT RUN%n", name, against, "-");
+                failures++;
+                continue;
+            }
+            double minSpeedup = rule.path("minSpeedup").asDouble(0);
+            double speedup = speedup(s.score(), ref.score(), s.mode());
+            double best = bestSpeedup(s, ref);
+            boolean slower = best < minSpeedup;
+
+            double allocRatio = ref.allocPerOp() > 0 ? s.allocPerOp() / ref.allocPerOp() : 0;
+            boolean fatter = rule.has("maxAllocRatio")
+                && s.allocPerOp() > ref.allocPerOp() * rule.path("maxAllocRatio").asDouble() + 16;
+
+            String flag = slower ? "  << SLOWER" : fatter ? "  << ALLOCATES MORE" : "";
+            if (!flag.isEmpty()) failures++;
+            System.out.printf("%-50s %-46s %8.2fx %8.2fx %8.2fx %8.2fx%s%n", name, against, speedup, best, minSpeedup,
+                allocRatio, flag);
+        }
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " benchmark ratio(s) out of bounds or not run in " + args[1]);
+        }
+    }
+
+    /** How many times better {@code score} is than {@code reference}. */
+    private static double speedup(double score, double reference, String mode) {
+        return "thrpt".equals(mode) ? score / reference : reference / score;
+    }
+
+    /**
+     * The speedup at the favourable ends of both confidence intervals; unbounded
+     * when a run was too short for JMH to give an interval.
+     */
+    private static double bestSpeedup(Score s, Score ref) {
+        boolean thrpt = "thrpt".equals(s.mode());
+        double top = thrpt ? s.high() : ref.high();
+        double bottom = thrpt ? ref.low() : s.low();
+        return Double.isNaN(top) || Double.isNaN(bottom) || bottom <= 0 ? Double.POSITIVE_INFINITY : top / bottom;
+    }
+
+    private static Map<String, Score> read(JsonNode result) {
+        Map<String, Score> scores = new TreeMap<>();
+        for (JsonNode run : result) {
+            Map<String, String> params = new LinkedHashMap<>();
+            run.path("params").fields().forEachRemaining(p -> params.put(p.getKey(), p.getValue().asText()));
+            String key = run.path("benchmark").asText().replace("ac.onyx.phantom.shell.bench.", "")
+                + (params.isEmpty() ? "" : params.toString());
+            JsonNode primary = run.path("primaryMetric");
+            double score = primary.path("score").asDouble();
+            JsonNode interval = primary.path("scoreConfidence");
+            double alloc = run.path("secondaryMetrics").path("gc.alloc.rate.norm").path("score").asDouble(0);
+            scores.put(key, new Score(run.path("mode").asText(), score, interval.path(0).asDouble(score),
+                interval.path(1).asDouble(score), primary.path("scoreUnit").asText(), alloc));
+        }
+        return scores;
+    }
+}
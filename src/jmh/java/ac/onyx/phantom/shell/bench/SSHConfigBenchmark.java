@@ -0,0 +1,98 @@
+package ac.onyx.phantom.shell.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ac.onyx.phantom.shell.ssh.SSHConfig;
+import ac.onyx.phantom.shell.ssh.SSHConfigCache;
+import ac.onyx.phantom.shell.ssh.SSHConfigParser;
+import ac.onyx.phantom.shell.ssh.SSHConfigResolver;
+import ac.onyx.phantom.shell.ssh.SyntheticConfig;
+
+/**
+ * Parsing a generated ssh_config (with Include files) and resolving aliases in it,
+ * and a cold start that loads the parsed blocks from the binary snapshot instead.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SSHConfigBenchmark {
+
+    @Param({ "1000", "50000" })
+    public int hosts;
+
+    private Path dir;
+    private File config;
+    private List<SSHConfig> blocks;
+    private SSHConfigResolver resolver;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jmh-ssh-config");
+        config = SyntheticConfig.write(dir, hosts).toFile();
+        blocks = SSHConfigParser.parse(config);
+        resolver = SSHConfigResolver.of(blocks);
+        try (SSHConfigCache first = new SSHConfigCache(dir.resolve("snapshots"))) {
+            first.blocks(config); // writes the snapshot
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<SSHConfig> parse() throws IOException {
+        return SSHConfigParser.parse(config);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SSHConfigResolver index() {
+        return SSHConfigResolver.of(blocks);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SSHConfig resolve() {
+        return resolver.resolve(SyntheticConfig.alias(ThreadLocalRandom.current().nextInt(hosts)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<SSHConfig> snapshotLoad() throws IOException {
+        try (SSHConfigCache cache = new SSHConfigCache(dir.resolve("snapshots"))) {
+            return cache.blocks(config);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ac.onyx.phantom.shell.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ac.onyx.phantom.shell.ssh.InputForwarder;
+import ac.onyx.phantom.shell.ssh.OutputPump;
+
+/**
+ * Copying an in-memory stream through the terminal pumps, next to the plain
+ * read/write/flush loop they replaced.
+ *
+ * The pumps run with their wait windows at zero: an in-memory source goes quiet
+ * only at EOF, where the default windows would add a fixed few milliseconds per
+ * operation. This measures the copy loop; latency policy is what
+ * {@code remotes bench} exercises against a real host.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StreamPumpBenchmark {
+
+    @Param({ "8388608" })
+    public int bytes;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        data = new byte[bytes];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) ('a' + i % 26);
+    }
+
+    @Benchmark
+    public long outputPump(Blackhole bh) throws IOException {
+        OutputPump pump = new OutputPump(new ByteArrayInputStream(data), new BlackholeStream(bh), () -> true,
+            OutputPump.DEFAULT_BUFFER_SIZE, 0);
+        pump.pump();
+        return pump.getBytes();
+    }
+
+    @Benchmark
+    public long inputForwarder(Blackhole bh) throws IOException {
+        InputForwarder forwarder = new InputForwarder(new ByteArrayInputStream(data), new BlackholeStream(bh), () -> true,
+            InputForwarder.DEFAULT_BUFFER_SIZE, 0, InputForwarder.DEFAULT_MAX_DELAY_MS);
+        forwarder.forward();
+        return forwarder.getBytes();
+    }
+
+    /** The original copy loop: 1 KB reads, flush after every read. */
+    @Benchmark
+    public long naiveLoop(Blackhole bh) throws IOException {
+        InputStream in = new ByteArrayInputStream(data);
+        OutputStream out = new BlackholeStream(bh);
+        byte[] buffer = new byte[1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            out.flush();
+            total += n;
+        }
+        return total;
+    }
+
+    private static final class BlackholeStream extends OutputStream {
+        private final Blackhole bh;
+
+        BlackholeStream(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int b) {
+            bh.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bh.consume(b);
+            bh.consume(len);
+        }
+
+        @Override
+        public void flush() {
+            // a flush to a real terminal is a syscall; make it cost something
+            Blackhole.consumeCPU(64);
+        }
+    }
+}
@@ -1,13 +1,95 @@
 package ac.onyx.phantom.shell;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.Banner;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.metrics.jfr.FlightRecorderApplicationStartup;
 import org.springframework.shell.command.annotation.CommandScan;
 
+import ac.onyx.phantom.shell.agent.AgentRequest;
+import ac.onyx.phantom.shell.agent.AgentResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @SpringBootApplication
 @CommandScan
+// Jackson binds the agent wire records by reflection, which a native image only allows for registered types
+@RegisterReflectionForBinding({ AgentRequest.class, AgentResponse.class })
 public class App {
+
+    /** Where to record startup steps: a file path for a text report, or "jfr". */
+    static final String STARTUP_PROPERTY = "phantom.startup.record";
+
     public static void main(String[] args) {
-        SpringApplication.run(App.class, args);
+        SpringApplication app = new SpringApplication(App.class);
+
+        // A command on the command line (e.g. from a script) runs once and exits:
+        // no embedded web server, and only the beans that command touches
+        if (args.length > 0) {
+            app.setWebApplicationType(WebApplicationType.NONE);
+            app.setLazyInitialization(true);
+            app.setBannerMode(Banner.Mode.OFF);
+            app.setAdditionalProfiles("oneshot");
+        }
+
+        String record = System.getProperty(STARTUP_PROPERTY);
+        if ("jfr".equals(record)) {
+            // Start the JVM with -XX:StartFlightRecording to capture the events
+            app.setApplicationStartup(new FlightRecorderApplicationStartup());
+        } else if (record != null && !record.isBlank()) {
+            BufferingApplicationStartup startup = new BufferingApplicationStartup(4096);
+            app.setApplicationStartup(startup);
+            app.addListeners((ApplicationStartedEvent e) -> writeTimeline(startup.getBufferedTimeline(), Path.of(record)));
+        }
+
+        app.run(args);
+    }
+
+    /**
+     * In-process registry for the shell's own metrics (see the {@code stats}
+     * command); replaced by whatever registry an exporter brings along.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+
+    /**
+     * Writes the recorded startup steps, slowest first, with their tags.
+     */
+    private static void writeTimeline(StartupTimeline timeline, Path file) {
+        List<StartupTimeline.TimelineEvent> events = new ArrayList<>(timeline.getEvents());
+        events.sort((a, b) -> b.getDuration().compareTo(a.getDuration()));
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.printf("startup began %s, %d steps%n", timeline.getStartTime(), events.size());
+            for (StartupTimeline.TimelineEvent event : events) {
+                StringBuilder tags = new StringBuilder();
+                event.getStartupStep().getTags().forEach(t -> tags.append(' ').append(t.getKey()).append('=').append(t.getValue()));
+                out.printf("%8.1f ms  %s%s%n", millis(event.getDuration()), event.getStartupStep().getName(), tags);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write startup timeline to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static double millis(Duration d) {
+        return d.toNanos() / 1e6;
     }
-}
\ No newline at end of file
+}
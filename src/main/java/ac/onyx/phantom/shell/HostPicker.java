@@ -0,0 +1,282 @@
+package ac.onyx.phantom.shell;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+import org.jline.utils.Display;
+import org.jline.utils.NonBlockingReader;
+
+import ac.onyx.phantom.shell.ssh.HostSearchIndex;
+import ac.onyx.phantom.shell.ssh.SSHConfig;
+
+/**
+ * Type-to-filter host selector for large host lists.
+ *
+ * Every keystroke re-queries the {@link HostSearchIndex} for just the rows that
+ * fit on screen, and the JLine {@link Display} only repaints lines that changed.
+ * An optional status column (e.g. probe results) is refreshed while the picker is
+ * open, re-ranking the list whenever its source reports new data. A highlight
+ * listener hears about a host once the cursor has rested on it for a moment, so
+ * work for it (such as connecting) can start before it is chosen.
+ */
+public class HostPicker {
+
+    private static final int ESC = 27;
+    private static final long ESC_TIMEOUT_MS = 50;
+    private static final long STATUS_REFRESH_MS = 150;
+    private static final long HIGHLIGHT_DWELL_MS = 300;
+
+    private final Terminal terminal;
+    private final HostSearchIndex index;
+    private final String title;
+
+    private String query = "";
+    private int selected;
+    private int offset;
+    private HostSearchIndex.Result result;
+    private long lastSearchNanos;
+
+    private Function<SSHConfig, AttributedString> status;
+    private LongSupplier statusGeneration;
+    private long renderedGeneration;
+
+    private Consumer<SSHConfig> onHighlight;
+    private SSHConfig highlighted;
+    private long highlightedSince;
+    private boolean highlightReported;
+
+    public HostPicker(Terminal terminal, HostSearchIndex index, String title) {
+        this.terminal = terminal;
+        this.index = index;
+        this.title = title;
+    }
+
+    /**
+     * Shows {@code status} next to each host and redraws whenever
+     * {@code generation} changes.
+     */
+    public HostPicker withStatus(Function<SSHConfig, AttributedString> status, LongSupplier generation) {
+        this.status = status;
+        this.statusGeneration = generation;
+        return this;
+    }
+
+    /**
+     * Calls {@code listener} for a host that stays highlighted for
+     * {@value #HIGHLIGHT_DWELL_MS} ms; scrolling past a host does not count.
+     */
+    public HostPicker onHighlight(Consumer<SSHConfig> listener) {
+        this.onHighlight = listener;
+        return this;
+    }
+
+    /**
+     * Runs the picker until a host is chosen (returned) or it is cancelled (null).
+     */
+    public SSHConfig run() throws IOException {
+        Attributes original = terminal.enterRawMode();
+        Display display = new Display(terminal, false);
+        try {
+            NonBlockingReader reader = terminal.reader();
+            search();
+            while (true) {
+                render(display);
+                checkHighlight();
+                int c = status == null && onHighlight == null ? reader.read() : reader.read(STATUS_REFRESH_MS);
+                if (c == NonBlockingReader.READ_EXPIRED) {
+                    // No key yet: pick up new status results, re-ranked
+                    if (statusGeneration != null && statusGeneration.getAsLong() != renderedGeneration) rerank();
+                    continue;
+                }
+                switch (c) {
+                    case -1:
+                    case 3:   // Ctrl+C
+                        finish(display, null);
+                        return null;
+                    case '\r':
+                    case '\n': {
+                        SSHConfig choice = current();
+                        if (choice != null) {
+                            finish(display, choice);
+                            return choice;
+                        }
+                        break;
+                    }
+                    case 127:
+                    case 8:
+                        if (!query.isEmpty()) updateQuery(query.substring(0, query.length() - 1));
+                        break;
+                    case 21:  // Ctrl+U
+                        updateQuery("");
+                        break;
+                    case 14:  // Ctrl+N
+                        move(1);
+                        break;
+                    case 16:  // Ctrl+P
+                        move(-1);
+                        break;
+                    case ESC:
+                        if (!readEscape(reader)) {
+                            finish(display, null);
+                            return null;
+                        }
+                        break;
+                    default:
+                        if (c >= 32) updateQuery(query + (char) c);
+                        break;
+                }
+            }
+        } finally {
+            terminal.setAttributes(original);
+            terminal.flush();
+        }
+    }
+
+    /**
+     * Handles arrow and paging keys. Returns false for a lone ESC (cancel).
+     */
+    private boolean readEscape(NonBlockingReader reader) throws IOException {
+        int next = reader.read(ESC_TIMEOUT_MS);
+        if (next != '[' && next != 'O') return false;
+        int code = reader.read(ESC_TIMEOUT_MS);
+        switch (code) {
+            case 'A': move(-1); break;
+            case 'B': move(1); break;
+            case '5': reader.read(ESC_TIMEOUT_MS); move(-window()); break;
+            case '6': reader.read(ESC_TIMEOUT_MS); move(window()); break;
+            default: break;
+        }
+        return true;
+    }
+
+    private void updateQuery(String q) {
+        query = q;
+        selected = 0;
+        offset = 0;
+        search();
+    }
+
+    private void move(int delta) {
+        int total = result.total();
+        if (total == 0) return;
+        selected = Math.max(0, Math.min(total - 1, selected + delta));
+        if (selected < offset) offset = selected;
+        if (selected >= offset + window()) offset = selected - window() + 1;
+        if (offset + window() > result.matches().size()) search();
+    }
+
+    private void search() {
+        if (statusGeneration != null) renderedGeneration = statusGeneration.getAsLong();
+        long start = System.nanoTime();
+        result = index.search(query, offset + window());
+        lastSearchNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Searches again for new status data, keeping the cursor on the same host.
+     * When the host has moved out of the rows fetched, the old ranking stays until
+     * the next refresh rather than moving the cursor to another host.
+     */
+    private void rerank() {
+        SSHConfig host = current();
+        HostSearchIndex.Result previous = result;
+        long previousNanos = lastSearchNanos;
+        search();
+        if (host == null) return;
+        List<HostSearchIndex.Match> matches = result.matches();
+        for (int i = 0; i < matches.size(); i++) {
+            if (matches.get(i).host() == host) {
+                selected = i;
+                if (selected < offset) offset = selected;
+                if (selected >= offset + window()) offset = selected - window() + 1;
+                return;
+            }
+        }
+        result = previous;
+        lastSearchNanos = previousNanos;
+    }
+
+    private void checkHighlight() {
+        if (onHighlight == null) return;
+        SSHConfig host = current();
+        long now = System.nanoTime();
+        if (host != highlighted) {
+            highlighted = host;
+            highlightedSince = now;
+            highlightReported = false;
+        } else if (host != null && !highlightReported
+                && now - highlightedSince >= HIGHLIGHT_DWELL_MS * 1_000_000) {
+            highlightReported = true;
+            onHighlight.accept(host);
+        }
+    }
+
+    private SSHConfig current() {
+        List<HostSearchIndex.Match> matches = result.matches();
+        return selected < matches.size() ? matches.get(selected).host() : null;
+    }
+
+    private int window() {
+        return Math.max(1, Math.min(10, terminal.getHeight() - 3));
+    }
+
+    private void render(Display display) {
+        Size size = terminal.getSize();
+        display.resize(size.getRows(), size.getColumns());
+
+        List<AttributedString> lines = new ArrayList<>();
+        AttributedStringBuilder header = new AttributedStringBuilder()
+            .style(AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN)).append("? ")
+            .style(AttributedStyle.BOLD).append(title)
+            .style(AttributedStyle.DEFAULT).append(" › ")
+            .append(query);
+        lines.add(header.toAttributedString());
+
+        List<HostSearchIndex.Match> matches = result.matches();
+        int end = Math.min(matches.size(), offset + window());
+        for (int i = offset; i < end; i++) {
+            SSHConfig h = matches.get(i).host();
+            String label = String.join(",", h.getPatterns());
+            String detail = "  " + h + ":" + h.getPort();
+            AttributedStringBuilder line = new AttributedStringBuilder();
+            if (i == selected) {
+                line.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.CYAN)).append("❯ ").append(label);
+            } else {
+                line.append("  ").append(label);
+            }
+            if (status != null) {
+                line.style(AttributedStyle.DEFAULT).append("  ").append(status.apply(h));
+            }
+            line.style(AttributedStyle.DEFAULT.faint()).append(detail);
+            lines.add(line.toAttributedString().columnSubSequence(0, size.getColumns() - 1));
+        }
+
+        lines.add(new AttributedString(String.format("  %d/%d hosts · %.2f ms · ↑/↓ move · enter select · esc cancel",
+            result.total(), index.size(), lastSearchNanos / 1e6), AttributedStyle.DEFAULT.faint()));
+
+        display.update(lines, size.cursorPos(0, lines.get(0).columnLength()));
+    }
+
+    private void finish(Display display, SSHConfig choice) {
+        List<AttributedString> lines = new ArrayList<>();
+        AttributedStringBuilder done = new AttributedStringBuilder()
+            .style(AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN)).append(choice != null ? "✔ " : "✘ ")
+            .style(AttributedStyle.BOLD).append(title)
+            .style(AttributedStyle.DEFAULT).append(" ")
+            .append(choice != null ? String.join(",", choice.getPatterns()) : "");
+        lines.add(done.toAttributedString());
+        display.update(lines, terminal.getSize().cursorPos(0, lines.get(0).columnLength()));
+        terminal.writer().println();
+        terminal.writer().flush();
+    }
+}
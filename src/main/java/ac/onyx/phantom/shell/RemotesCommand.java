@@ -1,21 +1,27 @@
 package ac.onyx.phantom.shell;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Reader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import org.jline.reader.UserInterruptException;
 import org.jline.terminal.Attributes;
 import org.jline.terminal.Size;
 import org.jline.terminal.Terminal;
@@ -23,6 +29,8 @@ import org.jline.terminal.Terminal.Signal;
 import org.jline.terminal.Terminal.SignalHandler;
 import org.jline.utils.AttributedString;
 import org.jline.utils.AttributedStyle;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.util.unit.DataSize;
 import org.springframework.shell.command.annotation.Command;
 import org.springframework.shell.command.annotation.Option;
 import org.springframework.shell.component.PathInput;
@@ -34,15 +42,69 @@ import org.springframework.shell.component.StringInput.StringInputContext;
 import org.springframework.shell.component.support.SelectorItem;
 import org.springframework.shell.standard.AbstractShellComponent;
 
-import ac.onyx.phantom.shell.ssh.SSHConfigParser;
+import ac.onyx.phantom.shell.ssh.BroadcastGroup;
+import ac.onyx.phantom.shell.ssh.FanOutExec;
+import ac.onyx.phantom.shell.ssh.HostGlob;
+import ac.onyx.phantom.shell.ssh.HostProber;
+import ac.onyx.phantom.shell.ssh.HostSearchIndex;
+import ac.onyx.phantom.shell.ssh.InputForwarder;
+import ac.onyx.phantom.shell.ssh.KeyAuthenticator;
+import ac.onyx.phantom.shell.ssh.KnownHostsIndex;
+import ac.onyx.phantom.shell.ssh.KnownHostsVerifier;
+import ac.onyx.phantom.shell.ssh.OutputPump;
+import ac.onyx.phantom.shell.ssh.PortForwarder;
+import ac.onyx.phantom.shell.ssh.PreConnector;
+import ac.onyx.phantom.shell.ssh.ProxyCommandSocket;
+import ac.onyx.phantom.shell.ssh.RecentHosts;
+import ac.onyx.phantom.shell.ssh.SSHConfigResolver;
+import ac.onyx.phantom.shell.ssh.SSHConnectionPool;
+import ac.onyx.phantom.shell.ssh.SessionManager;
+import ac.onyx.phantom.shell.ssh.SessionStats;
+import ac.onyx.phantom.shell.ssh.SftpTransfer;
+import ac.onyx.phantom.shell.ssh.TimedSSHClient;
+import ac.onyx.phantom.shell.ssh.TransportSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.DirectConnection;
 import net.schmizz.sshj.connection.channel.direct.Session;
-import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+import net.schmizz.sshj.userauth.UserAuthException;
 import ac.onyx.phantom.shell.ssh.SSHConfig;
+import ac.onyx.phantom.shell.ssh.SSHConfigCache;
 
 @Command(group = "Remotes")
 public class RemotesCommand extends AbstractShellComponent {
 
+    /** A running port forward and the pool lease it holds. */
+    private record ActiveForward(String alias, SSHConnectionPool.Key key, SSHClient client, PortForwarder forwarder) {}
+
+    private final SSHConnectionPool pool;
+    private final SessionStats stats;
+    private final SessionManager sessions;
+    private final HostProber prober;
+    private final SSHConfigCache configCache = new SSHConfigCache(SSHConfigCache.defaultSnapshotDir());
+    private final RecentHosts recentHosts =
+        new RecentHosts(SSHConfigCache.defaultSnapshotDir().resolve("recent-hosts"));
+    private final Map<Integer, ActiveForward> forwards = new ConcurrentSkipListMap<>();
+    private final Map<Path, KnownHostsIndex> knownHosts = new ConcurrentHashMap<>();
+    private final PreConnector preConnector = new PreConnector();
+    private final KeyAuthenticator keyAuth =
+        new KeyAuthenticator(SSHConfigCache.defaultSnapshotDir().resolve("auth-methods"));
+    private SSHConfigResolver indexedResolver;
+    private HostSearchIndex searchIndex;
+
+    public RemotesCommand(@Value("${phantom.ssh.pool.idle-ttl:5m}") Duration idleTtl,
+                          @Value("${phantom.ssh.probe.timeout:750ms}") Duration probeTimeout,
+                          @Value("${phantom.ssh.probe.ttl:60s}") Duration probeTtl,
+                          @Value("${phantom.ssh.session.detached-buffer:256KB}") DataSize detachedBuffer,
+                          MeterRegistry registry) {
+        this.pool = new SSHConnectionPool(idleTtl);
+        this.sessions = new SessionManager((int) Math.min(Integer.MAX_VALUE, detachedBuffer.toBytes()));
+        this.stats = new SessionStats(registry);
+        this.prober = new HostProber(probeTimeout, probeTtl, HostProber.DEFAULT_MAX_IN_FLIGHT);
+    }
+
     @Command(command = "remotes", alias = "--remotes",
           description = "List and select remote servers")
     public String remotes(
@@ -83,7 +145,8 @@ public class RemotesCommand extends AbstractShellComponent {
         }
 
         // Continue with parsing & host selection
-        List<SSHConfig> hosts = SSHConfigParser.parse(configFile);
+        // Concrete aliases, each resolved through Host/Match blocks and Host * defaults
+        List<SSHConfig> hosts = configCache.resolver(configFile).hosts();
 
         // Filter entries without a hostname
         List<SSHConfig> validHosts = hosts.stream()
@@ -94,32 +157,31 @@ public class RemotesCommand extends AbstractShellComponent {
             return "No valid SSH hosts found in ~/.ssh/config";
         }
 
-        List<SelectorItem<SSHConfig>> items = validHosts.stream()
-            .filter(h -> h.getHostname() != null && !h.getHostname().isBlank())
-            .map(h -> SelectorItem.of(
-                String.join(",", h.getPatterns()),
-                h
-            ))
-            .collect(Collectors.toList());
-
-        SingleItemSelector<SSHConfig, SelectorItem<SSHConfig>> remoteSelector = new SingleItemSelector<>(getTerminal(),
-            items, "Select a remote", null);
-
-		remoteSelector.setResourceLoader(getResourceLoader());
-		remoteSelector.setTemplateExecutor(getTemplateExecutor());
+        // Type-to-filter picker over a prebuilt index; the index is rebuilt only when the config changed.
+        // Probes run in the background and re-rank the list as results come in.
+        HostSearchIndex index = searchIndex(configFile, validHosts);
+        prober.probeAll(validHosts, (h, probe) ->
+            index.setReachability(h, probe.reachable() ? HostSearchIndex.UP : HostSearchIndex.DOWN));
+        // Index known_hosts while the user is still picking
+        knownHosts.computeIfAbsent(expandHome("~/.ssh/known_hosts"), KnownHostsIndex::new).preload();
+        SSHConfig selectedHost = new HostPicker(getTerminal(), index, "Select a remote")
+            .withStatus(this::probeStatus, prober::generation)
+            .onHighlight(this::preConnectDirect)
+            .run();
 
-		SingleItemSelectorContext<SSHConfig, SelectorItem<SSHConfig>> context = remoteSelector
-            .run(SingleItemSelectorContext.empty());
-
-		SSHConfig selectedHost = context.getResultItem()
-            .map(SelectorItem<SSHConfig>::getItem)
-            .orElse(null);
-
-        if (selectedHost == null) return "No host selected";
+        if (selectedHost == null) {
+            preConnector.cancelExcept(null);
+            return "No host selected";
+        }
+        recentHosts.touch(FanOutExec.label(selectedHost));
+        searchIndex.markUsed(selectedHost);
 
         String user = (selectedHost.getUser() == null || selectedHost.getUser().isBlank())
             ? System.getProperty("user.name")
             : selectedHost.getUser();
+        // Handshake in the background while the shell and password prompts are up
+        preConnect(selectedHost);
+        preConnector.cancelExcept(SSHConnectionPool.Key.of(selectedHost, user));
 
         // --- 3. Shell selection ---
         List<String> availableShells = new ArrayList<>();
@@ -152,168 +214,86 @@ public class RemotesCommand extends AbstractShellComponent {
         if ("Integrated".equals(selectedShell)) {
             Terminal terminal = getTerminal();
 
-            // --- 2. Ask for password using Spring Shell StringInput ---
-            StringInput passwordInput = new StringInput(getTerminal(), "Password for " + user + ":", "");
-            passwordInput.setResourceLoader(getResourceLoader());
-            passwordInput.setTemplateExecutor(getTemplateExecutor());
-            passwordInput.setMaskCharacter('*');  // Mask input
-
-            StringInputContext passwordCtx = passwordInput.run(StringInputContext.empty());
-            String password = passwordCtx.getResultValue();
+            // Reuse a pooled, already authenticated transport when there is one
+            SSHConnectionPool.Key key = SSHConnectionPool.Key.of(selectedHost, user);
+            SSHClient pooled = pool.lease(key);
+            if (pooled != null) preConnector.cancel(key);
+            String password = "";
 
-            // Optional: If the user presses Enter without typing anything,
-            // you can handle that as "no password" (maybe try key-based auth)
-            if (password == null || password.isBlank()) {
-                password = "";
-                getTerminal().writer().println("⚠️  No password entered, attempting key-based authentication...");
+            if (pooled == null && !keyAuth.hasKeysFor(selectedHost, user)) {
+                // --- 2. No key is likely to work: ask for the password up front ---
+                password = promptPassword(user);
             }
-            
-            Attributes original = terminal.enterRawMode();
-            try ( SSHClient client = new SSHClient()) {
-                client.addHostKeyVerifier(new PromiscuousVerifier());
-                client.connect(selectedHost.getHostname(), selectedHost.getPort());
 
-                try {
-                    if (password.isEmpty()) {
-                        // Try key-based authentication first
+            SessionStats.Tracker tracker = stats.open(FanOutExec.label(selectedHost));
+            tracker.setPooled(pooled != null);
+            Attributes original = terminal.enterRawMode();
+            SSHClient leased = pooled; // released here unless the session manager takes it over
+            boolean handedOff = false;
+            try {
+                SSHClient client = pooled;
+                if (client == null) {
+                    String secret = password;
+                    try {
+                        client = pool.acquire(key, () -> {
+                            // CONNECT is only the wait for the speculative handshake, if any is left
+                            TimedSSHClient early = stats.time(tracker, SessionStats.Phase.CONNECT,
+                                () -> preConnector.take(key));
+                            return early != null
+                                ? login(early, selectedHost, user, secret, tracker)
+                                : connect(selectedHost, user, secret, tracker);
+                        });
+                    } catch (UserAuthException authEx) {
+                        if (!secret.isEmpty()) return error("Authentication failed: " + authEx.getMessage());
+                        // Every key was rejected: fall back to a password
+                        terminal.setAttributes(original);
+                        String retry = promptPassword(user);
+                        terminal.enterRawMode();
                         try {
-                            client.authPublickey(user);
-                        } catch (Exception e) {
-                            getTerminal().writer().println("⚠️  Key-based authentication failed, retrying with password...");
-                            client.authPassword(user, password);
+                            client = pool.acquire(key, () -> connect(selectedHost, user, retry, tracker));
+                        } catch (UserAuthException retryEx) {
+                            return error("Authentication failed: " + retryEx.getMessage());
                         }
-                    } else {
-                        client.authPassword(user, password);
                     }
-                } catch (Exception authEx) {
-                    AttributedString serr = new AttributedString("Authentication failed: " + authEx.getMessage(),
-                        AttributedStyle.DEFAULT.foreground(AttributedStyle.RED));
-                    return serr.toAnsi();
                 }
 
-                AtomicReference<OutputStream> remoteInRef = new AtomicReference<>();
+                leased = client;
 
-                // Create a handler that forwards Ctrl+C to remote stdin
-                SignalHandler intHandler = sig -> {
-                    OutputStream out = remoteInRef.get();
-                    if (out != null) {
-                        try {
-                            out.write(3);           // ASCII ETX (Ctrl+C)
-                            out.flush();
-                        } catch (IOException ioe) {
-                            // best-effort; ignore if remote closed
-                        }
-                    } else {
-                        // No remote yet — swallow the signal (do nothing) so local shell not interrupted
-                    }
-                };
-
-                // --- Ctrl+Z handler (SIGTSTP, ASCII 26) ---
-                SignalHandler tstpHandler = sig -> {
-                    OutputStream out = remoteInRef.get();
-                    if (out != null) {
-                        try {
-                            out.write(26);  // ASCII SUB (Ctrl+Z)
-                            out.flush();
-                        } catch (IOException ioe) {
-                            // Ignore, remote likely closed
-                        }
-                    }
-                };
-
-                // Save previous handlers so we can restore it later (may be null)
-                SignalHandler prevIntHandler = terminal.handle(Signal.INT, intHandler);
-                SignalHandler prevTstpHandler = terminal.handle(Signal.TSTP, tstpHandler);
-                SignalHandler prevWinh = null;
-                // We need two threads: one for input, one for output.
-                // Use a try-with-resources to ensure the executor is shut down.
+                // Start the SSH session and shell; from here on the session manager owns them
+                SSHClient connected = client;
+                Session session = stats.time(tracker, SessionStats.Phase.SHELL, connected::startSession);
+                Session.Shell shell;
                 try {
-                    ExecutorService executor = Executors.newFixedThreadPool(2);
-                    // Start the SSH session and shell
-                    try (Session session = client.startSession()) {
-                        String termType = System.getenv().getOrDefault("TERM", "xterm-256color");
+                    String termType = System.getenv().getOrDefault("TERM", "xterm-256color");
+                    stats.time(tracker, SessionStats.Phase.PTY, () -> {
                         session.allocatePTY(termType, terminal.getWidth(), terminal.getHeight(), 0, 0, Collections.emptyMap());
-                        // session.allocateDefaultPTY();
-                        try (Session.Shell shell = session.startShell()) {
-
-                            prevWinh = terminal.handle(Signal.WINCH, sig -> {
-                                Size sz = terminal.getSize();
-                                try {
-                                    // cols, rows, pixelWidth=0, pixelHeight=0
-                                    shell.changeWindowDimensions(sz.getColumns(), sz.getRows(), 0, 0);
-                                } catch (IOException e) {
-                                    // ignore or log
-                                }
-                            });
-
-                            // --- 1. Remote Output -> Local Terminal Thread ---
-                            executor.submit(() -> {
-                                try (InputStream remoteOut = shell.getInputStream()) {
-                                    byte[] buffer = new byte[1024];
-                                    int bytesRead;
-                                    // Loop until the remote stream closes
-                                    while (shell.isOpen() && (bytesRead = remoteOut.read(buffer)) != -1) {
-                                        terminal.output().write(buffer, 0, bytesRead);
-                                        terminal.output().flush(); // CRITICAL: Flush to see output immediately
-                                    }
-                                } catch (IOException e) {
-                                    // This often happens when the shell closes, which is normal
-                                }
-                            });
-
-                            // --- 2. Local Input -> Remote Input Thread ---
-                            executor.submit(() -> {
-                                try (OutputStream remoteIn = shell.getOutputStream()) {
-                                    remoteInRef.set(remoteIn);
-                                    Reader localReader = terminal.reader();
-                                    int c;
-                                    // Loop until the local reader closes (or we're interrupted)
-                                    while (shell.isOpen() && (c = localReader.read()) != -1) {
-                                        remoteIn.write(c);
-                                        remoteIn.flush(); // CRITICAL: Flush to send input immediately
-                                    }
-                                } catch (IOException e) {
-                                    // This often happens when the shell closes
-                                } finally {
-                                    // clear ref so signal handler does not attempt to write to closed stream
-                                    remoteInRef.set(null);
-                                }
-                            });
-
-                            // --- 3. Main Thread: Wait for completion ---
-                            // Wait for the shell to close (e.g., user types 'exit')
-                            session.join(0, TimeUnit.SECONDS); // 0 means wait indefinitely
-                            AttributedString sout = new AttributedString("Integrated SSH session closed.",
-                                AttributedStyle.DEFAULT.foreground(AttributedStyle.YELLOW)
-                            );
-                            terminal.writer().println(sout.toAnsi());
-
-                        } // shell.close() is called here
-                    } // session.close() is called here
-
-                } catch (UserInterruptException e) {
-                    // User pressed Ctrl+C
-                    terminal.writer().println("\n--- Session Interrupted (Ctrl+C) ---");
-                } catch (Exception e) {
-                    terminal.writer().println("An error occurred: " + e.getMessage());
-                } finally {
-                    terminal.writer().flush();
-                    terminal.handle(Signal.INT, prevIntHandler);
-                    terminal.handle(Signal.TSTP, prevTstpHandler);
-                    if (prevWinh != null) {
-                        terminal.handle(Signal.WINCH, prevWinh);
-                    }
+                        return null;
+                    });
+                    shell = stats.time(tracker, SessionStats.Phase.SHELL, session::startShell);
+                } catch (IOException | RuntimeException e) {
+                    session.close();
+                    throw e;
                 }
+                SessionManager.ManagedSession managed = sessions.open(FanOutExec.label(selectedHost), session, shell,
+                    terminal, () -> {
+                        pool.release(key, connected);
+                        stats.close(tracker);
+                    });
+                tracker.attach(managed.getOutputPump(), managed.getInputForwarder());
+                handedOff = true;
+                return runAttached(managed);
             } catch (Exception e) {
-                AttributedString serr = new AttributedString("Failed: " + e.getMessage(),
-                    AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)
-                );
-                return serr.toAnsi();
+                return error("Failed: " + e.getMessage());
             } finally {
+                if (!handedOff) {
+                    pool.release(key, leased);
+                    stats.close(tracker);
+                }
                 terminal.setAttributes(original);
             }
         } else {
-            // External shell link
+            // External shell link; ssh makes its own connection
+            preConnector.cancelExcept(null);
             String command;
             String sshCommand = String.format("ssh %s@%s -p %d", user, selectedHost.getHostname(), selectedHost.getPort());
             
@@ -342,4 +322,933 @@ public class RemotesCommand extends AbstractShellComponent {
         );
         return sout.toAnsi();
     }
+
+    @Command(command = "remotes bench",
+          description = "Measure remote output throughput through the session pump")
+    public String bench(
+        @Option(longNames = "host", shortNames = 'h', required = true, description = "Host alias from the SSH config")
+        String alias,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password,
+        @Option(longNames = "megabytes", shortNames = 'm', defaultValue = "256", description = "Amount of output to stream")
+        int megabytes
+    ) {
+        SSHConfig host;
+        try {
+            host = findHost(configPath, alias);
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (host == null) return error("Unknown host: " + alias);
+
+        long total = (long) megabytes * 1024 * 1024;
+        SSHConnectionPool.Key key = SSHConnectionPool.Key.of(host, userOf(host));
+        String secret = password == null ? "" : password;
+        try {
+            SSHClient client = pool.acquire(key, () -> connect(host, key.user(), secret));
+
+            try (Session session = client.startSession();
+                 Session.Command cmd = session.exec("head -c " + total + " /dev/zero")) {
+                OutputPump pump = new OutputPump(cmd.getInputStream(), OutputStream.nullOutputStream(), () -> true);
+                long start = System.nanoTime();
+                pump.pump();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                cmd.join(5, TimeUnit.SECONDS);
+
+                return String.format("%d bytes in %.3f s: %.1f MB/s (%d reads, %d flushes)",
+                    pump.getBytes(), seconds, pump.getBytes() / 1024.0 / 1024.0 / seconds,
+                    pump.getReads(), pump.getFlushes());
+            } finally {
+                pool.release(key, client);
+            }
+        } catch (Exception e) {
+            return error("Failed: " + e.getMessage());
+        }
+    }
+
+    @Command(command = "remotes bench-input",
+          description = "Measure packets and time needed to forward a paste to a remote host")
+    public String benchInput(
+        @Option(longNames = "host", shortNames = 'h', required = true, description = "Host alias from the SSH config")
+        String alias,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password,
+        @Option(longNames = "kilobytes", shortNames = 'k', defaultValue = "1024", description = "Size of the simulated paste")
+        int kilobytes
+    ) {
+        SSHConfig host;
+        try {
+            host = findHost(configPath, alias);
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (host == null) return error("Unknown host: " + alias);
+
+        byte[] paste = new byte[kilobytes * 1024];
+        Arrays.fill(paste, (byte) 'x');
+        SSHConnectionPool.Key key = SSHConnectionPool.Key.of(host, userOf(host));
+        String secret = password == null ? "" : password;
+        try {
+            SSHClient client = pool.acquire(key, () -> connect(host, key.user(), secret));
+
+            try (Session session = client.startSession();
+                 Session.Command cmd = session.exec("cat > /dev/null")) {
+                InputForwarder forwarder = new InputForwarder(
+                    new ByteArrayInputStream(paste), cmd.getOutputStream(), cmd::isOpen);
+                long start = System.nanoTime();
+                forwarder.forward();
+                cmd.getOutputStream().close();
+                cmd.join(30, TimeUnit.SECONDS);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                return String.format("%d bytes in %d packets, %.3f s", forwarder.getBytes(),
+                    forwarder.getPackets(), seconds);
+            } finally {
+                pool.release(key, client);
+            }
+        } catch (Exception e) {
+            return error("Failed: " + e.getMessage());
+        }
+    }
+
+    @Command(command = "remotes bench-transport",
+          description = "Compare bulk-output throughput of a host across compression and cipher profiles")
+    public String benchTransport(
+        @Option(longNames = "host", shortNames = 'h', required = true, description = "Host alias from the SSH config")
+        String alias,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password,
+        @Option(longNames = "megabytes", shortNames = 'm', defaultValue = "64", description = "Amount of output per profile")
+        int megabytes,
+        @Option(longNames = "data", shortNames = 'd', defaultValue = "text", description = "Output kind: text, zero or random")
+        String data
+    ) {
+        SSHConfig host;
+        try {
+            host = findHost(configPath, alias);
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (host == null) return error("Unknown host: " + alias);
+        long total = (long) megabytes * 1024 * 1024;
+        String command = switch (data) {
+            case "zero" -> "head -c " + total + " /dev/zero";
+            case "random" -> "head -c " + total + " /dev/urandom";
+            default -> "yes '2024-01-01T00:00:00Z INFO  request handled path=/api/v1/items status=200 ms=12' | head -c " + total;
+        };
+
+        // Overrides come first so they win over the host's own settings
+        Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+        profiles.put("configured", Map.of());
+        profiles.put("plain", Map.of("compression", "no", "ciphers", "", "phantomwindowsize", ""));
+        profiles.put("zlib", Map.of("compression", "yes"));
+        profiles.put("zlib+16M window", Map.of("compression", "yes", "phantomwindowsize", "16M"));
+        profiles.put("aes128-gcm", Map.of("compression", "no", "ciphers", "aes128-gcm@openssh.com"));
+        profiles.put("chacha20", Map.of("compression", "no", "ciphers", "chacha20-poly1305@openssh.com"));
+
+        String user = userOf(host);
+        String secret = password == null ? "" : password;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %-50s %9s %9s %10s%n", "PROFILE", "SETTINGS", "CONNECT", "SECONDS", "MB/s"));
+        for (Map.Entry<String, Map<String, String>> profile : profiles.entrySet()) {
+            SSHConfig tuned = new SSHConfig();
+            tuned.addPattern(alias);
+            profile.getValue().forEach(tuned::set);
+            tuned.mergeFrom(host);
+            TransportSettings settings = TransportSettings.of(tuned);
+
+            long connectStart = System.nanoTime();
+            try (SSHClient client = connect(tuned, host.getJumpChain(), user, secret, null)) {
+                double connectMs = (System.nanoTime() - connectStart) / 1e6;
+                try (Session session = client.startSession();
+                     Session.Command cmd = session.exec(command)) {
+                    OutputPump pump = new OutputPump(cmd.getInputStream(), OutputStream.nullOutputStream(), () -> true);
+                    long start = System.nanoTime();
+                    pump.pump();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    cmd.join(5, TimeUnit.SECONDS);
+                    sb.append(String.format("%-16s %-50s %7.0fms %9.3f %10.1f%n", profile.getKey(), settings,
+                        connectMs, seconds, pump.getBytes() / 1024.0 / 1024.0 / seconds));
+                }
+            } catch (Exception e) {
+                sb.append(error(String.format("%-16s %-50s %s", profile.getKey(), settings, e.getMessage()))).append('\n');
+            }
+        }
+        return sb.toString().stripTrailing();
+    }
+
+    @Command(command = "remotes put",
+          description = "Upload a file over parallel SFTP streams, resuming an interrupted upload")
+    public String put(
+        @Option(longNames = "host", shortNames = 'h', required = true, description = "Host alias from the SSH config")
+        String alias,
+        @Option(longNames = "local", shortNames = 'l', required = true, description = "Local file to upload")
+        String local,
+        @Option(longNames = "remote", shortNames = 'r', required = true, description = "Remote destination path")
+        String remote,
+        @Option(longNames = "streams", shortNames = 's', defaultValue = "4", description = "Parallel SFTP channels")
+        int streams,
+        @Option(longNames = "chunk-mb", defaultValue = "16", description = "Chunk size in megabytes")
+        int chunkMb,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password
+    ) {
+        Path source = Path.of(local.replaceFirst("^~", System.getProperty("user.home")));
+        if (!Files.isRegularFile(source)) {
+            return error("No such file: " + source);
+        }
+        Path stateDir = Path.of(System.getProperty("user.home"), ".cache", "phantom-shell", "transfers");
+        return transfer(alias, configPath, password, streams, chunkMb,
+            (t, progress) -> t.put(source, remote, stateDir, progress), source + " -> " + alias + ":" + remote);
+    }
+
+    @Command(command = "remotes get",
+          description = "Download a file over parallel SFTP streams, resuming an interrupted download")
+    public String get(
+        @Option(longNames = "host", shortNames = 'h', required = true, description = "Host alias from the SSH config")
+        String alias,
+        @Option(longNames = "remote", shortNames = 'r', required = true, description = "Remote file to download")
+        String remote,
+        @Option(longNames = "local", shortNames = 'l', required = true, description = "Local destination path")
+        String local,
+        @Option(longNames = "streams", shortNames = 's', defaultValue = "4", description = "Parallel SFTP channels")
+        int streams,
+        @Option(longNames = "chunk-mb", defaultValue = "16", description = "Chunk size in megabytes")
+        int chunkMb,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password
+    ) {
+        Path target = Path.of(local.replaceFirst("^~", System.getProperty("user.home")));
+        if (Files.isDirectory(target)) {
+            target = target.resolve(Path.of(remote).getFileName());
+        }
+        Path destination = target;
+        return transfer(alias, configPath, password, streams, chunkMb,
+            (t, progress) -> t.get(remote, destination, progress), alias + ":" + remote + " -> " + destination);
+    }
+
+    /** One direction of {@link SftpTransfer}, bound to its paths. */
+    private interface TransferCall {
+        SftpTransfer.Result run(SftpTransfer transfer, Consumer<SftpTransfer.Progress> progress) throws IOException;
+    }
+
+    private String transfer(String alias, String configPath, String password, int streams, int chunkMb,
+                            TransferCall call, String label) {
+        SSHConfig host;
+        try {
+            host = findHost(configPath, alias);
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (host == null) return error("Unknown host: " + alias);
+
+        SSHConnectionPool.Key key = SSHConnectionPool.Key.of(host, userOf(host));
+        String secret = password == null ? "" : password;
+        PrintWriter out = getTerminal().writer();
+        try {
+            SSHClient client = pool.acquire(key, () -> connect(host, key.user(), secret));
+            try {
+                SftpTransfer transfer = new SftpTransfer(client, streams, (long) chunkMb * 1024 * 1024);
+                out.println(label);
+                SftpTransfer.Result result = call.run(transfer, p -> {
+                    out.printf("\r%s / %s  %5.1f%%  %s/s   ", size(p.transferred()), size(p.total()),
+                        p.total() == 0 ? 100.0 : p.transferred() * 100.0 / p.total(), size((long) p.bytesPerSecond()));
+                    out.flush();
+                });
+                out.println();
+                String resumed = result.resumed() > 0 ? String.format(" (%s resumed)", size(result.resumed())) : "";
+                return String.format("%s in %.2f s, %s/s over %d streams%s", size(result.transferred()),
+                    result.seconds(), size((long) result.bytesPerSecond()), streams, resumed);
+            } finally {
+                pool.release(key, client);
+            }
+        } catch (Exception e) {
+            out.println();
+            return error("Failed: " + e.getMessage() + " (run again to resume)");
+        }
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024) return String.format("%.1f MB", bytes / 1024.0 / 1024);
+        return String.format("%.2f GB", bytes / 1024.0 / 1024 / 1024);
+    }
+
+    private synchronized HostSearchIndex searchIndex(File configFile, List<SSHConfig> hosts) throws IOException {
+        SSHConfigResolver resolver = configCache.resolver(configFile);
+        if (searchIndex == null || indexedResolver != resolver) {
+            searchIndex = new HostSearchIndex(hosts, recentHosts::lastUsed);
+            indexedResolver = resolver;
+        }
+        return searchIndex;
+    }
+
+    private static File configFile(String configPath) {
+        return (configPath != null && !configPath.isBlank())
+            ? new File(configPath)
+            : new File(System.getProperty("user.home"), ".ssh/config");
+    }
+
+    /** The resolved config for an alias, or null when no Host block names it. */
+    private SSHConfig findHost(String configPath, String alias) throws IOException {
+        SSHConfigResolver resolver = configCache.resolver(configFile(configPath));
+        return resolver.isDefined(alias) ? resolver.resolve(alias) : null;
+    }
+
+    /**
+     * Starts DNS, TCP connect and key exchange for {@code host} in the background,
+     * unless the pool already holds a connection to it. A host key seen for the
+     * first time is only added to known_hosts once the connection is taken.
+     */
+    private void preConnect(SSHConfig host) {
+        String user = userOf(host);
+        SSHConnectionPool.Key key = SSHConnectionPool.Key.of(host, user);
+        if (pool.isLive(key)) return;
+        KnownHostsVerifier verifier = hostKeyVerifier(host).holdNewKeys();
+        preConnector.start(key, () -> SSHConnectionPool.newClient(TransportSettings.of(host)),
+            client -> openTransport(client, host, host.getJumpChain(), user, null, verifier),
+            verifier::commitNewKey);
+    }
+
+    /**
+     * Pre-connects a host the picker merely highlights. Hosts behind a ProxyJump
+     * or ProxyCommand are left alone: reaching them would log in to the bastion
+     * or run a local command the user has not asked for yet.
+     */
+    private void preConnectDirect(SSHConfig host) {
+        if (host.getJumpChain().isEmpty() && host.getEffectiveProxyCommand() == null) preConnect(host);
+    }
+
+    private static String userOf(SSHConfig host) {
+        return (host.getUser() == null || host.getUser().isBlank())
+            ? System.getProperty("user.name")
+            : host.getUser();
+    }
+
+    @Command(command = "remotes exec",
+          description = "Run a command on every host matching a pattern")
+    public String exec(
+        @Option(longNames = "hosts", shortNames = 'H', required = true, description = "Host glob matched against config patterns")
+        String hostGlob,
+        @Option(longNames = "command", shortNames = 'x', required = true, description = "Command to run on each host")
+        String command,
+        @Option(longNames = "parallel", shortNames = 'P', defaultValue = "16", description = "Maximum hosts running at once")
+        int parallel,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password
+    ) throws InterruptedException {
+        HostGlob glob = HostGlob.compile(hostGlob);
+        List<SSHConfig> targets;
+        try {
+            targets = configCache.resolver(configFile(configPath)).hosts().stream()
+                .filter(glob::matches)
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (targets.isEmpty()) return error("No hosts match " + hostGlob);
+
+        String secret = password == null ? "" : password;
+        PrintWriter writer = getTerminal().writer();
+        FanOutExec fanOut = new FanOutExec(parallel, line -> {
+            synchronized (writer) {
+                writer.println(line);
+                writer.flush();
+            }
+        });
+
+        List<FanOutExec.Result> results = fanOut.run(targets, command, new FanOutExec.HostConnector() {
+            @Override
+            public SSHClient open(SSHConfig host) throws IOException {
+                SSHConnectionPool.Key key = SSHConnectionPool.Key.of(host, userOf(host));
+                return pool.acquire(key, () -> connect(host, key.user(), secret));
+            }
+
+            @Override
+            public void close(SSHConfig host, SSHClient client) {
+                pool.release(SSHConnectionPool.Key.of(host, userOf(host)), client);
+            }
+        });
+
+        int width = results.stream().mapToInt(r -> r.host().length()).max().orElse(4);
+        long failed = results.stream().filter(r -> !r.ok()).count();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%n%-" + width + "s %6s %10s%n", "HOST", "EXIT", "TIME"));
+        for (FanOutExec.Result r : results) {
+            String exit = r.exitStatus() == null ? "-" : r.exitStatus().toString();
+            String line = String.format("%-" + width + "s %6s %9dms%s", r.host(), exit, r.duration().toMillis(),
+                r.error() == null ? "" : "  " + r.error());
+            AttributedStyle style = r.ok() ? AttributedStyle.DEFAULT : AttributedStyle.DEFAULT.foreground(AttributedStyle.RED);
+            sb.append(new AttributedString(line, style).toAnsi()).append("\n");
+        }
+        sb.append(String.format("%d hosts, %d failed", results.size(), failed));
+        return sb.toString();
+    }
+
+    @Command(command = "remotes broadcast",
+          description = "Type into interactive shells on every host matching a pattern at once (Ctrl+] for commands)")
+    public String broadcast(
+        @Option(longNames = "hosts", shortNames = 'H', required = true, description = "Host glob matched against config patterns")
+        String hostGlob,
+        @Option(longNames = "parallel", shortNames = 'P', defaultValue = "16", description = "Maximum hosts connecting at once")
+        int parallel,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password
+    ) throws InterruptedException {
+        HostGlob glob = HostGlob.compile(hostGlob);
+        List<SSHConfig> targets;
+        try {
+            targets = configCache.resolver(configFile(configPath)).hosts().stream()
+                .filter(glob::matches)
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (targets.isEmpty()) return error("No hosts match " + hostGlob);
+
+        String secret = password == null ? "" : password;
+        Terminal terminal = getTerminal();
+        PrintWriter writer = terminal.writer();
+        BroadcastGroup group = BroadcastGroup.open(targets, new FanOutExec.HostConnector() {
+            @Override
+            public SSHClient open(SSHConfig host) throws IOException {
+                SSHConnectionPool.Key key = SSHConnectionPool.Key.of(host, userOf(host));
+                return pool.acquire(key, () -> connect(host, key.user(), secret));
+            }
+
+            @Override
+            public void close(SSHConfig host, SSHClient client) {
+                pool.release(SSHConnectionPool.Key.of(host, userOf(host)), client);
+            }
+        }, parallel, terminal.getSize(), failure -> {
+            synchronized (writer) {
+                writer.println(error(failure));
+                writer.flush();
+            }
+        });
+        if (group.getMembers().isEmpty()) {
+            group.close();
+            return error("Could not open a shell on any host");
+        }
+
+        SignalHandler prevInt = terminal.handle(Signal.INT, sig -> group.sendNow(3));
+        SignalHandler prevTstp = terminal.handle(Signal.TSTP, sig -> group.sendNow(26));
+        SignalHandler prevWinch = terminal.handle(Signal.WINCH, sig -> {
+            Size sz = terminal.getSize();
+            group.resize(sz.getColumns(), sz.getRows());
+        });
+        Attributes original = terminal.enterRawMode();
+        try {
+            group.run(terminal);
+            return String.format("Broadcast ended: %d hosts, %s typed", group.getMembers().size(),
+                size(group.getBytesOut()));
+        } catch (IOException e) {
+            return error("Failed: " + e.getMessage());
+        } finally {
+            terminal.setAttributes(original);
+            terminal.handle(Signal.INT, prevInt);
+            terminal.handle(Signal.TSTP, prevTstp);
+            terminal.handle(Signal.WINCH, prevWinch);
+            group.close();
+        }
+    }
+
+    @Command(command = "remotes probe",
+          description = "Check which configured hosts accept connections and how fast")
+    public String probe(
+        @Option(longNames = "hosts", shortNames = 'H', defaultValue = "*", description = "Host glob matched against config patterns")
+        String hostGlob,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath
+    ) throws InterruptedException {
+        HostGlob glob = HostGlob.compile(hostGlob);
+        List<SSHConfig> targets;
+        try {
+            targets = configCache.resolver(configFile(configPath)).hosts().stream()
+                .filter(glob::matches)
+                .filter(h -> h.getHostname() != null && !h.getHostname().isBlank())
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (targets.isEmpty()) return error("No hosts match " + hostGlob);
+
+        prober.invalidate();
+        long start = System.nanoTime();
+        Map<SSHConfig, HostProber.Probe> results;
+        try {
+            results = prober.probeAll(targets, (h, p) -> { }).get();
+        } catch (ExecutionException e) {
+            return error("Probe failed: " + e.getCause().getMessage());
+        }
+        long elapsed = System.nanoTime() - start;
+        if (searchIndex != null) {
+            results.forEach((h, p) -> searchIndex.setReachability(h, p.reachable() ? HostSearchIndex.UP : HostSearchIndex.DOWN));
+        }
+
+        // Fastest first, unreachable last
+        List<Map.Entry<SSHConfig, HostProber.Probe>> rows = new ArrayList<>(results.entrySet());
+        rows.sort(Comparator.comparing((Map.Entry<SSHConfig, HostProber.Probe> e) -> !e.getValue().reachable())
+            .thenComparingLong(e -> e.getValue().rttNanos())
+            .thenComparing(e -> FanOutExec.label(e.getKey())));
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-30s %-40s %-6s %10s%n", "HOST", "ADDRESS", "STATE", "RTT"));
+        long up = 0;
+        for (Map.Entry<SSHConfig, HostProber.Probe> row : rows) {
+            SSHConfig h = row.getKey();
+            HostProber.Probe p = row.getValue();
+            if (p.reachable()) up++;
+            String address = h.getHostname() + ":" + h.getPort();
+            String line = p.reachable()
+                ? String.format("%-30s %-40s %-6s %8.1fms", FanOutExec.label(h), address, "up", p.rttNanos() / 1e6)
+                : String.format("%-30s %-40s %-6s %10s", FanOutExec.label(h), address, "down", p.error());
+            sb.append(p.reachable() ? line : error(line)).append('\n');
+        }
+        sb.append(String.format("%d up, %d down, %.0f ms", up, rows.size() - up, elapsed / 1e6));
+        return sb.toString();
+    }
+
+    /** Picker status column from the cached probe results. */
+    private AttributedString probeStatus(SSHConfig host) {
+        if (host.isProxied()) {
+            return new AttributedString("↪ proxied", AttributedStyle.DEFAULT.faint());
+        }
+        HostProber.Probe p = prober.cached(host);
+        if (p == null) {
+            return new AttributedString("…", AttributedStyle.DEFAULT.faint());
+        }
+        if (!p.reachable()) {
+            return new AttributedString("✗ " + p.error(), AttributedStyle.DEFAULT.foreground(AttributedStyle.RED));
+        }
+        return new AttributedString(String.format("● %.0fms", p.rttNanos() / 1e6),
+            AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN));
+    }
+
+    @Command(command = "stats",
+          description = "Show phase timings and traffic of live and recent SSH sessions")
+    public String sessionStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-6s %-24s %8s %8s %8s %8s %8s %8s %5s %10s %8s %10s %8s %8s%n",
+            "STATE", "HOST", "AGE", "CONNECT", "KEX", "AUTH", "PTY", "SHELL", "AUTHS",
+            "IN", "READS", "OUT", "PACKETS", "FLUSHES"));
+        List<SessionStats.Tracker> sessions = new ArrayList<>(stats.live());
+        sessions.addAll(stats.recent());
+        for (SessionStats.Tracker t : sessions) {
+            sb.append(String.format("%-6s %-24s %7ds %8s %8s %8s %8s %8s %5d %10s %8d %10s %8d %8d%n",
+                t.isLive() ? "live" : "closed", t.getHost(), t.getAge().toSeconds(),
+                t.isPooled() ? "pooled" : ms(t.phase(SessionStats.Phase.CONNECT)),
+                ms(t.phase(SessionStats.Phase.KEX)), ms(t.phase(SessionStats.Phase.AUTH)),
+                ms(t.phase(SessionStats.Phase.PTY)), ms(t.phase(SessionStats.Phase.SHELL)),
+                t.getAuthAttempts(), bytes(t.bytesIn()), t.readsIn(), bytes(t.bytesOut()),
+                t.packetsOut(), t.flushes()));
+        }
+        if (sessions.isEmpty()) sb.append("(no sessions yet)\n");
+
+        // Aggregates over every connection this shell made, including exec and bench
+        sb.append(String.format("%n%-8s %-8s %6s %10s %10s%n", "PHASE", "OUTCOME", "COUNT", "MEAN", "MAX"));
+        for (Timer timer : stats.getRegistry().find("phantom.ssh.phase").timers()) {
+            sb.append(String.format("%-8s %-8s %6d %8.1fms %8.1fms%n", timer.getId().getTag("phase"),
+                timer.getId().getTag("outcome"), timer.count(),
+                timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS)));
+        }
+        return sb.toString().stripTrailing();
+    }
+
+    private static String ms(Duration d) {
+        return d == null ? "-" : String.format("%.1fms", d.toNanos() / 1e6);
+    }
+
+    private static String bytes(long n) {
+        if (n < 1024) return n + "B";
+        if (n < 1024 * 1024) return String.format("%.1fK", n / 1024.0);
+        return String.format("%.1fM", n / (1024.0 * 1024));
+    }
+
+    @Command(command = "remotes forward",
+          description = "Forward a local port through a host (-L [bind:]port:host:hostport); runs in the background")
+    public String forward(
+        @Option(longNames = "host", shortNames = 'h', required = true, description = "Host alias from the SSH config")
+        String alias,
+        @Option(longNames = "local", shortNames = 'L', required = true, description = "[bind_address:]port:host:hostport")
+        String forwardSpec,
+        @Option(longNames = "config", shortNames = 'c', required = false, description = "Path to SSH config file")
+        String configPath,
+        @Option(longNames = "password", shortNames = 'p', required = false, description = "Password (key-based auth when omitted)")
+        String password
+    ) {
+        PortForwarder.Spec spec;
+        try {
+            spec = PortForwarder.Spec.parse(forwardSpec);
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage());
+        }
+        SSHConfig host;
+        try {
+            host = findHost(configPath, alias);
+        } catch (IOException e) {
+            return error("Failed to read SSH config: " + e.getMessage());
+        }
+        if (host == null) return error("Unknown host: " + alias);
+
+        SSHConnectionPool.Key key = SSHConnectionPool.Key.of(host, userOf(host));
+        String secret = password == null ? "" : password;
+        SSHClient client = null;
+        try {
+            // The lease is held until the forward is stopped, so the pool keeps the transport open
+            client = pool.acquire(key, () -> connect(host, key.user(), secret));
+            PortForwarder forwarder = new PortForwarder(client, spec);
+            forwards.put(forwarder.getLocalPort(), new ActiveForward(alias, key, client, forwarder));
+            return String.format("Forwarding %s:%d -> %s:%d via %s (stop with 'remotes forward-stop -P %d')",
+                spec.bindHost(), forwarder.getLocalPort(), spec.host(), spec.port(), alias, forwarder.getLocalPort());
+        } catch (Exception e) {
+            pool.release(key, client);
+            return error("Failed: " + e.getMessage());
+        }
+    }
+
+    @Command(command = "remotes forwards",
+          description = "List active port forwards with live connection and byte counts")
+    public String listForwards() {
+        if (forwards.isEmpty()) return "No active forwards";
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-6s %-40s %-16s %6s %8s %6s %10s %10s %s%n",
+            "PORT", "FORWARD", "VIA", "ACTIVE", "ACCEPTED", "FAILED", "OUT", "IN", "STATE"));
+        forwards.forEach((port, f) -> {
+            PortForwarder fw = f.forwarder();
+            String state = fw.isRunning() ? "up" : "down";
+            if (fw.getLastError() != null) state += " (" + fw.getLastError() + ")";
+            sb.append(String.format("%-6d %-40s %-16s %6d %8d %6d %10s %10s %s%n", port, fw.getSpec(), f.alias(),
+                fw.getActive() + fw.getOpening(), fw.getAccepted(), fw.getFailed(),
+                size(fw.getBytesOut()), size(fw.getBytesIn()), state));
+        });
+        return sb.toString().stripTrailing();
+    }
+
+    @Command(command = "remotes forward-stop",
+          description = "Stop a port forward and close its connections")
+    public String stopForward(
+        @Option(longNames = "port", shortNames = 'P', required = false, defaultValue = "-1", description = "Local port of the forward")
+        int port,
+        @Option(longNames = "all", shortNames = 'a', description = "Stop every forward")
+        boolean all
+    ) {
+        List<Integer> ports = all ? new ArrayList<>(forwards.keySet()) : List.of(port);
+        int stopped = 0;
+        for (int p : ports) {
+            ActiveForward f = forwards.remove(p);
+            if (f == null) continue;
+            f.forwarder().close();
+            pool.release(f.key(), f.client());
+            stopped++;
+        }
+        if (stopped == 0) return all ? "No active forwards" : error("No forward on port " + port);
+        return "Stopped " + stopped + (stopped == 1 ? " forward" : " forwards");
+    }
+
+    @Command(command = "remotes pool",
+          description = "List pooled SSH connections")
+    public String listPool() {
+        List<SSHConnectionPool.PooledConnection> connections = pool.snapshot();
+        if (connections.isEmpty()) {
+            return "No pooled connections (idle TTL " + pool.getIdleTtl().toSeconds() + "s)";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %10s %10s %7s %s%n", "CONNECTION", "AGE", "IDLE", "LEASES", "STATE"));
+        for (SSHConnectionPool.PooledConnection c : connections) {
+            sb.append(String.format("%-40s %9ds %9ds %7d %s%n", c.key(), c.age().toSeconds(),
+                c.idle().toSeconds(), c.leases(), c.connected() ? "up" : "down"));
+        }
+        return sb.toString().stripTrailing();
+    }
+
+    /**
+     * Runs a session in the foreground until it is detached (Ctrl+]) or its shell exits.
+     */
+    private String runAttached(SessionManager.ManagedSession s) {
+        Terminal terminal = getTerminal();
+        // Ctrl+C and Ctrl+Z go to the remote shell instead of stopping this one
+        SignalHandler prevInt = terminal.handle(Signal.INT, sig -> sendQuietly(s, 3));
+        SignalHandler prevTstp = terminal.handle(Signal.TSTP, sig -> sendQuietly(s, 26));
+        SignalHandler prevWinch = terminal.handle(Signal.WINCH, sig -> {
+            Size sz = terminal.getSize();
+            s.resize(sz.getColumns(), sz.getRows());
+        });
+        terminal.writer().println(new AttributedString("Session " + s.getId() + " on " + s.getHost()
+            + " (Ctrl+] detaches)", AttributedStyle.DEFAULT.faint()).toAnsi());
+        terminal.writer().flush();
+        Attributes original = terminal.enterRawMode();
+        try {
+            if (sessions.attach(s) == SessionManager.Outcome.DETACHED) {
+                return new AttributedString("\nSession " + s.getId() + " detached; resume with 'remotes attach -i "
+                    + s.getId() + "'", AttributedStyle.DEFAULT.foreground(AttributedStyle.YELLOW)).toAnsi();
+            }
+            return new AttributedString("Integrated SSH session closed.",
+                AttributedStyle.DEFAULT.foreground(AttributedStyle.YELLOW)).toAnsi();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return error("Interrupted");
+        } catch (IOException e) {
+            return error("Failed: " + e.getMessage());
+        } finally {
+            terminal.setAttributes(original);
+            terminal.handle(Signal.INT, prevInt);
+            terminal.handle(Signal.TSTP, prevTstp);
+            terminal.handle(Signal.WINCH, prevWinch);
+            terminal.writer().flush();
+        }
+    }
+
+    private static void sendQuietly(SessionManager.ManagedSession s, int b) {
+        try {
+            s.sendNow(b);
+        } catch (IOException e) {
+            // best-effort; the remote is closing
+        }
+    }
+
+    @Command(command = "remotes sessions",
+          description = "List interactive sessions, including detached ones")
+    public String listSessions() {
+        List<SessionManager.ManagedSession> list = sessions.list();
+        if (list.isEmpty()) return "No sessions";
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-4s %-24s %-9s %8s %9s %10s %10s%n",
+            "ID", "HOST", "STATE", "AGE", "DETACHED", "BUFFERED", "DROPPED"));
+        for (SessionManager.ManagedSession s : list) {
+            sb.append(String.format("%-4d %-24s %-9s %7ds %8ds %10s %10s%n", s.getId(), s.getHost(),
+                s.getState().name().toLowerCase(), s.getAge().toSeconds(), s.getDetachedFor().toSeconds(),
+                size(s.getBuffered()), size(s.getDropped())));
+        }
+        return sb.toString().stripTrailing();
+    }
+
+    @Command(command = "remotes attach",
+          description = "Reattach a detached session, replaying output it produced in the background")
+    public String attachSession(
+        @Option(longNames = "id", shortNames = 'i', defaultValue = "-1", description = "Session id (most recently detached when omitted)")
+        int id
+    ) {
+        SessionManager.ManagedSession s = id < 0 ? sessions.lastDetached() : sessions.get(id);
+        if (s == null) return error(id < 0 ? "No detached sessions" : "No session " + id);
+        if (s.getState() != SessionManager.State.DETACHED) return error("Session " + s.getId() + " is already attached");
+        return runAttached(s);
+    }
+
+    @Command(command = "remotes session-close",
+          description = "Close a detached session")
+    public String closeSession(
+        @Option(longNames = "id", shortNames = 'i', required = false, defaultValue = "-1", description = "Session id")
+        int id,
+        @Option(longNames = "all", shortNames = 'a', description = "Close every detached session")
+        boolean all
+    ) {
+        int closed = 0;
+        for (SessionManager.ManagedSession s : sessions.list()) {
+            if ((all || s.getId() == id) && s.getState() == SessionManager.State.DETACHED) {
+                sessions.close(s);
+                closed++;
+            }
+        }
+        if (closed == 0) return all ? "No detached sessions" : error("No detached session " + id);
+        return "Closed " + closed + (closed == 1 ? " session" : " sessions");
+    }
+
+    @PreDestroy
+    public void close() {
+        preConnector.close();
+        sessions.close();
+        forwards.values().forEach(f -> f.forwarder().close());
+        forwards.clear();
+        pool.close();
+        knownHosts.values().forEach(KnownHostsIndex::close);
+        prober.close();
+        configCache.close();
+    }
+
+    private SSHClient connect(SSHConfig host, String user, String password) throws IOException {
+        return connect(host, user, password, null);
+    }
+
+    private SSHClient connect(SSHConfig host, String user, String password, SessionStats.Tracker tracker)
+            throws IOException {
+        return connect(host, host.getJumpChain(), user, password, tracker);
+    }
+
+    /**
+     * Connects and authenticates, through {@code chain} when it is not empty.
+     */
+    private SSHClient connect(SSHConfig host, List<SSHConfig> chain, String user, String password,
+                              SessionStats.Tracker tracker) throws IOException {
+        TimedSSHClient client = SSHConnectionPool.newClient(TransportSettings.of(host));
+        openTransport(client, host, chain, user, tracker);
+        return login(client, host, user, password, tracker);
+    }
+
+    /**
+     * Authenticates a connected transport; it is closed if that fails.
+     */
+    private SSHClient login(TimedSSHClient client, SSHConfig host, String user, String password,
+                            SessionStats.Tracker tracker) throws IOException {
+        try {
+            stats.time(tracker, SessionStats.Phase.AUTH, () -> {
+                authenticate(client, host, user, password, tracker);
+                return null;
+            });
+            return client;
+        } catch (IOException | RuntimeException e) {
+            client.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs DNS, TCP connect and key exchange for {@code client}, through
+     * {@code chain} when it is not empty. The last bastion of the chain is leased
+     * from the pool, so every host behind it shares one bastion transport; the
+     * lease is held until this client disconnects.
+     */
+    private void openTransport(TimedSSHClient client, SSHConfig host, List<SSHConfig> chain, String user,
+                               SessionStats.Tracker tracker) throws IOException {
+        openTransport(client, host, chain, user, tracker, hostKeyVerifier(host));
+    }
+
+    private void openTransport(TimedSSHClient client, SSHConfig host, List<SSHConfig> chain, String user,
+                               SessionStats.Tracker tracker, KnownHostsVerifier verifier) throws IOException {
+        SSHConnectionPool.Key bastionKey = null;
+        SSHClient bastionLease = null;
+        try {
+            client.addHostKeyVerifier(verifier);
+            long start = System.nanoTime();
+            boolean connected = false;
+            try {
+                String proxyCommand = host.getEffectiveProxyCommand();
+                if (!chain.isEmpty()) {
+                    SSHConfig bastion = chain.get(chain.size() - 1);
+                    List<SSHConfig> outer = chain.subList(0, chain.size() - 1);
+                    SSHConnectionPool.Key key = SSHConnectionPool.Key.of(bastion, userOf(bastion));
+                    SSHClient via = pool.acquire(key, () -> connect(bastion, outer, key.user(), "", null));
+                    bastionKey = key;
+                    bastionLease = via;
+                    DirectConnection tunnel = via.newDirectConnection(host.getHostname(), host.getPort());
+                    client.onDisconnect(() -> {
+                        try {
+                            tunnel.close();
+                        } catch (IOException e) {
+                            // bastion already gone
+                        }
+                        pool.release(key, via);
+                    });
+                    bastionLease = null; // released by the hook from here on
+                    client.connectVia(tunnel);
+                } else if (proxyCommand != null) {
+                    client.setSocketFactory(ProxyCommandSocket.factory(proxyCommand, host, user));
+                    client.connect(host.getHostname(), host.getPort());
+                } else {
+                    client.connect(host.getHostname(), host.getPort());
+                }
+                connected = true;
+            } finally {
+                // The handshake runs inside connect(); split it out as its own phase
+                long kex = client.getHandshakeNanos();
+                stats.record(tracker, SessionStats.Phase.CONNECT, System.nanoTime() - start - kex,
+                    connected || kex > 0 ? "ok" : "error");
+                if (kex > 0) stats.record(tracker, SessionStats.Phase.KEX, kex, connected ? "ok" : "error");
+            }
+        } catch (IOException | RuntimeException e) {
+            if (bastionLease != null) pool.release(bastionKey, bastionLease);
+            client.close();
+            if (verifier.getProblem() != null) throw new IOException(verifier.getProblem(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Host key check for a host from its UserKnownHostsFile (first entry; new keys
+     * go there), GlobalKnownHostsFile, StrictHostKeyChecking, HashKnownHosts and
+     * HostKeyAlias settings. Each file is indexed once per shell.
+     */
+    private KnownHostsVerifier hostKeyVerifier(SSHConfig host) {
+        List<KnownHostsIndex> indexes = new ArrayList<>();
+        String userFile = host.get("userknownhostsfile", "~/.ssh/known_hosts").trim().split("\\s+")[0];
+        indexes.add(knownHosts.computeIfAbsent(expandHome(userFile), KnownHostsIndex::new));
+        Path global = expandHome(host.get("globalknownhostsfile", "/etc/ssh/ssh_known_hosts").trim().split("\\s+")[0]);
+        if (Files.isRegularFile(global)) {
+            indexes.add(knownHosts.computeIfAbsent(global, KnownHostsIndex::new));
+        }
+        return new KnownHostsVerifier(indexes, host.get("hostkeyalias"),
+            KnownHostsVerifier.policy(host.get("stricthostkeychecking")),
+            "yes".equalsIgnoreCase(host.get("hashknownhosts")));
+    }
+
+    private static Path expandHome(String path) {
+        return Path.of(path.startsWith("~") ? System.getProperty("user.home") + path.substring(1) : path);
+    }
+
+    private String promptPassword(String user) {
+        StringInput passwordInput = new StringInput(getTerminal(), "Password for " + user + ":", "");
+        passwordInput.setResourceLoader(getResourceLoader());
+        passwordInput.setTemplateExecutor(getTemplateExecutor());
+        passwordInput.setMaskCharacter('*');  // Mask input
+
+        String password = passwordInput.run(StringInputContext.empty()).getResultValue();
+        if (password == null || password.isBlank()) {
+            getTerminal().writer().println("⚠️  No password entered, attempting key-based authentication...");
+            return "";
+        }
+        return password;
+    }
+
+    /**
+     * Logs in with whatever last worked for the host first: a password when that
+     * is what it took last time, else keys (see {@link KeyAuthenticator}) and then
+     * the password. The password also unlocks encrypted key files.
+     */
+    private void authenticate(SSHClient client, SSHConfig host, String user, String password,
+                              SessionStats.Tracker tracker) throws IOException {
+        KeyAuthenticator.Remembered last = keyAuth.remembered(host, user);
+        boolean passwordFirst = !password.isEmpty() && last != null
+            && KeyAuthenticator.PASSWORD.equals(last.method());
+        if (passwordFirst && authPassword(client, host, user, password, tracker)) return;
+
+        if (keyAuth.authenticate(client, host, user, password,
+                (method, k, ok) -> stats.authAttempt(tracker, method, ok))) {
+            return;
+        }
+        if (!password.isEmpty() && !passwordFirst && authPassword(client, host, user, password, tracker)) return;
+        throw new UserAuthException(password.isEmpty()
+            ? "No key was accepted for " + user + "@" + host.getHostname()
+            : "Password and keys were rejected for " + user + "@" + host.getHostname());
+    }
+
+    private boolean authPassword(SSHClient client, SSHConfig host, String user, String password,
+                                 SessionStats.Tracker tracker) throws IOException {
+        try {
+            client.authPassword(user, password);
+            stats.authAttempt(tracker, KeyAuthenticator.PASSWORD, true);
+            keyAuth.remember(host, user, KeyAuthenticator.PASSWORD, null);
+            return true;
+        } catch (UserAuthException e) {
+            stats.authAttempt(tracker, KeyAuthenticator.PASSWORD, false);
+            return false;
+        }
+    }
+
+    private static String error(String message) {
+        return new AttributedString(message, AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)).toAnsi();
+    }
 }
\ No newline at end of file
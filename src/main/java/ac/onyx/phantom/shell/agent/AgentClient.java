@@ -1,13 +1,15 @@
 package ac.onyx.phantom.shell.agent;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.*;
-import java.net.*;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 import com.sun.jna.platform.win32.Kernel32;
 import com.sun.jna.platform.win32.WinBase;
@@ -16,21 +18,46 @@ import com.sun.jna.platform.win32.WinNT;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.Native;
 
-public class AgentClient {
+public class AgentClient implements Closeable {
 
-    private final ObjectMapper mapper = new ObjectMapper();
     private final String token;
+    private final Path socketPath;
+    private final AgentConnection connection;
+    private volatile AgentResponseCache cache;
 
     private static final String PIPE_NAME = "\\\\.\\pipe\\phantom_agent";
     private static final String UNIX_SOCKET = "/tmp/phantom_agent.sock";
+    private static final ThreadLocal<byte[]> WINDOWS_READ_BUFFER = ThreadLocal.withInitial(() -> new byte[16 * 1024]);
 
     public AgentClient(String token) {
+        this(token, Path.of(UNIX_SOCKET));
+    }
+
+    public AgentClient(String token, Path socketPath) {
         this.token = token;
+        this.socketPath = socketPath;
+        this.connection = new AgentConnection(socketPath);
+    }
+
+    /** Serves commands that have a TTL in {@code cache} from it; null turns caching off. */
+    public void setCache(AgentResponseCache cache) {
+        this.cache = cache;
+    }
+
+    public AgentResponseCache getCache() { return cache; }
+
+    private boolean isCached(String command) {
+        AgentResponseCache c = cache;
+        return c != null && c.isCacheable(command);
+    }
+
+    public AgentResponse execute(String command, String... args) throws IOException {
+        if (isWindows() && !isCached(command)) return executeWindows(command, args);
+        return executeUnix(command, args);
     }
 
-    public Map<String, Object> execute(String command, String... args) throws IOException {
-        boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
-        return isWindows ? executeWindows(command, args) : executeUnix(command, args);
+    private static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("win");
     }
 
     private WinNT.HANDLE openPipe(String pipeName) throws IOException {
@@ -63,52 +90,131 @@ public class AgentClient {
         throw new IOException("Timeout waiting for named pipe " + pipeName);
     }
 
-    public Map<String, Object> executeUnix(String command, String... args) throws IOException {
+    public AgentResponse executeUnix(String command, String... args) throws IOException {
+        try {
+            return executeAsync(command, args).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for phantom-agent");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
 
-        Path socketPath = Path.of(UNIX_SOCKET);
+    /**
+     * Sends a command over the shared Unix socket connection without waiting for
+     * the reply. Many requests may be in flight at once. Commands with a TTL in
+     * the cache are answered from it while fresh.
+     */
+    public CompletableFuture<AgentResponse> executeAsync(String command, String... args) {
+        AgentResponseCache c = cache;
+        if (c != null) return c.get(command, args, () -> send(command, args));
+        return send(command, args);
+    }
 
-        var req = new LinkedHashMap<String, Object>();
-        req.put("token", token);
-        req.put("command", command);
-        req.put("args", args);
-        req.put("request_id", UUID.randomUUID().toString());
+    private CompletableFuture<AgentResponse> send(String command, String[] args) {
+        if (isWindows()) {
+            // The named pipe carries one unframed request per connection
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return executeWindows(command, args);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        return connection.send(request(command, args, false));
+    }
 
-        byte[] reqBytes = mapper.writeValueAsBytes(req);
-        byte[] len = ByteBuffer.allocate(4).putInt(reqBytes.length).array();
+    /**
+     * Runs a command in streaming mode: output chunks are handed to the listener
+     * as the agent produces them and the future completes with the final frame
+     * (returncode, or error/message). Agents without streaming support answer
+     * with a single full response, whose stdout/stderr are then passed to the
+     * listener in one piece, as are cached responses.
+     */
+    public CompletableFuture<AgentResponse> executeStreaming(AgentOutputListener listener,
+                                                             String command, String... args) {
+        if (isWindows() || isCached(command)) {
+            return executeAsync(command, args).thenApply(resp -> replay(resp, listener));
+        }
+        return connection.send(request(command, args, true),
+                chunk -> listener.onOutput(chunk.stream(), chunk.data()))
+            .thenApply(resp -> replay(resp, listener));
+    }
 
-        // Use UnixDomainSocketChannel (Java 16+) or fallback
-        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
-            channel.connect(UnixDomainSocketAddress.of(socketPath));
-            channel.write(ByteBuffer.wrap(len));
-            channel.write(ByteBuffer.wrap(reqBytes));
+    /**
+     * Outcome of one command in a batch. {@code failure} is set when no response
+     * came back (connection lost, agent gone); {@code nanos} is its round trip.
+     */
+    public record BatchResult(int index, String command, String[] args, AgentResponse response,
+                              Throwable failure, long nanos) {
+        public boolean ok() {
+            return failure == null && !response.isError() && response.exitCode() == 0;
+        }
+    }
 
-            ByteBuffer hdrBuf = ByteBuffer.allocate(4);
-            if (channel.read(hdrBuf) != 4)
-                throw new IOException("Failed to read response header");
-            hdrBuf.flip();
-            int respLen = hdrBuf.getInt();
+    /**
+     * Runs many commands as pipelined frames on the shared connection, with at
+     * most {@code concurrency} in flight; the agent serves them concurrently.
+     * Each {@code commands} element is the command followed by its arguments.
+     * Results are handed to {@code onResult} one at a time as they arrive, so in
+     * completion order, and returned in that order once all are done.
+     */
+    public List<BatchResult> executeBatch(List<String[]> commands, int concurrency,
+                                          Consumer<BatchResult> onResult) throws InterruptedException {
+        List<BatchResult> results = new ArrayList<>(commands.size());
+        Semaphore window = new Semaphore(Math.max(1, concurrency));
+        CountDownLatch done = new CountDownLatch(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            int index = i;
+            String[] line = commands.get(i);
+            String[] args = Arrays.copyOfRange(line, 1, line.length);
+            window.acquire();
+            long t0 = System.nanoTime();
+            executeAsync(line[0], args).whenComplete((resp, e) -> {
+                window.release();
+                Throwable failure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                BatchResult result = new BatchResult(index, line[0], args, resp, failure, System.nanoTime() - t0);
+                try {
+                    synchronized (results) {
+                        results.add(result);
+                        onResult.accept(result);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
 
-            ByteBuffer respBuf = ByteBuffer.allocate(respLen);
-            while (respBuf.hasRemaining()) {
-                if (channel.read(respBuf) < 0)
-                    throw new EOFException("Unexpected EOF");
-            }
-            respBuf.flip();
-            byte[] respBytes = new byte[respLen];
-            respBuf.get(respBytes);
+    private static AgentResponse replay(AgentResponse resp, AgentOutputListener listener) {
+        if (resp.stdout() != null && !resp.stdout().isEmpty()) listener.onOutput("stdout", resp.stdout());
+        if (resp.stderr() != null && !resp.stderr().isEmpty()) listener.onOutput("stderr", resp.stderr());
+        return resp;
+    }
 
-            return mapper.readValue(respBytes, Map.class);
-        }
+    private AgentRequest request(String command, String[] args, boolean stream) {
+        return new AgentRequest(token, command, args, UUID.randomUUID().toString(), stream);
     }
 
-    private Map<String, Object> executeWindows(String command, String... args) throws IOException {
-        var req = new LinkedHashMap<String, Object>();
-        req.put("token", token);
-        req.put("command", command);
-        req.put("args", args);
-        req.put("request_id", UUID.randomUUID().toString());
+    @Override
+    public void close() {
+        connection.close();
+    }
 
-        byte[] reqBytes = mapper.writeValueAsBytes(req);
+    private AgentResponse executeWindows(String command, String... args) throws IOException {
+        AgentCodec.FrameBuffer buf = AgentCodec.buffer();
+        AgentCodec.encode(request(command, args, false), buf);
+        // JNA copies the array into native memory anyway; this copy drops the frame header
+        ByteBuffer body = buf.body();
+        byte[] reqBytes = Arrays.copyOfRange(body.array(), body.position(), body.limit());
 
         // Open the named pipe for read/write
         WinNT.HANDLE pipe = openPipe(PIPE_NAME);
@@ -116,33 +222,43 @@ public class AgentClient {
         IntByReference read = new IntByReference();
 
         try {
-            // Write the JSON request (no length prefix for Windows)
-            boolean ok = Kernel32.INSTANCE.WriteFile(pipe, reqBytes, reqBytes.length, written, null);
-            if (!ok) {
-                int err = Kernel32.INSTANCE.GetLastError();
-                throw new IOException("WriteFile failed, error code: " + err);
+            // Write the JSON request (no length prefix for Windows); WriteFile may
+            // accept fewer bytes than asked, so keep going until all are written
+            int offset = 0;
+            while (offset < reqBytes.length) {
+                byte[] rest = offset == 0 ? reqBytes : Arrays.copyOfRange(reqBytes, offset, reqBytes.length);
+                boolean ok = Kernel32.INSTANCE.WriteFile(pipe, rest, rest.length, written, null);
+                if (!ok) {
+                    int err = Kernel32.INSTANCE.GetLastError();
+                    throw new IOException("WriteFile failed, error code: " + err);
+                }
+                offset += written.getValue();
             }
 
-            // Read the full response (until EOF or no bytes read)
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buf = new byte[4096];
-
+            // Read the full response (until EOF) into the pooled buffer. In message
+            // mode a read that does not fit reports ERROR_MORE_DATA: keep reading.
+            buf.reset();
+            byte[] chunk = WINDOWS_READ_BUFFER.get();
             while (true) {
-                boolean readOk = Kernel32.INSTANCE.ReadFile(pipe, buf, buf.length, read, null);
+                boolean readOk = Kernel32.INSTANCE.ReadFile(pipe, chunk, chunk.length, read, null);
                 int bytesRead = read.getValue();
-
+                if (bytesRead > 0) {
+                    buf.write(chunk, 0, bytesRead);
+                }
+                if (!readOk && Kernel32.INSTANCE.GetLastError() == WinError.ERROR_MORE_DATA) {
+                    continue;
+                }
                 if (!readOk || bytesRead <= 0) {
                     break; // EOF or error
                 }
-                baos.write(buf, 0, bytesRead);
             }
 
-            byte[] respBytes = baos.toByteArray();
-            if (respBytes.length == 0) {
+            ByteBuffer resp = buf.body();
+            if (!resp.hasRemaining()) {
                 throw new IOException("Empty response from Phantom Agent");
             }
 
-            return mapper.readValue(respBytes, Map.class);
+            return AgentCodec.decodeResponse(resp.array(), resp.arrayOffset() + resp.position(), resp.remaining());
 
         } finally {
             Kernel32.INSTANCE.CloseHandle(pipe);
@@ -0,0 +1,182 @@
+package ac.onyx.phantom.shell.agent;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Encodes and decodes the phantom-agent wire protocol.
+ *
+ * On the Unix socket every message is a 4-byte big-endian length followed by that
+ * many bytes of JSON; the Windows pipe carries the bare JSON. Readers and writers
+ * are built once, and requests are serialized straight into a reusable
+ * {@link FrameBuffer} behind a reserved header, so encoding a frame allocates no
+ * intermediate {@code byte[]}. Reads loop until the header and body are complete,
+ * however the channel splits them.
+ */
+public final class AgentCodec {
+
+    private static final int HEADER = 4;
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    /** Buffers larger than this are dropped after use instead of being kept. */
+    private static final int RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectWriter REQUEST_WRITER = MAPPER.writerFor(AgentRequest.class);
+    private static final ObjectReader REQUEST_READER = MAPPER.readerFor(AgentRequest.class);
+    private static final ObjectWriter RESPONSE_WRITER = MAPPER.writerFor(AgentResponse.class);
+    private static final ObjectReader RESPONSE_READER = MAPPER.readerFor(AgentResponse.class);
+
+    private static final ThreadLocal<FrameBuffer> BUFFERS = ThreadLocal.withInitial(FrameBuffer::new);
+
+    private AgentCodec() {}
+
+    /**
+     * Per-thread buffer for callers that do not own one (one-shot and pipe requests).
+     */
+    public static FrameBuffer buffer() {
+        return BUFFERS.get();
+    }
+
+    public static ByteBuffer encode(AgentRequest request, FrameBuffer buf) throws IOException {
+        buf.reset();
+        REQUEST_WRITER.writeValue(buf, request);
+        return buf.frame();
+    }
+
+    public static ByteBuffer encode(AgentResponse response, FrameBuffer buf) throws IOException {
+        buf.reset();
+        RESPONSE_WRITER.writeValue(buf, response);
+        return buf.frame();
+    }
+
+    public static AgentRequest decodeRequest(byte[] json, int offset, int length) throws IOException {
+        return REQUEST_READER.readValue(json, offset, length);
+    }
+
+    public static AgentResponse decodeResponse(byte[] json, int offset, int length) throws IOException {
+        return RESPONSE_READER.readValue(json, offset, length);
+    }
+
+    /**
+     * Writes a whole frame, however many calls the channel needs.
+     */
+    public static void write(WritableByteChannel ch, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            ch.write(frame);
+        }
+    }
+
+    static void readFully(ReadableByteChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) throw new EOFException("Unexpected EOF");
+        }
+    }
+
+    /**
+     * Growable byte sink with a reserved frame header. Not thread-safe: each owner
+     * (connection writer, reader thread, calling thread) keeps its own.
+     */
+    public static final class FrameBuffer extends OutputStream {
+
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int count = HEADER;
+
+        void reset() {
+            if (bytes.length > RETAINED_CAPACITY) bytes = new byte[INITIAL_CAPACITY];
+            count = HEADER;
+        }
+
+        /** The frame as written: length header, then the JSON. */
+        ByteBuffer frame() {
+            int length = count - HEADER;
+            bytes[0] = (byte) (length >>> 24);
+            bytes[1] = (byte) (length >>> 16);
+            bytes[2] = (byte) (length >>> 8);
+            bytes[3] = (byte) length;
+            return ByteBuffer.wrap(bytes, 0, count);
+        }
+
+        /** The JSON only, for transports without framing. */
+        ByteBuffer body() {
+            return ByteBuffer.wrap(bytes, HEADER, count - HEADER);
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        /**
+         * Makes room for {@code n} more bytes and returns the offset to write them at;
+         * call {@link #advance} with the number actually written.
+         */
+        int reserve(int n) {
+            ensure(count + n);
+            return count;
+        }
+
+        void advance(int n) {
+            count += n;
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(count + len);
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void ensure(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+
+    /**
+     * Reads length-prefixed frames from a channel into one reused buffer.
+     */
+    public static final class FrameReader {
+
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+        private ByteBuffer body = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+        public AgentResponse readResponse(ReadableByteChannel ch) throws IOException {
+            int length = readFrame(ch);
+            return decodeResponse(body.array(), 0, length);
+        }
+
+        public AgentRequest readRequest(ReadableByteChannel ch) throws IOException {
+            int length = readFrame(ch);
+            return decodeRequest(body.array(), 0, length);
+        }
+
+        private int readFrame(ReadableByteChannel ch) throws IOException {
+            header.clear();
+            readFully(ch, header);
+            int length = header.getInt(0);
+            if (length < 0) throw new IOException("Invalid frame length " + length);
+            if (length > body.capacity() || body.capacity() > RETAINED_CAPACITY) {
+                body = ByteBuffer.allocate(Math.max(length, INITIAL_CAPACITY));
+            }
+            body.clear().limit(length);
+            readFully(ch, body);
+            return length;
+        }
+    }
+}
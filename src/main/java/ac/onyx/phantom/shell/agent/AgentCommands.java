@@ -2,17 +2,58 @@ package ac.onyx.phantom.shell.agent;
 
 import org.jline.utils.AttributedString;
 import org.jline.utils.AttributedStyle;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.shell.command.annotation.Command;
 import org.springframework.shell.command.annotation.Option;
 import org.springframework.shell.standard.*;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PreDestroy;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.ToLongFunction;
 
 @Command(group = "Agent")
 public class AgentCommands extends AbstractShellComponent {
 
     private final AgentClient client =
         new AgentClient("devtoken123");
+    private final AgentResponseCache cache;
+
+    public AgentCommands(@Value("${phantom.agent.cache.ttl:}") String cacheTtls,
+                         @Value("${phantom.agent.cache.max-entries:512}") int cacheMaxEntries,
+                         MeterRegistry registry) {
+        this.cache = new AgentResponseCache(cacheMaxEntries);
+        // "status=5s, uptime=30s": only the listed commands are cached
+        for (String rule : cacheTtls.split(",")) {
+            int eq = rule.indexOf('=');
+            if (eq > 0) {
+                cache.setTtl(rule.substring(0, eq).strip(), DurationStyle.detectAndParse(rule.substring(eq + 1).strip()));
+            }
+        }
+        client.setCache(cache);
+
+        Gauge.builder("phantom.agent.cache.entries", cache, c -> c.stats().entries()).register(registry);
+        cacheCounter(registry, "hit", AgentResponseCache.Stats::hits);
+        cacheCounter(registry, "shared", AgentResponseCache.Stats::shared);
+        cacheCounter(registry, "miss", AgentResponseCache.Stats::misses);
+        FunctionCounter.builder("phantom.agent.cache.evictions", cache, c -> c.stats().evictions()).register(registry);
+    }
+
+    private void cacheCounter(MeterRegistry registry, String result, ToLongFunction<AgentResponseCache.Stats> value) {
+        FunctionCounter.builder("phantom.agent.cache.requests", cache, c -> value.applyAsLong(c.stats()))
+            .tag("result", result)
+            .register(registry);
+    }
 
     @Command(command = "agent", alias = "--agent",
         description = "Run command on phantom-agent")
@@ -21,29 +62,35 @@ public class AgentCommands extends AbstractShellComponent {
         @Option(description = "Arguments (optional)", defaultValue = ShellOption.NULL) String... args
     ) {
         try {
-            Map<String, Object> resp = client.execute(command, args);
-            if (resp.containsKey("error")) {
-                return "❌ Error: " + resp.get("error") +
-                       (resp.containsKey("message") ? " - " + resp.get("message") : "");
-            }
-            String out = (String) resp.getOrDefault("stdout", "");
-            String err = (String) resp.getOrDefault("stderr", "");
-            int code = (int) resp.getOrDefault("returncode", -1);
-
-            // Combine streams as a normal shell would
-            StringBuilder sb = new StringBuilder();
+            // Print output as it arrives instead of after the command has finished
+            PrintWriter writer = getTerminal().writer();
+            AgentResponse resp = client.executeStreaming((stream, data) -> {
+                if ("stderr".equals(stream)) {
+                    writer.print(new AttributedString(data,
+                        AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)
+                    ).toAnsi());
+                } else {
+                    writer.print(data);
+                }
+                writer.flush();
+            }, command, args).get();
 
-            if (!out.isBlank()) sb.append(out);
-            if (!err.isBlank()) {
-                AttributedString serr = new AttributedString(err,
+            if (resp.isError()) {
+                return "❌ Error: " + resp.error() +
+                       (resp.message() != null ? " - " + resp.message() : "");
+            }
+            int code = resp.exitCode();
+            if (code != 0) {
+                return new AttributedString("exit status " + code,
                     AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)
-                );
-                sb.append("\n")
-                  .append(serr.toAnsi())
-                  .append("\n");
+                ).toAnsi();
             }
-            
-            return sb.toString().stripTrailing();
+            return null;
+        } catch (ExecutionException e) {
+            AttributedString serr = new AttributedString("⚠️ Failed: " + e.getCause().getMessage(),
+                AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)
+            );
+            return serr.toAnsi();
         } catch (Exception e) {
             AttributedString serr = new AttributedString("⚠️ Failed: " + e.getMessage(),
                 AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)
@@ -51,4 +98,132 @@ public class AgentCommands extends AbstractShellComponent {
             return serr.toAnsi();
         }
     }
+
+    @Command(command = "agent batch",
+        description = "Run many commands on phantom-agent concurrently, printing results as they finish")
+    public String batch(
+        @Option(longNames = "commands", shortNames = 'c', defaultValue = ShellOption.NULL,
+            description = "Commands separated by ';'") String commands,
+        @Option(longNames = "file", shortNames = 'f', defaultValue = ShellOption.NULL,
+            description = "File with one command per line ('#' starts a comment)") String file,
+        @Option(longNames = "concurrency", shortNames = 'j', defaultValue = "8",
+            description = "Commands in flight at once") int concurrency
+    ) {
+        try {
+            List<String[]> batch = new ArrayList<>();
+            if (commands != null) parseCommands(Arrays.asList(commands.split(";")), batch);
+            if (file != null) parseCommands(Files.readAllLines(Path.of(file)), batch);
+            if (batch.isEmpty()) {
+                return new AttributedString("No commands given (use --commands or --file)",
+                    AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)).toAnsi();
+            }
+
+            PrintWriter writer = getTerminal().writer();
+            long t0 = System.nanoTime();
+            List<AgentClient.BatchResult> results = client.executeBatch(batch, concurrency, r -> {
+                writer.print(formatResult(r));
+                writer.flush();
+            });
+            long wall = System.nanoTime() - t0;
+
+            long failed = results.stream().filter(r -> !r.ok()).count();
+            long busy = results.stream().mapToLong(AgentClient.BatchResult::nanos).sum();
+            String summary = String.format("%d commands, %d failed, %.0f ms (%.0f ms of command time, %d in flight)",
+                results.size(), failed, wall / 1e6, busy / 1e6, concurrency);
+            return failed == 0 ? summary
+                : new AttributedString(summary, AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)).toAnsi();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new AttributedString("⚠️ Interrupted", AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)).toAnsi();
+        } catch (Exception e) {
+            return new AttributedString("⚠️ Failed: " + e.getMessage(),
+                AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)).toAnsi();
+        }
+    }
+
+    private static void parseCommands(List<String> lines, List<String[]> into) {
+        for (String line : lines) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            into.add(line.split("\\s+"));
+        }
+    }
+
+    private static String formatResult(AgentClient.BatchResult r) {
+        String status;
+        if (r.failure() != null) {
+            status = "failed: " + r.failure().getMessage();
+        } else if (r.response().isError()) {
+            status = "error: " + r.response().error()
+                + (r.response().message() != null ? " - " + r.response().message() : "");
+        } else {
+            status = "exit " + r.response().exitCode();
+        }
+        String header = String.format("[%d] %s%s (%s, %.0f ms)", r.index() + 1, r.command(),
+            r.args().length > 0 ? " " + String.join(" ", r.args()) : "", status, r.nanos() / 1e6);
+        StringBuilder out = new StringBuilder(new AttributedString(header, AttributedStyle.BOLD
+            .foreground(r.ok() ? AttributedStyle.GREEN : AttributedStyle.RED)).toAnsi()).append('\n');
+        if (r.response() != null) {
+            appendOutput(out, r.response().stdout(), null);
+            appendOutput(out, r.response().stderr(), AttributedStyle.DEFAULT.foreground(AttributedStyle.RED));
+        }
+        return out.toString();
+    }
+
+    private static void appendOutput(StringBuilder out, String data, AttributedStyle style) {
+        if (data == null || data.isEmpty()) return;
+        out.append(style == null ? data : new AttributedString(data, style).toAnsi());
+        if (!data.endsWith("\n")) out.append('\n');
+    }
+
+    @Command(command = "agent cache",
+        description = "Show the agent response cache: cached commands, entries and hit/miss counters")
+    public String cacheStats() {
+        AgentResponseCache.Stats s = cache.stats();
+        Map<String, Duration> ttls = cache.getTtls();
+        StringBuilder sb = new StringBuilder();
+        if (ttls.isEmpty()) {
+            sb.append("No commands are cached (set one with 'agent cache-ttl')").append(System.lineSeparator());
+        } else {
+            sb.append(String.format("%-24s %10s%n", "COMMAND", "TTL"));
+            ttls.forEach((command, ttl) -> sb.append(String.format("%-24s %9.1fs%n", command, ttl.toMillis() / 1e3)));
+        }
+        sb.append(String.format("entries %d/%d, hits %d, shared in-flight %d, misses %d, evictions %d, hit ratio %.1f%%",
+            s.entries(), cache.getMaxEntries(), s.hits(), s.shared(), s.misses(), s.evictions(), s.hitRatio() * 100));
+        return sb.toString();
+    }
+
+    @Command(command = "agent cache-ttl",
+        description = "Cache responses to a read-only agent command for a TTL (0 stops caching it)")
+    public String cacheTtl(
+        @Option(longNames = "command", shortNames = 'c', required = true, description = "Command name") String command,
+        @Option(longNames = "ttl", shortNames = 't', required = true, description = "Time to keep responses, e.g. 5s or 1m") String ttl
+    ) {
+        Duration parsed;
+        try {
+            parsed = DurationStyle.detectAndParse(ttl);
+        } catch (IllegalArgumentException e) {
+            return new AttributedString("Invalid TTL: " + ttl,
+                AttributedStyle.DEFAULT.foreground(AttributedStyle.RED)).toAnsi();
+        }
+        cache.setTtl(command, parsed);
+        return cache.isCacheable(command)
+            ? "Caching '" + command + "' for " + parsed.toMillis() / 1e3 + "s"
+            : "No longer caching '" + command + "'";
+    }
+
+    @Command(command = "agent cache-clear",
+        description = "Drop cached agent responses, for one command or all")
+    public String cacheClear(
+        @Option(longNames = "command", shortNames = 'c', defaultValue = ShellOption.NULL,
+            description = "Only this command (default: all)") String command
+    ) {
+        int removed = command == null ? cache.invalidateAll() : cache.invalidate(command);
+        return "Dropped " + removed + " cached response" + (removed == 1 ? "" : "s");
+    }
+
+    @PreDestroy
+    public void close() {
+        client.close();
+    }
 }
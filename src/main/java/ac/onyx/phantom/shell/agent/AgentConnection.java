@@ -0,0 +1,281 @@
+package ac.onyx.phantom.shell.agent;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived, pipelined connection to phantom-agent over its Unix socket.
+ *
+ * Any number of requests can be in flight at once: frames are written under a
+ * lock and a reader thread matches each response back to its caller by
+ * {@code request_id}.
+ *
+ * Older agents serve a single request per connection and close it after
+ * answering, so pipelining is only switched on once the agent has shown it keeps
+ * connections open. Until then every request gets a connection of its own; the
+ * first one still open {@value #PROBE_GRACE_MS} ms after its answer becomes the
+ * shared connection. If the agent closes it instead, the client stays with one
+ * connection per request. A request is only ever re-sent when writing it failed,
+ * i.e. the agent cannot have seen it; requests it may already be running fail
+ * when the connection drops, since commands need not be idempotent.
+ *
+ * Streaming requests receive any number of {@code "type": "chunk"} frames before
+ * their final frame. Chunks go straight to the request's listener on the reader
+ * thread, so at most one frame is held in memory per connection.
+ *
+ * Frames are encoded into one buffer owned by the writer and read into one owned
+ * by each reader thread (see {@link AgentCodec}).
+ */
+class AgentConnection implements Closeable {
+
+    /** How long a connection must stay open after its first answer to count as reusable. */
+    static final long PROBE_GRACE_MS = 100;
+
+    enum Mode { UNKNOWN, PIPELINED, ONE_SHOT }
+
+    private final Path socketPath;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final Set<Link> links = ConcurrentHashMap.newKeySet();
+    private final AgentCodec.FrameBuffer writeBuffer = new AgentCodec.FrameBuffer();
+    private volatile Mode mode = Mode.UNKNOWN;
+    private Link shared; // guarded by this
+    private boolean closed; // guarded by this
+
+    private static final class Pending {
+        final CompletableFuture<AgentResponse> future;
+        final AgentRequest request;
+        final Consumer<AgentResponse> onChunk;
+        volatile Link via; // connection the frame was written to
+
+        Pending(CompletableFuture<AgentResponse> future, AgentRequest request, Consumer<AgentResponse> onChunk) {
+            this.future = future;
+            this.request = request;
+            this.onChunk = onChunk;
+        }
+    }
+
+    /** One socket and the thread reading from it. */
+    private final class Link {
+        final SocketChannel channel;
+        final AtomicInteger answered = new AtomicInteger();
+        volatile boolean single; // carries one request, then closes
+
+        Link(SocketChannel channel, boolean single) {
+            this.channel = channel;
+            this.single = single;
+        }
+    }
+
+    AgentConnection(Path socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sends one request; the future completes when its response arrives.
+     */
+    CompletableFuture<AgentResponse> send(AgentRequest request) {
+        return send(request, null);
+    }
+
+    /**
+     * Sends a streaming request: chunk frames go to {@code onChunk}, the future
+     * completes with the final frame.
+     */
+    CompletableFuture<AgentResponse> send(AgentRequest request, Consumer<AgentResponse> onChunk) {
+        CompletableFuture<AgentResponse> future = new CompletableFuture<>();
+        Pending p = new Pending(future, request, onChunk);
+        pending.put(request.requestId(), p);
+        try {
+            if (mode == Mode.PIPELINED) {
+                writeShared(p);
+            } else {
+                writeSingle(p);
+            }
+        } catch (IOException e) {
+            if (pending.remove(request.requestId(), p)) future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private synchronized void writeShared(Pending p) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Link link = sharedLink();
+            p.via = link;
+            try {
+                write(link, p);
+                return;
+            } catch (IOException e) {
+                // The agent never got this frame whole, so it is safe to try once more on a new connection
+                p.via = null;
+                disconnect(link, e);
+                if (attempt > 0) throw e;
+            }
+        }
+    }
+
+    private void writeSingle(Pending p) throws IOException {
+        Link link = open(true);
+        p.via = link;
+        try {
+            synchronized (this) {
+                write(link, p);
+            }
+        } catch (IOException e) {
+            p.via = null;
+            disconnect(link, e);
+            throw e;
+        }
+    }
+
+    private void write(Link link, Pending p) throws IOException {
+        ByteBuffer frame = AgentCodec.encode(p.request, writeBuffer);
+        AgentCodec.write(link.channel, frame);
+    }
+
+    private Link sharedLink() throws IOException {
+        if (shared != null && shared.channel.isOpen()) return shared;
+        shared = open(false);
+        return shared;
+    }
+
+    private Link open(boolean single) throws IOException {
+        synchronized (this) {
+            if (closed) throw new IOException("Connection closed");
+        }
+        SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            ch.connect(UnixDomainSocketAddress.of(socketPath));
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        Link link = new Link(ch, single);
+        links.add(link);
+        Thread reader = new Thread(() -> readLoop(link), "agent-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return link;
+    }
+
+    private void readLoop(Link link) {
+        AgentCodec.FrameReader frames = new AgentCodec.FrameReader();
+        try {
+            while (true) {
+                if (dispatch(link, frames.readResponse(link.channel))) answered(link);
+            }
+        } catch (IOException e) {
+            disconnect(link, e);
+        }
+    }
+
+    /** Completes the request a frame belongs to; true when that was its final frame. */
+    private boolean dispatch(Link link, AgentResponse response) {
+        String id = response.requestId();
+        if (id != null && response.isChunk()) {
+            Pending request = pending.get(id);
+            if (request != null && request.onChunk != null) request.onChunk.accept(response);
+            return false;
+        }
+        Pending request = id == null ? null : pending.remove(id);
+        if (request == null && id == null) {
+            // Agents that do not echo request_id can still serve one request at a time
+            request = onlyRequestOn(link);
+        }
+        if (request == null) return false;
+        request.future.complete(response);
+        return true;
+    }
+
+    private Pending onlyRequestOn(Link link) {
+        Map.Entry<String, Pending> only = null;
+        for (Map.Entry<String, Pending> e : pending.entrySet()) {
+            if (e.getValue().via != link) continue;
+            if (only != null) return null;
+            only = e;
+        }
+        return only != null && pending.remove(only.getKey(), only.getValue()) ? only.getValue() : null;
+    }
+
+    private void answered(Link link) {
+        link.answered.incrementAndGet();
+        if (!link.single) return;
+        if (mode == Mode.UNKNOWN) {
+            // Still open after the grace period: the agent keeps connections, start pipelining on this one
+            CompletableFuture.delayedExecutor(PROBE_GRACE_MS, TimeUnit.MILLISECONDS).execute(() -> promote(link));
+        } else {
+            close(link);
+        }
+    }
+
+    private void promote(Link link) {
+        synchronized (this) {
+            if (link.channel.isOpen() && mode != Mode.ONE_SHOT && !closed) {
+                mode = Mode.PIPELINED;
+                if (shared == null || !shared.channel.isOpen()) {
+                    link.single = false;
+                    shared = link;
+                    return;
+                }
+            }
+        }
+        close(link);
+    }
+
+    private void disconnect(Link link, IOException cause) {
+        synchronized (this) {
+            if (shared == link) shared = null;
+            // Closed by the agent right after its answer, before the grace period was up:
+            // it serves one request per connection
+            if (cause instanceof EOFException && link.single && link.answered.get() == 1
+                    && mode == Mode.UNKNOWN && !closed) {
+                mode = Mode.ONE_SHOT;
+            }
+        }
+        close(link);
+        for (Map.Entry<String, Pending> entry : new ArrayList<>(pending.entrySet())) {
+            Pending request = entry.getValue();
+            // Requests written to another connection are not affected
+            if (request.via != link || !pending.remove(entry.getKey(), request)) continue;
+            request.future.completeExceptionally(cause instanceof EOFException
+                ? new EOFException("phantom-agent closed the connection")
+                : cause);
+        }
+    }
+
+    private void close(Link link) {
+        links.remove(link);
+        try {
+            link.channel.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        for (Link link : new ArrayList<>(links)) {
+            disconnect(link, new IOException("Connection closed"));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ac.onyx.phantom.shell.agent;
+
+/**
+ * Receives command output from phantom-agent as it is produced.
+ */
+@FunctionalInterface
+public interface AgentOutputListener {
+
+    /**
+     * @param stream "stdout" or "stderr"
+     * @param data   the next piece of output, in arrival order
+     */
+    void onOutput(String stream, String data);
+}
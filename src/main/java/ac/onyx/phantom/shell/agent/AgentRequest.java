@@ -0,0 +1,15 @@
+package ac.onyx.phantom.shell.agent;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A command sent to phantom-agent. {@code stream} is only written when set.
+ */
+public record AgentRequest(
+    String token,
+    String command,
+    String[] args,
+    @JsonProperty("request_id") String requestId,
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT) boolean stream
+) {}
@@ -0,0 +1,52 @@
+package ac.onyx.phantom.shell.agent;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Any frame phantom-agent sends back: a full response (stdout/stderr/returncode),
+ * an error, or, for streaming requests, a chunk ({@code type=chunk}, stream, data)
+ * followed by an exit frame ({@code type=exit}, returncode).
+ */
+@JsonAutoDetect(isGetterVisibility = JsonAutoDetect.Visibility.NONE) // isChunk/isError are not fields
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record AgentResponse(
+    @JsonProperty("request_id") String requestId,
+    String type,
+    String stream,
+    String data,
+    String stdout,
+    String stderr,
+    Integer returncode,
+    String error,
+    String message
+) {
+
+    public static AgentResponse chunk(String requestId, String stream, String data) {
+        return new AgentResponse(requestId, "chunk", stream, data, null, null, null, null, null);
+    }
+
+    public static AgentResponse exit(String requestId, int returncode) {
+        return new AgentResponse(requestId, "exit", null, null, null, null, returncode, null, null);
+    }
+
+    public static AgentResponse output(String requestId, String stdout, String stderr, int returncode) {
+        return new AgentResponse(requestId, null, null, null, stdout, stderr, returncode, null, null);
+    }
+
+    public boolean isChunk() {
+        return "chunk".equals(type);
+    }
+
+    public boolean isError() {
+        return error != null;
+    }
+
+    /** Exit status, or -1 when the agent did not report one. */
+    public int exitCode() {
+        return returncode == null ? -1 : returncode;
+    }
+}
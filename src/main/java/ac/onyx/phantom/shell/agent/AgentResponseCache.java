@@ -0,0 +1,171 @@
+package ac.onyx.phantom.shell.agent;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Client-side cache of agent responses for read-only queries, keyed by command
+ * and arguments.
+ *
+ * Caching is opt-in per command: only commands with a TTL are cached, each for
+ * its own TTL. At most {@code maxEntries} responses are kept, the least recently
+ * used going first. Identical requests that arrive while one is already in
+ * flight share its response instead of sending their own. Agent errors and lost
+ * connections are never cached, so the next call retries.
+ */
+public class AgentResponseCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+
+    /** Counter snapshot; {@code shared} requests joined one already in flight. */
+    public record Stats(int entries, long hits, long shared, long misses, long evictions) {
+        public double hitRatio() {
+            long total = hits + shared + misses;
+            return total == 0 ? 0 : (hits + shared) / (double) total;
+        }
+    }
+
+    private record Key(String command, List<String> args) {}
+
+    private static final class Entry {
+        final CompletableFuture<AgentResponse> response;
+        volatile long expiresAtNanos = Long.MAX_VALUE; // set once the response is in
+
+        Entry(CompletableFuture<AgentResponse> response) {
+            this.response = response;
+        }
+
+        boolean expired(long now) {
+            return response.isDone() && now - expiresAtNanos >= 0;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Duration> ttls = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Key, Entry> entries; // guarded by this
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public AgentResponseCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= AgentResponseCache.this.maxEntries) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Caches {@code command} for {@code ttl}; a null or zero TTL stops caching it
+     * and drops what is cached for it.
+     */
+    public void setTtl(String command, Duration ttl) {
+        if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+            ttls.remove(command);
+            invalidate(command);
+        } else {
+            ttls.put(command, ttl);
+        }
+    }
+
+    /** Cached commands and their TTLs, by name. */
+    public Map<String, Duration> getTtls() {
+        return new TreeMap<>(ttls);
+    }
+
+    public int getMaxEntries() { return maxEntries; }
+
+    public boolean isCacheable(String command) {
+        return ttls.containsKey(command);
+    }
+
+    /**
+     * The cached or in-flight response for the command, or the one {@code send}
+     * produces. Commands without a TTL always go to {@code send}. Every caller
+     * gets a future of its own, so cancelling or completing it leaves the cached
+     * one alone.
+     */
+    public CompletableFuture<AgentResponse> get(String command, String[] args,
+                                                Supplier<CompletableFuture<AgentResponse>> send) {
+        Duration ttl = ttls.get(command);
+        if (ttl == null) return send.get();
+
+        Key key = new Key(command, args == null ? List.of() : Arrays.asList(args.clone()));
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.expired(System.nanoTime())) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry != null) {
+                (entry.response.isDone() ? hits : shared).increment();
+                return entry.response.copy();
+            }
+            misses.increment();
+            entry = new Entry(new CompletableFuture<>());
+            entries.put(key, entry);
+        }
+
+        // Sent outside the lock; whoever finds the entry meanwhile waits on it
+        Entry pending = entry;
+        CompletableFuture<AgentResponse> sent;
+        try {
+            sent = send.get();
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((resp, e) -> {
+            synchronized (this) {
+                // Invalidated or evicted while in flight: hand the response out, don't keep it
+                if (entries.get(key) == pending) {
+                    if (e != null || resp.isError()) {
+                        entries.remove(key);
+                    } else {
+                        pending.expiresAtNanos = System.nanoTime() + ttl.toNanos();
+                    }
+                }
+            }
+            if (e != null) pending.response.completeExceptionally(e);
+            else pending.response.complete(resp);
+        });
+        return pending.response.copy();
+    }
+
+    /** Drops everything cached for {@code command}, whatever its arguments. */
+    public synchronized int invalidate(String command) {
+        int removed = 0;
+        for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext();) {
+            if (it.next().command().equals(command)) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Drops every cached response. */
+    public synchronized int invalidateAll() {
+        int removed = entries.size();
+        entries.clear();
+        return removed;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(entries.size(), hits.sum(), shared.sum(), misses.sum(), evictions.sum());
+    }
+}
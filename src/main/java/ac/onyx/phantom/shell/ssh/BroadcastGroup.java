@@ -0,0 +1,459 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStyle;
+import org.jline.utils.NonBlocking;
+import org.jline.utils.NonBlockingInputStream;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+/**
+ * Cluster-ssh style broadcast: one local keyboard typing into the PTY shells of
+ * many hosts at once.
+ *
+ * Everything runs on the caller's thread. Each keystroke burst is read once into
+ * a single buffer and written from it to every enabled host's channel; remote
+ * output is polled from all channels in the same loop and shown line by line,
+ * tagged with the host's number and name. Partial lines (prompts, echo) are
+ * shown once the host has been quiet for a moment, or once they fill the line
+ * buffer.
+ *
+ * A host is only written as much as its channel window takes, so one that stops
+ * reading its input cannot block the loop for the others. What does not fit is
+ * queued for it; when the queue is full the host is left out of the broadcast
+ * and its queued input dropped.
+ *
+ * Ctrl+] opens a one-line command prompt: a host number toggles that host in or
+ * out of the broadcast, {@code +}/{@code -} enable/disable all, {@code l} lists
+ * hosts and {@code q} ends the broadcast.
+ */
+public class BroadcastGroup implements Closeable {
+
+    public static final int COMMAND_KEY = 0x1d; // Ctrl+]
+
+    private static final long POLL_MS = 10;
+    private static final long PARTIAL_LINE_MS = 150;
+    private static final int MAX_LINE_BYTES = 4 * 1024;
+    private static final int MAX_BACKLOG_BYTES = 64 * 1024;
+    private static final int[] COLORS = {
+        AttributedStyle.CYAN, AttributedStyle.GREEN, AttributedStyle.YELLOW,
+        AttributedStyle.MAGENTA, AttributedStyle.BLUE, AttributedStyle.RED
+    };
+
+    /** One host's shell in the group. */
+    public static final class Member {
+        private final int number;
+        private final SSHConfig host;
+        private final SSHClient client;
+        private final String label;
+        private final Session session;
+        private final Session.Shell shell;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private volatile boolean enabled = true;
+        private volatile boolean open = true;
+        private volatile boolean stalled; // left out for not reading; not reported yet
+        private byte[] backlog; // input its window had no room for, guarded by the group
+        private int backlogSize;
+        private long lastOutputNanos;
+        private long bytesIn;
+
+        Member(int number, SSHConfig host, SSHClient client, Session session, Session.Shell shell) {
+            this.number = number;
+            this.host = host;
+            this.client = client;
+            this.label = FanOutExec.label(host);
+            this.session = session;
+            this.shell = shell;
+        }
+
+        public int getNumber() { return number; }
+
+        public String getLabel() { return label; }
+
+        public boolean isEnabled() { return enabled; }
+
+        public boolean isOpen() { return open && shell.isOpen(); }
+
+        public long getBytesIn() { return bytesIn; }
+    }
+
+    private final List<Member> members;
+    private final FanOutExec.HostConnector connector;
+    private final int tagWidth;
+    private final byte[] input = new byte[32 * 1024];
+    private final byte[] output = new byte[32 * 1024];
+    private Member midLine; // member whose partial line is on screen
+    private volatile long bytesOut;
+
+    private BroadcastGroup(List<Member> members, FanOutExec.HostConnector connector) {
+        this.members = members;
+        this.connector = connector;
+        this.tagWidth = members.stream().mapToInt(m -> tag(m).length()).max().orElse(0) + 1;
+    }
+
+    /**
+     * Opens a PTY shell on every host, {@code parallelism} at a time. Hosts that
+     * fail are reported through {@code report} and left out.
+     */
+    public static BroadcastGroup open(List<SSHConfig> hosts, FanOutExec.HostConnector connector, int parallelism,
+                                      Size size, Consumer<String> report) throws InterruptedException {
+        String termType = System.getenv().getOrDefault("TERM", "xterm-256color");
+        int width = hosts.stream().mapToInt(h -> FanOutExec.label(h).length()).max().orElse(0) + 6;
+        int columns = Math.max(20, size.getColumns() - width);
+
+        ExecutorService workers = Executors.newFixedThreadPool(
+            Math.min(Math.max(1, parallelism), Math.max(1, hosts.size())), r -> {
+                Thread t = new Thread(r, "broadcast-open");
+                t.setDaemon(true);
+                return t;
+            });
+        try {
+            List<Future<Member>> futures = new ArrayList<>();
+            for (int i = 0; i < hosts.size(); i++) {
+                int number = i + 1;
+                SSHConfig host = hosts.get(i);
+                futures.add(workers.submit(() -> {
+                    SSHClient client = connector.open(host);
+                    Session session = null;
+                    try {
+                        session = client.startSession();
+                        session.allocatePTY(termType, columns, size.getRows(), 0, 0, Collections.emptyMap());
+                        return new Member(number, host, client, session, session.startShell());
+                    } catch (IOException | RuntimeException e) {
+                        if (session != null) session.close();
+                        connector.close(host, client);
+                        throw e;
+                    }
+                }));
+            }
+            List<Member> members = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    members.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    report.accept(FanOutExec.label(hosts.get(i)) + ": " + e.getCause().getMessage());
+                }
+            }
+            return new BroadcastGroup(members, connector);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Runs the broadcast on {@code terminal} (already in raw mode) until it is
+     * ended with the {@code q} command or every shell has exited.
+     */
+    public void run(Terminal terminal) throws IOException {
+        InputStream raw = terminal.input();
+        NonBlockingInputStream in = raw instanceof NonBlockingInputStream nb
+            ? nb : NonBlocking.nonBlocking(terminal.getName(), raw);
+        OutputStream screen = terminal.output();
+        StringBuilder command = null;
+
+        status(screen, "broadcasting to " + describe() + "; Ctrl+] for commands");
+        while (members.stream().anyMatch(Member::isOpen)) {
+            int c = in.read(POLL_MS);
+            if (c >= 0) {
+                int n = 0;
+                input[n++] = (byte) c;
+                int avail;
+                while (n < input.length && (avail = in.available()) > 0) {
+                    int r = in.read(input, n, Math.min(avail, input.length - n));
+                    if (r <= 0) break;
+                    n += r;
+                }
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    int b = input[i] & 0xff;
+                    if (command != null) {
+                        if (b == '\r' || b == '\n') {
+                            screen.write("\r\n".getBytes(StandardCharsets.UTF_8));
+                            if (!command(screen, command.toString().trim())) return;
+                            command = null;
+                        } else if (b == 127 || b == 8) {
+                            if (command.length() > 0) {
+                                command.setLength(command.length() - 1);
+                                screen.write("\b \b".getBytes(StandardCharsets.UTF_8));
+                            }
+                        } else if (b == 3 || b == 27) {
+                            screen.write("\r\n".getBytes(StandardCharsets.UTF_8));
+                            command = null;
+                        } else if (b >= 32) {
+                            command.append((char) b);
+                            screen.write(b);
+                        }
+                        start = i + 1;
+                    } else if (b == COMMAND_KEY) {
+                        broadcast(input, start, i - start);
+                        breakLine(screen);
+                        screen.write(new AttributedString("broadcast> ",
+                            AttributedStyle.BOLD).toAnsi().getBytes(StandardCharsets.UTF_8));
+                        command = new StringBuilder();
+                        start = i + 1;
+                    }
+                }
+                if (command == null) broadcast(input, start, n - start);
+                screen.flush();
+            }
+            flushBacklogs();
+            if (command == null) drainOutput(screen);
+        }
+        breakLine(screen);
+        status(screen, "all shells have exited");
+    }
+
+    /** Sends a control byte (e.g. Ctrl+C) to every enabled host. */
+    public void sendNow(int b) {
+        broadcast(new byte[] {(byte) b}, 0, 1);
+    }
+
+    public void resize(int columns, int rows) {
+        for (Member m : members) {
+            try {
+                m.shell.changeWindowDimensions(Math.max(20, columns - tagWidth), rows, 0, 0);
+            } catch (IOException e) {
+                // shell gone; noticed by the output loop
+            }
+        }
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Writes {@code len} bytes from the one shared buffer to every enabled, open
+     * shell, queueing what a host's window has no room for.
+     */
+    synchronized void broadcast(byte[] buf, int off, int len) {
+        if (len <= 0) return;
+        for (Member m : members) {
+            if (!m.enabled || !m.isOpen()) continue;
+            try {
+                // Input goes out in order: while some is queued, queue behind it
+                int n = m.backlogSize == 0 ? write(m, buf, off, len) : 0;
+                if (n < len) queue(m, buf, off + n, len - n);
+            } catch (IOException e) {
+                m.open = false;
+            }
+        }
+        bytesOut += len;
+    }
+
+    /** Sends queued input to hosts whose window has opened up again. */
+    synchronized void flushBacklogs() {
+        for (Member m : members) {
+            if (m.backlogSize == 0 || !m.isOpen()) continue;
+            try {
+                int n = write(m, m.backlog, 0, m.backlogSize);
+                System.arraycopy(m.backlog, n, m.backlog, 0, m.backlogSize - n);
+                m.backlogSize -= n;
+            } catch (IOException e) {
+                m.open = false;
+            }
+        }
+    }
+
+    /** Writes as much as the host's remote window takes without waiting; returns the count. */
+    private static int write(Member m, byte[] buf, int off, int len) throws IOException {
+        int n = (int) Math.min(len, m.shell.getRemoteWinSize());
+        if (n <= 0) return 0;
+        OutputStream remote = m.shell.getOutputStream();
+        remote.write(buf, off, n);
+        remote.flush();
+        return n;
+    }
+
+    private static void queue(Member m, byte[] buf, int off, int len) {
+        if (m.backlogSize + len > MAX_BACKLOG_BYTES) {
+            // Not reading its input: leave it out instead of holding the rest up
+            m.enabled = false;
+            m.stalled = true;
+            m.backlogSize = 0;
+            return;
+        }
+        if (m.backlog == null) m.backlog = new byte[MAX_BACKLOG_BYTES];
+        System.arraycopy(buf, off, m.backlog, m.backlogSize, len);
+        m.backlogSize += len;
+    }
+
+    private void drainOutput(OutputStream screen) throws IOException {
+        long now = System.nanoTime();
+        boolean wrote = false;
+        for (Member m : members) {
+            if (!m.open) continue;
+            try {
+                InputStream remote = m.shell.getInputStream();
+                int avail;
+                while ((avail = remote.available()) > 0) {
+                    int n = remote.read(output, 0, Math.min(avail, output.length));
+                    if (n <= 0) break;
+                    m.bytesIn += n;
+                    m.lastOutputNanos = now;
+                    for (int i = 0; i < n; i++) {
+                        byte b = output[i];
+                        if (b == '\n') {
+                            emit(screen, m, true);
+                            wrote = true;
+                        } else if (b != '\r') {
+                            // A long line without newlines is shown in pieces, not held whole;
+                            // the cut goes before a character, never inside a UTF-8 sequence
+                            if (m.line.size() >= MAX_LINE_BYTES && (b & 0xc0) != 0x80) {
+                                emit(screen, m, false);
+                                wrote = true;
+                            }
+                            m.line.write(b);
+                        }
+                    }
+                }
+                if (!m.shell.isOpen()) {
+                    m.open = false;
+                    emit(screen, m, true);
+                    breakLine(screen);
+                    status(screen, tag(m) + " exited");
+                    wrote = true;
+                }
+            } catch (IOException e) {
+                m.open = false;
+            }
+            if (m.stalled) {
+                m.stalled = false;
+                breakLine(screen);
+                status(screen, tag(m) + " is not reading input; left out of the broadcast (" + m.number
+                    + " adds it back)");
+                wrote = true;
+            }
+            // Prompts and echo never end in a newline; show them once the host pauses
+            if (m.line.size() > 0 && now - m.lastOutputNanos >= PARTIAL_LINE_MS * 1_000_000) {
+                emit(screen, m, false);
+                wrote = true;
+            }
+        }
+        if (wrote) screen.flush();
+    }
+
+    /** Shows a member's pending text, tagged unless it continues the line already on screen. */
+    private void emit(OutputStream screen, Member m, boolean endOfLine) throws IOException {
+        if (midLine != m) {
+            breakLine(screen);
+            String tag = String.format("%-" + tagWidth + "s", tag(m));
+            AttributedStyle style = AttributedStyle.DEFAULT.foreground(COLORS[(m.number - 1) % COLORS.length]);
+            // Hosts left out of the broadcast are dimmed
+            if (!m.enabled) style = style.faint();
+            screen.write(new AttributedString(tag, style).toAnsi().getBytes(StandardCharsets.UTF_8));
+        }
+        m.line.writeTo(screen);
+        m.line.reset();
+        if (endOfLine) {
+            screen.write('\r');
+            screen.write('\n');
+            midLine = null;
+        } else {
+            midLine = m;
+        }
+    }
+
+    private void breakLine(OutputStream screen) throws IOException {
+        if (midLine == null) return;
+        screen.write('\r');
+        screen.write('\n');
+        midLine = null;
+    }
+
+    /** Runs a prompt command; returns false to end the broadcast. */
+    private boolean command(OutputStream screen, String cmd) throws IOException {
+        switch (cmd) {
+            case "" -> { }
+            case "q", "quit" -> {
+                status(screen, "ending broadcast");
+                return false;
+            }
+            case "+", "all" -> members.forEach(m -> m.enabled = true);
+            case "-", "none" -> members.forEach(m -> m.enabled = false);
+            case "l", "list" -> {
+                for (Member m : members) {
+                    status(screen, String.format("%-" + tagWidth + "s %-4s %s", tag(m), m.enabled ? "on" : "off",
+                        m.isOpen() ? "" : "exited"));
+                }
+                return true;
+            }
+            default -> {
+                try {
+                    int number = Integer.parseInt(cmd);
+                    Member m = number >= 1 && number <= members.size() ? members.get(number - 1) : null;
+                    if (m == null) {
+                        status(screen, "no host " + number);
+                        return true;
+                    }
+                    m.enabled = !m.enabled;
+                } catch (NumberFormatException e) {
+                    status(screen, "commands: <n> toggle host, + all on, - all off, l list, q quit");
+                    return true;
+                }
+            }
+        }
+        status(screen, "broadcasting to " + describe());
+        return true;
+    }
+
+    private String describe() {
+        List<String> on = new ArrayList<>();
+        for (Member m : members) {
+            if (m.enabled && m.isOpen()) on.add(m.number + ":" + m.label);
+        }
+        return on.isEmpty() ? "no hosts" : String.join(" ", on);
+    }
+
+    private static String tag(Member m) {
+        return "[" + m.number + " " + m.label + "]";
+    }
+
+    private void status(OutputStream screen, String message) throws IOException {
+        screen.write(new AttributedString("-- " + message + " --", AttributedStyle.DEFAULT.faint())
+            .toAnsi().getBytes(StandardCharsets.UTF_8));
+        screen.write('\r');
+        screen.write('\n');
+        screen.flush();
+    }
+
+    /** Closes every shell and hands the hosts' connections back. */
+    @Override
+    public void close() {
+        for (Member m : members) {
+            try {
+                m.shell.close();
+            } catch (IOException e) {
+                // already closed by the remote
+            }
+            try {
+                m.session.close();
+            } catch (IOException e) {
+                // already closed by the remote
+            }
+            connector.close(m.host, m.client);
+        }
+    }
+}
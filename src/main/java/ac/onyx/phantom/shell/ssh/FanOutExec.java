@@ -0,0 +1,128 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+/**
+ * Runs one command on many hosts at once.
+ *
+ * At most {@code parallelism} hosts run concurrently. Output lines are handed to
+ * the sink as they arrive, prefixed with the host label, so a slow host never
+ * holds back the others.
+ */
+public class FanOutExec {
+
+    /**
+     * Supplies connected clients for hosts and takes them back afterwards.
+     */
+    public interface HostConnector {
+        SSHClient open(SSHConfig host) throws IOException;
+        void close(SSHConfig host, SSHClient client);
+    }
+
+    public record Result(String host, Integer exitStatus, Duration duration, String error) {
+        public boolean ok() { return error == null && exitStatus != null && exitStatus == 0; }
+    }
+
+    private final int parallelism;
+    private final Consumer<String> sink;
+
+    public FanOutExec(int parallelism, Consumer<String> sink) {
+        this.parallelism = Math.max(1, parallelism);
+        this.sink = sink;
+    }
+
+    public List<Result> run(List<SSHConfig> hosts, String command, HostConnector connector)
+            throws InterruptedException {
+        int width = hosts.stream().mapToInt(h -> label(h).length()).max().orElse(0);
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, hosts.size())),
+            daemon("exec-worker"));
+        // stderr is drained separately so a full stderr window never stalls stdout
+        ExecutorService drains = Executors.newCachedThreadPool(daemon("exec-stderr"));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (SSHConfig host : hosts) {
+                String prefix = String.format("[%-" + width + "s] ", label(host));
+                futures.add(workers.submit(() -> runOne(host, prefix, command, connector, drains)));
+            }
+
+            List<Result> results = new ArrayList<>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(label(hosts.get(i)), null, Duration.ZERO, String.valueOf(e.getCause())));
+                }
+            }
+            return results;
+        } finally {
+            workers.shutdownNow();
+            drains.shutdownNow();
+        }
+    }
+
+    private Result runOne(SSHConfig host, String prefix, String command, HostConnector connector,
+                          ExecutorService drains) {
+        long start = System.nanoTime();
+        try {
+            SSHClient client = connector.open(host);
+            try (Session session = client.startSession();
+                 Session.Command cmd = session.exec(command)) {
+                Future<?> stderr = drains.submit(() -> copyLines(cmd.getErrorStream(), prefix));
+                copyLines(cmd.getInputStream(), prefix);
+                stderr.get();
+                cmd.join(5, TimeUnit.SECONDS);
+                return new Result(label(host), cmd.getExitStatus(), elapsed(start), null);
+            } finally {
+                connector.close(host, client);
+            }
+        } catch (Exception e) {
+            return new Result(label(host), null, elapsed(start), e.getMessage());
+        }
+    }
+
+    private Void copyLines(InputStream in, String prefix) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sink.accept(prefix + line);
+            }
+        }
+        return null;
+    }
+
+    public static String label(SSHConfig host) {
+        return host.getPatterns().isEmpty() ? host.getHostname() : host.getPatterns().get(0);
+    }
+
+    private static Duration elapsed(long start) {
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
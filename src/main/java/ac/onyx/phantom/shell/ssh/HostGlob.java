@@ -0,0 +1,110 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.util.regex.Pattern;
+
+/**
+ * ssh_config style glob ({@code *} and {@code ?}) compiled once.
+ *
+ * The common shapes ({@code *}, {@code prefix*}, {@code *suffix} and plain names)
+ * are matched with string comparisons; anything else falls back to a regex.
+ */
+public final class HostGlob {
+
+    private enum Kind { ANY, EXACT, PREFIX, SUFFIX, REGEX }
+
+    private final String glob;
+    private final Kind kind;
+    private final String literal;
+    private final Pattern pattern;
+
+    private HostGlob(String glob) {
+        this.glob = glob;
+        String lower = glob.toLowerCase();
+        int stars = count(lower, '*');
+        boolean question = lower.indexOf('?') >= 0;
+        if (lower.equals("*")) {
+            kind = Kind.ANY;
+            literal = null;
+        } else if (stars == 0 && !question) {
+            kind = Kind.EXACT;
+            literal = lower;
+        } else if (stars == 1 && !question && lower.endsWith("*")) {
+            kind = Kind.PREFIX;
+            literal = lower.substring(0, lower.length() - 1);
+        } else if (stars == 1 && !question && lower.startsWith("*")) {
+            kind = Kind.SUFFIX;
+            literal = lower.substring(1);
+        } else {
+            kind = Kind.REGEX;
+            literal = null;
+        }
+        this.pattern = kind == Kind.REGEX ? Pattern.compile(toRegex(lower)) : null;
+    }
+
+    public static HostGlob compile(String glob) {
+        return new HostGlob(glob);
+    }
+
+    public static boolean isWildcard(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0;
+    }
+
+    public boolean matches(String name) {
+        return matchesLower(name.toLowerCase());
+    }
+
+    /**
+     * Matches a name that is already lower case, skipping the conversion.
+     */
+    public boolean matchesLower(String name) {
+        switch (kind) {
+            case ANY: return true;
+            case EXACT: return name.equals(literal);
+            case PREFIX: return name.startsWith(literal);
+            case SUFFIX: return name.endsWith(literal);
+            default: return pattern.matcher(name).matches();
+        }
+    }
+
+    /**
+     * True when any of the host's patterns match this glob.
+     */
+    public boolean matches(SSHConfig host) {
+        for (String p : host.getPatterns()) {
+            if (matches(p)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() { return glob; }
+
+    private static int count(String s, char c) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == c) n++;
+        }
+        return n;
+    }
+
+    static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder(glob.length() + 8);
+        int literalStart = -1;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literalStart >= 0) {
+                    sb.append(Pattern.quote(glob.substring(literalStart, i)));
+                    literalStart = -1;
+                }
+                sb.append(c == '*' ? ".*" : ".");
+            } else if (literalStart < 0) {
+                literalStart = i;
+            }
+        }
+        if (literalStart >= 0) {
+            sb.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,262 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Checks which configured hosts accept TCP connections on their SSH port, and how
+ * quickly.
+ *
+ * All connects of a run are non-blocking and share one selector thread; only name
+ * resolution, which has no non-blocking API, runs on a small pool. Each distinct
+ * hostname:port is probed once however many aliases point at it, and results are
+ * cached for a TTL so repeated runs only probe what went stale. Hosts reached
+ * through ProxyJump or ProxyCommand are skipped.
+ */
+public class HostProber implements Closeable {
+
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofMillis(750);
+    public static final Duration DEFAULT_TTL = Duration.ofSeconds(60);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private static final int RESOLVER_THREADS = 16;
+
+    /** Outcome of one probe; {@code rttNanos} is the TCP connect time when reachable. */
+    public record Probe(boolean reachable, long rttNanos, String error, long checkedAtMillis) {
+        public Duration rtt() {
+            return Duration.ofNanos(rttNanos);
+        }
+    }
+
+    private record Endpoint(String host, int port) {
+        static Endpoint of(SSHConfig config) {
+            return new Endpoint(config.getHostname().toLowerCase(), config.getPort());
+        }
+    }
+
+    private record Resolved(Endpoint endpoint, InetSocketAddress address) {}
+
+    /** One connect in flight on the selector. */
+    private record Attempt(Endpoint endpoint, long startNanos, long deadlineNanos) {}
+
+    private final Duration timeout;
+    private final Duration ttl;
+    private final int maxInFlight;
+    private final Map<Endpoint, Probe> cache = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final ExecutorService resolvers = Executors.newFixedThreadPool(RESOLVER_THREADS, daemon("probe-resolve"));
+    private final ExecutorService selectors = Executors.newCachedThreadPool(daemon("probe-connect"));
+
+    public HostProber(Duration timeout, Duration ttl, int maxInFlight) {
+        this.timeout = timeout;
+        this.ttl = ttl;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * The cached result for a host, or null when it has not been probed within the TTL.
+     */
+    public Probe cached(SSHConfig host) {
+        if (host.getHostname() == null) return null;
+        Probe probe = cache.get(Endpoint.of(host));
+        return probe != null && fresh(probe) ? probe : null;
+    }
+
+    /** Drops all cached results so the next run probes everything again. */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * Incremented whenever a new result lands, so views can tell when to redraw.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Probes every host that has no fresh result, reporting each result as it
+     * arrives. The future completes with the result for every host once all are in.
+     */
+    public CompletableFuture<Map<SSHConfig, Probe>> probeAll(Collection<SSHConfig> hosts,
+                                                              BiConsumer<SSHConfig, Probe> onResult) {
+        Map<Endpoint, List<SSHConfig>> pending = new LinkedHashMap<>();
+        Map<SSHConfig, Probe> results = new ConcurrentHashMap<>();
+        for (SSHConfig host : hosts) {
+            if (host.getHostname() == null || host.getHostname().isBlank()) continue;
+            // Hosts behind a bastion or ProxyCommand are usually not routable from here
+            if (host.isProxied()) continue;
+            Probe known = cached(host);
+            if (known != null) {
+                results.put(host, known);
+                onResult.accept(host, known);
+            } else {
+                pending.computeIfAbsent(Endpoint.of(host), e -> new ArrayList<>()).add(host);
+            }
+        }
+        if (pending.isEmpty()) return CompletableFuture.completedFuture(results);
+
+        BiConsumer<Endpoint, Probe> deliver = (endpoint, probe) -> {
+            cache.put(endpoint, probe);
+            generation.incrementAndGet();
+            for (SSHConfig host : pending.get(endpoint)) {
+                results.put(host, probe);
+                onResult.accept(host, probe);
+            }
+        };
+        return CompletableFuture.runAsync(() -> run(pending.keySet(), deliver), selectors)
+            .thenApply(v -> results);
+    }
+
+    private void run(Collection<Endpoint> endpoints, BiConsumer<Endpoint, Probe> deliver) {
+        Queue<Resolved> resolved = new ConcurrentLinkedQueue<>();
+        Selector selector;
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            for (Endpoint endpoint : endpoints) deliver.accept(endpoint, down(e.toString()));
+            return;
+        }
+
+        try (selector) {
+            for (Endpoint endpoint : endpoints) {
+                resolvers.execute(() -> {
+                    InetSocketAddress address = new InetSocketAddress(endpoint.host(), endpoint.port());
+                    resolved.add(new Resolved(endpoint, address));
+                    selector.wakeup();
+                });
+            }
+
+            int remaining = endpoints.size();
+            long timeoutNanos = timeout.toNanos();
+            Map<SelectionKey, Attempt> inFlight = new HashMap<>();
+            while (remaining > 0) {
+                // Start connects for resolved names, keeping the socket count bounded
+                Resolved next;
+                while (inFlight.size() < maxInFlight && (next = resolved.poll()) != null) {
+                    Endpoint endpoint = next.endpoint();
+                    InetSocketAddress address = next.address();
+                    if (address.isUnresolved()) {
+                        deliver.accept(endpoint, down("unknown host"));
+                        remaining--;
+                        continue;
+                    }
+                    SocketChannel ch = null;
+                    try {
+                        ch = SocketChannel.open();
+                        ch.configureBlocking(false);
+                        long start = System.nanoTime();
+                        if (ch.connect(address)) {
+                            ch.close();
+                            deliver.accept(endpoint, up(System.nanoTime() - start));
+                            remaining--;
+                        } else {
+                            SelectionKey key = ch.register(selector, SelectionKey.OP_CONNECT);
+                            inFlight.put(key, new Attempt(endpoint, start, start + timeoutNanos));
+                        }
+                    } catch (IOException e) {
+                        closeQuietly(ch);
+                        deliver.accept(endpoint, down(e.getMessage()));
+                        remaining--;
+                    }
+                }
+
+                long now = System.nanoTime();
+                long wait = inFlight.isEmpty() ? 50 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(
+                    inFlight.values().stream().mapToLong(Attempt::deadlineNanos).min().getAsLong() - now));
+                selector.select(wait);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Attempt attempt = inFlight.remove(key);
+                    if (attempt == null) continue;
+                    SocketChannel ch = (SocketChannel) key.channel();
+                    try {
+                        ch.finishConnect();
+                        deliver.accept(attempt.endpoint(), up(System.nanoTime() - attempt.startNanos()));
+                    } catch (IOException e) {
+                        deliver.accept(attempt.endpoint(), down(e.getMessage()));
+                    } finally {
+                        key.cancel();
+                        closeQuietly(ch);
+                    }
+                    remaining--;
+                }
+
+                now = System.nanoTime();
+                for (Iterator<Map.Entry<SelectionKey, Attempt>> e = inFlight.entrySet().iterator(); e.hasNext();) {
+                    Map.Entry<SelectionKey, Attempt> entry = e.next();
+                    if (now >= entry.getValue().deadlineNanos()) {
+                        e.remove();
+                        entry.getKey().cancel();
+                        closeQuietly(entry.getKey().channel());
+                        deliver.accept(entry.getValue().endpoint(), down("timeout"));
+                        remaining--;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // selector failed; hosts without a result stay unknown
+        }
+    }
+
+    private boolean fresh(Probe probe) {
+        return System.currentTimeMillis() - probe.checkedAtMillis() < ttl.toMillis();
+    }
+
+    private static Probe up(long rttNanos) {
+        return new Probe(true, rttNanos, null, System.currentTimeMillis());
+    }
+
+    private static Probe down(String error) {
+        return new Probe(false, 0, error == null ? "unreachable" : error, System.currentTimeMillis());
+    }
+
+    private static void closeQuietly(Channel ch) {
+        if (ch == null) return;
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @Override
+    public void close() {
+        resolvers.shutdownNow();
+        selectors.shutdownNow();
+    }
+}
@@ -0,0 +1,223 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Type-to-filter search over a host list.
+ *
+ * Each host is indexed by every 1-, 2- and 3-character gram of its aliases,
+ * hostname and user. Queries of up to three characters are answered straight from
+ * a posting list; longer ones only verify the hosts in their rarest trigram.
+ * A query that extends the previous one (typing) narrows the previous candidates
+ * instead of starting over. Results are ranked by match quality, then by
+ * reachability (up, unknown, down), then by how recently the host was used, and
+ * only the top {@code limit} are materialized.
+ */
+public class HostSearchIndex {
+
+    private static final int MAX_GRAM = 3;
+    private static final long RECENCY_MASK = (1L << 42) - 1;
+    private static final int SCORE_SHIFT = 44;
+
+    /** Reachability tiers; higher sorts first. */
+    public static final int DOWN = 0;
+    public static final int UNKNOWN = 1;
+    public static final int UP = 2;
+
+    public record Match(SSHConfig host, int score) {}
+
+    public record Result(List<Match> matches, int total) {}
+
+    /** Growable posting list; ids are appended in order so they stay sorted. */
+    private static final class Posting {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) return;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    private final List<SSHConfig> hosts;
+    private final String[] aliases;
+    private final String[] keys;
+    private final long[] recency;
+    private final byte[] reachability;
+    private final Map<SSHConfig, Integer> positions = new IdentityHashMap<>();
+    private final Map<Long, int[]> grams;
+    private final int[] all;
+
+    // Candidates of the previous query, reused when the next query extends it
+    private String lastQuery = "";
+    private int[] lastCandidates;
+
+    public HostSearchIndex(List<SSHConfig> hosts, ToLongFunction<String> lastUsed) {
+        this.hosts = hosts;
+        int n = hosts.size();
+        this.aliases = new String[n];
+        this.keys = new String[n];
+        this.recency = new long[n];
+        this.reachability = new byte[n];
+        Arrays.fill(reachability, (byte) UNKNOWN);
+        this.all = new int[n];
+
+        Map<Long, Posting> postings = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            SSHConfig h = hosts.get(i);
+            aliases[i] = String.join(" ", h.getPatterns()).toLowerCase();
+            keys[i] = (aliases[i] + " " + nullToEmpty(h.getHostname()) + " " + nullToEmpty(h.getUser())).toLowerCase();
+            recency[i] = lastUsed.applyAsLong(label(h)) & RECENCY_MASK;
+            positions.put(h, i);
+            all[i] = i;
+
+            String key = keys[i];
+            for (int c = 0; c < key.length(); c++) {
+                for (int len = 1; len <= MAX_GRAM && c + len <= key.length(); len++) {
+                    postings.computeIfAbsent(gram(key, c, len), g -> new Posting()).add(i);
+                }
+            }
+        }
+        this.grams = new HashMap<>(postings.size() * 2);
+        postings.forEach((g, p) -> grams.put(g, Arrays.copyOf(p.ids, p.size)));
+        this.lastCandidates = all;
+    }
+
+    public int size() {
+        return hosts.size();
+    }
+
+    /**
+     * Moves a host to the front of the recency order after it has been used.
+     */
+    public synchronized void markUsed(SSHConfig host) {
+        String alias = String.join(" ", host.getPatterns()).toLowerCase();
+        for (int i = 0; i < aliases.length; i++) {
+            if (aliases[i].equals(alias)) recency[i] = System.currentTimeMillis() & RECENCY_MASK;
+        }
+    }
+
+    /**
+     * Records whether a host answered a probe; {@code tier} is {@link #UP},
+     * {@link #UNKNOWN} or {@link #DOWN}.
+     */
+    public synchronized void setReachability(SSHConfig host, int tier) {
+        Integer i = positions.get(host);
+        if (i != null) reachability[i] = (byte) tier;
+    }
+
+    /**
+     * Returns the best {@code limit} matches and the total number of matches.
+     */
+    public synchronized Result search(String rawQuery, int limit) {
+        String query = rawQuery.trim().toLowerCase();
+        int[] candidates = candidates(query);
+        lastQuery = query;
+        lastCandidates = candidates;
+
+        // Bounded insertion into the top-k, keyed by (score, reachability, recency) packed in a long
+        int k = Math.max(0, limit);
+        int[] topIds = new int[k];
+        long[] topKeys = new long[k];
+        int count = 0;
+        for (int i : candidates) {
+            int score = score(i, query);
+            long rank = ((long) score << SCORE_SHIFT) | ((long) reachability[i] << 42) | recency[i];
+            if (count == k && (k == 0 || rank <= topKeys[k - 1])) continue;
+
+            int pos = count < k ? count++ : k - 1;
+            while (pos > 0 && topKeys[pos - 1] < rank) {
+                topKeys[pos] = topKeys[pos - 1];
+                topIds[pos] = topIds[pos - 1];
+                pos--;
+            }
+            topKeys[pos] = rank;
+            topIds[pos] = i;
+        }
+
+        List<Match> matches = new ArrayList<>(count);
+        for (int m = 0; m < count; m++) {
+            matches.add(new Match(hosts.get(topIds[m]), (int) (topKeys[m] >>> SCORE_SHIFT)));
+        }
+        return new Result(matches, candidates.length);
+    }
+
+    private int[] candidates(String query) {
+        if (query.isEmpty()) return all;
+
+        // Short queries are exactly a gram: the posting list is the answer
+        if (query.length() <= MAX_GRAM) {
+            int[] posting = grams.get(gram(query, 0, query.length()));
+            return posting == null ? new int[0] : posting;
+        }
+
+        // Typing more characters can only narrow the previous result
+        int[] base = rarestTrigram(query);
+        if (!lastQuery.isEmpty() && query.startsWith(lastQuery) && lastCandidates.length < base.length) {
+            base = lastCandidates;
+        }
+        int[] out = new int[Math.min(base.length, 1024)];
+        int count = 0;
+        for (int i : base) {
+            if (keys[i].contains(query)) {
+                if (count == out.length) out = Arrays.copyOf(out, out.length * 2);
+                out[count++] = i;
+            }
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private int[] rarestTrigram(String query) {
+        int[] best = null;
+        for (int c = 0; c + MAX_GRAM <= query.length(); c++) {
+            int[] list = grams.get(gram(query, c, MAX_GRAM));
+            if (list == null) return new int[0];
+            if (best == null || list.length < best.length) best = list;
+        }
+        return best;
+    }
+
+    /**
+     * Exact alias beats alias prefix, beats a match at a word start, beats any
+     * substring; shorter keys win ties so the closest name floats up.
+     */
+    private int score(int i, String query) {
+        if (query.isEmpty()) return 0;
+        String alias = aliases[i];
+        int score;
+        if (alias.equals(query)) {
+            score = 5000;
+        } else if (alias.startsWith(query)) {
+            score = 4000;
+        } else {
+            String key = keys[i];
+            int at = key.indexOf(query);
+            boolean wordStart = at == 0 || !Character.isLetterOrDigit(key.charAt(at - 1));
+            score = at < alias.length() ? (wordStart ? 3000 : 2000) : (wordStart ? 1500 : 1000);
+        }
+        return score - Math.min(keys[i].length(), 999);
+    }
+
+    private static long gram(String s, int at, int len) {
+        long g = len;
+        for (int c = 0; c < len; c++) {
+            g = (g << 16) | s.charAt(at + c);
+        }
+        return g;
+    }
+
+    private static String label(SSHConfig h) {
+        return h.getPatterns().isEmpty() ? "" : h.getPatterns().get(0);
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
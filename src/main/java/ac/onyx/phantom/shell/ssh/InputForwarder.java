@@ -0,0 +1,151 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Forwards raw local input bytes to a remote channel.
+ *
+ * A lone keystroke is sent as soon as it is read. When more input is already
+ * pending (typing bursts, pastes) the forwarder keeps collecting until the input
+ * pauses for the batch window, the buffer is full, or the maximum delay is hit,
+ * and then sends everything with a single flush, i.e. a single channel packet.
+ * An optional escape byte stops forwarding without being sent, e.g. to detach.
+ */
+public class InputForwarder implements Runnable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+    public static final long DEFAULT_BATCH_WINDOW_MS = 2;
+    public static final long DEFAULT_MAX_DELAY_MS = 20;
+
+    private static final long IDLE_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final InputStream source;
+    private final OutputStream sink;
+    private final BooleanSupplier open;
+    private final byte[] buffer;
+    private final long windowNanos;
+    private final long maxDelayNanos;
+
+    private volatile int escape = -1;
+    private volatile long bytes;
+    private volatile long packets;
+
+    public InputForwarder(InputStream source, OutputStream sink, BooleanSupplier open) {
+        this(source, sink, open, DEFAULT_BUFFER_SIZE, DEFAULT_BATCH_WINDOW_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    public InputForwarder(InputStream source, OutputStream sink, BooleanSupplier open,
+                          int bufferSize, long batchWindowMs, long maxDelayMs) {
+        this.source = source;
+        this.sink = sink;
+        this.open = open;
+        this.buffer = new byte[bufferSize];
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMs);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+    }
+
+    @Override
+    public void run() {
+        try {
+            forward();
+        } catch (IOException e) {
+            // This often happens when the shell closes
+        }
+    }
+
+    /** Stops {@link #forward()} when {@code b} is read; -1 for none. */
+    public void setEscape(int b) {
+        this.escape = b;
+    }
+
+    /**
+     * Runs the forwarding loop until the local input reaches EOF, the channel
+     * closes or the escape byte is read. Input before the escape byte is still
+     * sent; anything after it in the same read is dropped.
+     *
+     * @return true when stopped by the escape byte
+     */
+    public boolean forward() throws IOException {
+        while (open.getAsBoolean()) {
+            int n = source.read(buffer, 0, buffer.length);
+            if (n == -1) break;
+
+            int filled = n;
+            if (source.available() > 0) {
+                filled = collectBurst(filled);
+            }
+            int esc = indexOfEscape(filled);
+            if (esc >= 0) {
+                if (esc > 0) send(esc);
+                return true;
+            }
+            send(filled);
+        }
+        return false;
+    }
+
+    private int indexOfEscape(int length) {
+        int b = escape;
+        if (b < 0) return -1;
+        for (int i = 0; i < length; i++) {
+            if ((buffer[i] & 0xff) == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Keeps reading a burst until it pauses for the batch window, the buffer
+     * fills up, or the maximum delay since the first byte has elapsed.
+     */
+    private int collectBurst(int filled) throws IOException {
+        long start = System.nanoTime();
+        long lastData = start;
+        while (filled < buffer.length) {
+            long now = System.nanoTime();
+            if (now - start >= maxDelayNanos) break;
+
+            int avail = source.available();
+            if (avail > 0) {
+                int r = source.read(buffer, filled, Math.min(avail, buffer.length - filled));
+                if (r <= 0) break;
+                filled += r;
+                lastData = now;
+            } else if (now - lastData >= windowNanos) {
+                break;
+            } else {
+                LockSupport.parkNanos(IDLE_POLL_NANOS);
+            }
+        }
+        return filled;
+    }
+
+    private void send(int length) throws IOException {
+        synchronized (sink) {
+            sink.write(buffer, 0, length);
+            sink.flush();
+            bytes += length;
+            packets++;
+        }
+    }
+
+    /**
+     * Sends a single control byte (e.g. Ctrl+C) ahead of any batching.
+     */
+    public void sendNow(int b) throws IOException {
+        synchronized (sink) {
+            sink.write(b);
+            sink.flush();
+            bytes++;
+            packets++;
+        }
+    }
+
+    public long getBytes() { return bytes; }
+
+    public long getPackets() { return packets; }
+}
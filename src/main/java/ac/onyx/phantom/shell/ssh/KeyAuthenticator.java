@@ -0,0 +1,205 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.transport.TransportException;
+import net.schmizz.sshj.userauth.UserAuthException;
+import net.schmizz.sshj.userauth.keyprovider.KeyProvider;
+import net.schmizz.sshj.userauth.method.AuthMethod;
+import net.schmizz.sshj.userauth.method.AuthPublickey;
+import net.schmizz.sshj.userauth.password.PasswordUtils;
+
+/**
+ * Public key login for a host, trying the key most likely to work first.
+ *
+ * Candidates are the host's {@code IdentityFile} keys from every matching block,
+ * in config order (or the default {@code ~/.ssh/id_ed25519}, {@code id_ecdsa} and
+ * {@code id_rsa} when none is set),
+ * and the keys of the ssh-agent named by {@code IdentityAgent}/{@code SSH_AUTH_SOCK},
+ * unless {@code IdentitiesOnly yes}. Whichever method and key last worked for a
+ * user@host is remembered across shell runs and tried before the rest, so a host
+ * that rejects most keys costs one round trip instead of one per key.
+ *
+ * Key files are loaded once per shell and keep their decrypted key, so a
+ * passphrase-protected key is only decrypted on its first use. A key that could
+ * not be unlocked is dropped from the cache so a later login with a passphrase
+ * can try it again.
+ */
+public class KeyAuthenticator {
+
+    public static final String PUBLICKEY = "publickey";
+    public static final String PASSWORD = "password";
+
+    private static final List<String> DEFAULT_KEYS = List.of("~/.ssh/id_ed25519", "~/.ssh/id_ecdsa", "~/.ssh/id_rsa");
+
+    /** Called after every attempt, e.g. to count it. */
+    public interface Listener {
+        void attempt(String method, String key, boolean success);
+    }
+
+    /** The method and key (file path or agent key fingerprint) that last worked. */
+    public record Remembered(String method, String key) {}
+
+    private record Candidate(String id, AuthMethod method, Path file) {}
+
+    private final Path memoryFile;
+    private final Map<String, Remembered> memory = new ConcurrentHashMap<>();
+    private final Map<Path, KeyProvider> keyFiles = new ConcurrentHashMap<>();
+
+    public KeyAuthenticator(Path memoryFile) {
+        this.memoryFile = memoryFile;
+        load();
+    }
+
+    public static String label(SSHConfig host, String user) {
+        return user + "@" + FanOutExec.label(host);
+    }
+
+    /** What last worked for {@code user} on {@code host}, or null. */
+    public Remembered remembered(SSHConfig host, String user) {
+        return memory.get(label(host, user));
+    }
+
+    /**
+     * Whether a login is likely to succeed without a password: the host last
+     * took a key, or there are keys to offer and it has never needed a password.
+     */
+    public boolean hasKeysFor(SSHConfig host, String user) {
+        Remembered last = remembered(host, user);
+        if (last != null) return PUBLICKEY.equals(last.method());
+        if (identityFiles(host).stream().anyMatch(Files::isRegularFile)) return true;
+        SshAgent agent = agent(host);
+        if (agent == null) return false;
+        try {
+            return !agent.identities().isEmpty();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tries each key until the server accepts one. {@code passphrase} unlocks
+     * encrypted key files (may be empty).
+     *
+     * @return true when authenticated
+     */
+    public boolean authenticate(SSHClient client, SSHConfig host, String user, String passphrase, Listener listener)
+            throws TransportException {
+        List<Candidate> candidates = candidates(client, host, passphrase);
+        Remembered last = remembered(host, user);
+        if (last != null && PUBLICKEY.equals(last.method())) {
+            for (int i = 1; i < candidates.size(); i++) {
+                if (candidates.get(i).id().equals(last.key())) {
+                    candidates.add(0, candidates.remove(i));
+                    break;
+                }
+            }
+        }
+
+        for (Candidate candidate : candidates) {
+            try {
+                client.auth(user, candidate.method());
+                listener.attempt(PUBLICKEY, candidate.id(), true);
+                remember(host, user, PUBLICKEY, candidate.id());
+                return true;
+            } catch (UserAuthException e) {
+                listener.attempt(PUBLICKEY, candidate.id(), false);
+                // A key that failed to decrypt is loaded again next time, maybe with a passphrase
+                if (candidate.file() != null && e.getCause() != null) keyFiles.remove(candidate.file());
+            }
+        }
+        return false;
+    }
+
+    public void remember(SSHConfig host, String user, String method, String key) {
+        Remembered entry = new Remembered(method, key == null ? "" : key);
+        if (entry.equals(memory.put(label(host, user), entry))) return;
+        save();
+    }
+
+    private List<Candidate> candidates(SSHClient client, SSHConfig host, String passphrase) {
+        List<Candidate> result = new ArrayList<>();
+        for (Path file : identityFiles(host)) {
+            KeyProvider provider = keyFile(client, file, passphrase);
+            if (provider != null) result.add(new Candidate(file.toString(), new AuthPublickey(provider), file));
+        }
+        if (!"yes".equalsIgnoreCase(host.get("identitiesonly"))) {
+            SshAgent agent = agent(host);
+            if (agent != null) {
+                try {
+                    for (SshAgent.Identity identity : agent.identities()) {
+                        result.add(new Candidate(identity.fingerprint(), agent.authMethod(identity), null));
+                    }
+                } catch (IOException e) {
+                    // agent gone; files only
+                }
+            }
+        }
+        return result;
+    }
+
+    private KeyProvider keyFile(SSHClient client, Path file, String passphrase) {
+        if (!Files.isRegularFile(file)) return null;
+        return keyFiles.computeIfAbsent(file, f -> {
+            try {
+                return client.loadKeys(f.toString(), passphrase.isEmpty()
+                    ? null : PasswordUtils.createOneOff(passphrase.toCharArray()));
+            } catch (IOException e) {
+                return null;
+            }
+        });
+    }
+
+    private static List<Path> identityFiles(SSHConfig host) {
+        List<String> files = host.getIdentityFiles().isEmpty() ? DEFAULT_KEYS : host.getIdentityFiles();
+        List<Path> result = new ArrayList<>(files.size());
+        for (String file : files) {
+            if (file.isBlank()) continue;
+            String path = ProxyCommandSocket.expand(file.trim(), host, host.getUser() == null ? "" : host.getUser());
+            result.add(Path.of(path.startsWith("~") ? System.getProperty("user.home") + path.substring(1) : path));
+        }
+        return result;
+    }
+
+    private static SshAgent agent(SSHConfig host) {
+        Path socket = SshAgent.socketFor(host.get("identityagent"));
+        return socket == null ? null : new SshAgent(socket);
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(memoryFile)) return;
+        try (BufferedReader reader = Files.newBufferedReader(memoryFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 2 || fields[0].isEmpty()) continue;
+                memory.put(fields[0], new Remembered(fields[1], fields.length > 2 ? fields[2] : ""));
+            }
+        } catch (IOException e) {
+            // memory is best-effort
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            Files.createDirectories(memoryFile.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(memoryFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Remembered> e : memory.entrySet()) {
+                    writer.write(e.getKey() + "\t" + e.getValue().method() + "\t" + e.getValue().key() + "\n");
+                }
+            }
+        } catch (IOException e) {
+            // memory is best-effort
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.schmizz.sshj.common.Buffer;
+import net.schmizz.sshj.common.KeyType;
+
+/**
+ * One known_hosts file, loaded once into hash indexes.
+ *
+ * Plain host names map straight to their keys. Hashed entries
+ * ({@code |1|salt|hash}) are bucketed by salt and a lookup computes one HMAC per
+ * distinct salt. ssh-keygen gives every hashed line a fresh salt, so the first
+ * lookup of a host still costs one HMAC per hashed line; only lines that share a
+ * salt are saved any work. Wildcard patterns are matched with precompiled globs.
+ * The combined result for a host is memoized, which is what makes later lookups
+ * for the same host a single map access. Keys are compared as their wire-format
+ * blobs, so lines are never parsed into key objects.
+ *
+ * The file is reloaded when its mtime or size changes. New keys are visible at
+ * once and appended to the file on a background thread.
+ */
+public class KnownHostsIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(KnownHostsIndex.class);
+
+    private static final Base64.Decoder B64_DECODER = Base64.getDecoder();
+    private static final Base64.Encoder B64 = Base64.getEncoder();
+
+    public enum Marker { NONE, REVOKED, CERT_AUTHORITY }
+
+    /** One key line for a host; {@code blob} is the base64 public key. */
+    public record HostKey(String keyType, String blob, Marker marker) {}
+
+    private record Stamp(long mtime, long size) {}
+
+    /**
+     * Hashed entries sharing a salt. The HMAC key pads are already run through
+     * SHA-1, so hashing a name costs two digest clones and no key setup.
+     */
+    private record Bucket(MessageDigest inner, MessageDigest outer, Map<ByteBuffer, List<HostKey>> byHash) {
+
+        static Bucket of(byte[] salt) {
+            try {
+                // HMAC-SHA1: H((K ^ opad) || H((K ^ ipad) || m)), K padded to the 64 byte block
+                byte[] k = salt.length > 64 ? MessageDigest.getInstance("SHA-1").digest(salt) : salt;
+                byte[] ipad = new byte[64];
+                byte[] opad = new byte[64];
+                for (int i = 0; i < 64; i++) {
+                    byte b = i < k.length ? k[i] : 0;
+                    ipad[i] = (byte) (b ^ 0x36);
+                    opad[i] = (byte) (b ^ 0x5c);
+                }
+                MessageDigest inner = MessageDigest.getInstance("SHA-1");
+                inner.update(ipad);
+                MessageDigest outer = MessageDigest.getInstance("SHA-1");
+                outer.update(opad);
+                return new Bucket(inner, outer, new HashMap<>());
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] hmac(byte[] input) {
+            try {
+                MessageDigest in = (MessageDigest) inner.clone();
+                MessageDigest out = (MessageDigest) outer.clone();
+                out.update(in.digest(input));
+                return out.digest();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private record WildcardEntry(HostGlob[] include, HostGlob[] exclude, HostKey key) {}
+
+    /** Immutable indexes of one version of the file, plus the per-host memo. */
+    private static final class Snapshot {
+        final Stamp stamp;
+        final Map<String, List<HostKey>> plain = new HashMap<>();
+        final Map<String, Bucket> hashed = new HashMap<>();
+        final List<WildcardEntry> wildcards = new ArrayList<>();
+        final Map<String, List<HostKey>> memo = new ConcurrentHashMap<>();
+        int lines;
+
+        Snapshot(Stamp stamp) {
+            this.stamp = stamp;
+        }
+    }
+
+    private final Path file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "known-hosts-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    /** Keys added in this process; kept across reloads in case the append is still pending. */
+    private final Map<String, List<HostKey>> added = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot;
+
+    public KnownHostsIndex(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() { return file; }
+
+    /** Loads the file in the background, e.g. while the user is still picking a host. */
+    public void preload() {
+        writer.execute(this::current);
+    }
+
+    /** Number of host key lines in the currently loaded version of the file. */
+    public int size() {
+        return current().lines;
+    }
+
+    /**
+     * The known_hosts name of a host: {@code host} on port 22, else {@code [host]:port}.
+     */
+    public static String hostKey(String host, int port) {
+        String lower = host.toLowerCase();
+        return port == 22 ? lower : "[" + lower + "]:" + port;
+    }
+
+    /**
+     * All keys recorded for a host, including revoked and CA entries.
+     */
+    public List<HostKey> lookup(String host, int port) {
+        String name = hostKey(host, port);
+        Snapshot s = current();
+        List<HostKey> keys = s.memo.computeIfAbsent(name, n -> collect(s, n));
+        List<HostKey> mine = added.get(name);
+        if (mine == null) return keys;
+        List<HostKey> all = new ArrayList<>(keys);
+        // Once the append has landed, a reload already has the key from the file
+        for (HostKey k : mine) {
+            if (!keys.contains(k)) all.add(k);
+        }
+        return all;
+    }
+
+    /**
+     * Records a newly accepted key. It is visible to lookups at once; the line is
+     * appended to the file in the background.
+     */
+    public Future<?> add(String host, int port, PublicKey key, boolean hashed) {
+        String name = hostKey(host, port);
+        String type = KeyType.fromKey(key).toString();
+        String blob = blob(key);
+        added.computeIfAbsent(name, n -> new CopyOnWriteArrayList<>()).add(new HostKey(type, blob, Marker.NONE));
+
+        String hostField = hashed ? hashName(name) : name;
+        String line = hostField + " " + type + " " + blob + "\n";
+        return writer.submit(() -> {
+            try {
+                Stamp before = stamp();
+                Files.createDirectories(file.getParent());
+                boolean newline = Files.exists(file) && Files.size(file) > 0 && !endsWithNewline();
+                Files.writeString(file, (newline ? "\n" : "") + line, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                // Our own append is already indexed; skip the reload it would otherwise trigger
+                Snapshot s = snapshot;
+                if (s != null && s.stamp.equals(before)) {
+                    Snapshot moved = new Snapshot(stamp());
+                    moved.plain.putAll(s.plain);
+                    moved.hashed.putAll(s.hashed);
+                    moved.wildcards.addAll(s.wildcards);
+                    moved.memo.putAll(s.memo);
+                    moved.lines = s.lines;
+                    snapshot = moved;
+                }
+            } catch (IOException e) {
+                log.warn("Could not add host key for {} to {}: {}", name, file, e.getMessage());
+            }
+        });
+    }
+
+    /** Base64 of the key's SSH wire encoding, as written in known_hosts. */
+    public static String blob(PublicKey key) {
+        return B64.encodeToString(new Buffer.PlainBuffer().putPublicKey(key).getCompactData());
+    }
+
+    /** OpenSSH-style {@code SHA256:} fingerprint. */
+    public static String fingerprint(PublicKey key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(new Buffer.PlainBuffer().putPublicKey(key).getCompactData());
+            return "SHA256:" + Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        Stamp now = stamp();
+        if (s != null && s.stamp.equals(now)) return s;
+        synchronized (this) {
+            s = snapshot;
+            if (s != null && s.stamp.equals(now)) return s;
+            s = load(now);
+            snapshot = s;
+            return s;
+        }
+    }
+
+    private Stamp stamp() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Stamp(attrs.lastModifiedTime().toMillis(), attrs.size());
+        } catch (IOException e) {
+            return new Stamp(-1, -1);
+        }
+    }
+
+    private Snapshot load(Stamp stamp) {
+        Snapshot s = new Snapshot(stamp);
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parse(s, line);
+            }
+        } catch (NoSuchFileException e) {
+            // no known hosts yet
+        } catch (IOException e) {
+            log.warn("Could not read {}: {}", file, e.getMessage());
+        }
+        log.debug("Indexed {} host keys from {} in {} ms ({} salts, {} wildcard lines)", s.lines, file,
+            (System.nanoTime() - start) / 1_000_000, s.hashed.size(), s.wildcards.size());
+        return s;
+    }
+
+    private static void parse(Snapshot s, String line) {
+        String trimmed = line.strip();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) return;
+        String[] fields = trimmed.split("\\s+");
+        int i = 0;
+        Marker marker = Marker.NONE;
+        if (fields[0].startsWith("@")) {
+            if (fields[0].equals("@revoked")) marker = Marker.REVOKED;
+            else if (fields[0].equals("@cert-authority")) marker = Marker.CERT_AUTHORITY;
+            else return;
+            i = 1;
+        }
+        if (fields.length < i + 3) return;
+        HostKey key = new HostKey(fields[i + 1], fields[i + 2], marker);
+        s.lines++;
+
+        String hosts = fields[i];
+        if (hosts.startsWith("|1|")) {
+            // |1|base64(salt)|base64(hmac-sha1(salt, name))
+            int sep = hosts.indexOf('|', 3);
+            if (sep < 0) return;
+            String salt = hosts.substring(3, sep);
+            String hash = hosts.substring(sep + 1);
+            try {
+                Bucket bucket = s.hashed.computeIfAbsent(salt, k -> Bucket.of(B64_DECODER.decode(k)));
+                bucket.byHash().computeIfAbsent(ByteBuffer.wrap(B64_DECODER.decode(hash)), k -> new ArrayList<>(1)).add(key);
+            } catch (IllegalArgumentException e) {
+                // malformed salt
+            }
+            return;
+        }
+
+        String[] patterns = hosts.split(",");
+        boolean wildcard = false;
+        for (String p : patterns) {
+            if (p.startsWith("!") || HostGlob.isWildcard(p)) wildcard = true;
+        }
+        if (!wildcard) {
+            for (String p : patterns) {
+                s.plain.computeIfAbsent(p.toLowerCase(), k -> new ArrayList<>(1)).add(key);
+            }
+            return;
+        }
+        List<HostGlob> include = new ArrayList<>();
+        List<HostGlob> exclude = new ArrayList<>();
+        for (String p : patterns) {
+            if (p.startsWith("!")) exclude.add(HostGlob.compile(p.substring(1)));
+            else include.add(HostGlob.compile(p));
+        }
+        s.wildcards.add(new WildcardEntry(include.toArray(new HostGlob[0]), exclude.toArray(new HostGlob[0]), key));
+    }
+
+    private static List<HostKey> collect(Snapshot s, String name) {
+        List<HostKey> keys = new ArrayList<>(s.plain.getOrDefault(name, List.of()));
+        if (!s.hashed.isEmpty()) {
+            byte[] input = name.getBytes(StandardCharsets.UTF_8);
+            for (Bucket bucket : s.hashed.values()) {
+                List<HostKey> hit = bucket.byHash().get(ByteBuffer.wrap(bucket.hmac(input)));
+                if (hit != null) keys.addAll(hit);
+            }
+        }
+        for (WildcardEntry w : s.wildcards) {
+            if (anyMatch(w.include(), name) && !anyMatch(w.exclude(), name)) keys.add(w.key());
+        }
+        return List.copyOf(keys);
+    }
+
+    private static boolean anyMatch(HostGlob[] globs, String name) {
+        for (HostGlob g : globs) {
+            if (g.matchesLower(name)) return true;
+        }
+        return false;
+    }
+
+    private static String hashName(String name) {
+        byte[] salt = new byte[20];
+        new SecureRandom().nextBytes(salt);
+        byte[] hash = Bucket.of(salt).hmac(name.getBytes(StandardCharsets.UTF_8));
+        return "|1|" + B64.encodeToString(salt) + "|" + B64.encodeToString(hash);
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (SeekableByteChannel ch = Files.newByteChannel(file, StandardOpenOption.READ)) {
+            if (ch.size() == 0) return true;
+            ch.position(ch.size() - 1);
+            ByteBuffer last = ByteBuffer.allocate(1);
+            ch.read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /** Waits briefly for pending appends, then stops the writer. */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
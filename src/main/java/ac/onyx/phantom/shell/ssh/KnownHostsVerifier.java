@@ -0,0 +1,138 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.schmizz.sshj.common.KeyType;
+import net.schmizz.sshj.transport.verification.HostKeyVerifier;
+
+/**
+ * Host key check for one connection against indexed known_hosts files.
+ *
+ * The first index is the user's file, which new keys are added to; any others
+ * (the global file) are only read. {@code StrictHostKeyChecking} decides what
+ * happens to unknown hosts: {@code yes} rejects them, {@code no}/{@code off}
+ * accepts anything, and everything else behaves as {@code accept-new}. There is
+ * no way to prompt mid-handshake, so {@code ask} is treated as {@code accept-new}.
+ * A known host that presents a different key is always rejected, except with
+ * {@code no}.
+ *
+ * A speculative connection the user may never commit to should not write to
+ * known_hosts: with {@link #holdNewKeys()} a newly accepted key is kept in memory
+ * until {@link #commitNewKey()}.
+ */
+public class KnownHostsVerifier implements HostKeyVerifier {
+
+    public enum Policy { STRICT, ACCEPT_NEW, OFF }
+
+    private final List<KnownHostsIndex> indexes;
+    private final String alias;
+    private final Policy policy;
+    private final boolean hashNew;
+    private volatile String problem;
+    private volatile boolean holdNew;
+    private volatile NewKey held;
+
+    private record NewKey(String name, int port, PublicKey key) {}
+
+    /**
+     * @param alias name to look keys up under instead of the connected host name
+     *              (ssh_config {@code HostKeyAlias}), or null
+     */
+    public KnownHostsVerifier(List<KnownHostsIndex> indexes, String alias, Policy policy, boolean hashNew) {
+        this.indexes = indexes;
+        this.alias = alias;
+        this.policy = policy;
+        this.hashNew = hashNew;
+    }
+
+    public static Policy policy(String strictHostKeyChecking) {
+        if (strictHostKeyChecking == null) return Policy.ACCEPT_NEW;
+        return switch (strictHostKeyChecking.trim().toLowerCase()) {
+            case "yes" -> Policy.STRICT;
+            case "no", "off" -> Policy.OFF;
+            default -> Policy.ACCEPT_NEW;
+        };
+    }
+
+    /** Keeps a newly accepted key in memory until {@link #commitNewKey()} instead of adding it. */
+    public KnownHostsVerifier holdNewKeys() {
+        holdNew = true;
+        return this;
+    }
+
+    /** Adds the key held back by {@link #holdNewKeys()}, if any, to the user's file. */
+    public void commitNewKey() {
+        NewKey key = held;
+        held = null;
+        if (key == null) return;
+        String blob = KnownHostsIndex.blob(key.key());
+        // Another connection may have added it in the meantime
+        for (KnownHostsIndex.HostKey k : indexes.get(0).lookup(key.name(), key.port())) {
+            if (k.marker() == KnownHostsIndex.Marker.NONE && k.blob().equals(blob)) return;
+        }
+        indexes.get(0).add(key.name(), key.port(), key.key(), hashNew);
+    }
+
+    /** Why the last verification failed, or null. */
+    public String getProblem() {
+        return problem;
+    }
+
+    @Override
+    public boolean verify(String hostname, int port, PublicKey key) {
+        String name = alias != null ? alias : hostname;
+        String type = KeyType.fromKey(key).toString();
+        String blob = KnownHostsIndex.blob(key);
+
+        boolean known = false;
+        boolean matched = false;
+        for (KnownHostsIndex index : indexes) {
+            for (KnownHostsIndex.HostKey k : index.lookup(name, port)) {
+                if (k.marker() == KnownHostsIndex.Marker.REVOKED) {
+                    if (k.blob().equals(blob)) {
+                        problem = "Host key " + KnownHostsIndex.fingerprint(key) + " for " + name + " is revoked";
+                        return false;
+                    }
+                } else if (k.marker() == KnownHostsIndex.Marker.NONE) {
+                    known = true;
+                    if (k.blob().equals(blob)) matched = true;
+                }
+            }
+        }
+        if (matched) return true;
+
+        if (known) {
+            if (policy == Policy.OFF) return true;
+            problem = "HOST KEY FOR " + name + " HAS CHANGED: " + type + " " + KnownHostsIndex.fingerprint(key)
+                + " is not in " + indexes.get(0).getFile() + "; remove the old entry if the change is expected";
+            return false;
+        }
+        if (policy == Policy.STRICT) {
+            problem = "No host key known for " + name + " (" + type + " " + KnownHostsIndex.fingerprint(key)
+                + ") and StrictHostKeyChecking is yes";
+            return false;
+        }
+        if (holdNew) {
+            held = new NewKey(name, port, key);
+        } else {
+            indexes.get(0).add(name, port, key, hashNew);
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> findExistingAlgorithms(String hostname, int port) {
+        String name = alias != null ? alias : hostname;
+        List<String> types = new ArrayList<>();
+        for (KnownHostsIndex index : indexes) {
+            for (KnownHostsIndex.HostKey k : index.lookup(name, port)) {
+                if (k.marker() == KnownHostsIndex.Marker.NONE && !types.contains(k.keyType())) {
+                    types.add(k.keyType());
+                }
+            }
+        }
+        return types;
+    }
+}
@@ -0,0 +1,100 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Copies a remote stream to a local sink, coalescing flushes.
+ *
+ * Every blocking read is followed by a drain of whatever the source already has
+ * buffered, so a burst of channel packets ends up in a single write. The sink is
+ * flushed as soon as the source has nothing more buffered, so interactive echo
+ * is not held back, and otherwise once the flush deadline has elapsed since the
+ * last flush while data keeps streaming in.
+ */
+public class OutputPump implements Runnable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_FLUSH_DEADLINE_MS = 4;
+
+    private final InputStream source;
+    private final OutputStream sink;
+    private final BooleanSupplier open;
+    private final byte[] buffer;
+    private final long flushDeadlineNanos;
+
+    private volatile long bytes;
+    private volatile long reads;
+    private volatile long flushes;
+
+    public OutputPump(InputStream source, OutputStream sink, BooleanSupplier open) {
+        this(source, sink, open, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_DEADLINE_MS);
+    }
+
+    public OutputPump(InputStream source, OutputStream sink, BooleanSupplier open,
+                      int bufferSize, long flushDeadlineMs) {
+        this.source = source;
+        this.sink = sink;
+        this.open = open;
+        this.buffer = new byte[bufferSize];
+        this.flushDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(flushDeadlineMs);
+    }
+
+    @Override
+    public void run() {
+        try {
+            pump();
+        } catch (IOException e) {
+            // This often happens when the shell closes, which is normal
+        }
+    }
+
+    /**
+     * Runs the copy loop until the source reaches EOF or the channel closes.
+     */
+    public void pump() throws IOException {
+        long lastFlush = System.nanoTime();
+        boolean dirty = false;
+        try {
+            while (open.getAsBoolean()) {
+                int n = source.read(buffer, 0, buffer.length);
+                if (n == -1) break;
+                reads++;
+
+                // Drain what is already buffered before touching the sink
+                int filled = n;
+                int avail;
+                while (filled < buffer.length && (avail = source.available()) > 0) {
+                    int r = source.read(buffer, filled, Math.min(avail, buffer.length - filled));
+                    if (r <= 0) break;
+                    reads++;
+                    filled += r;
+                }
+                sink.write(buffer, 0, filled);
+                bytes += filled;
+                dirty = true;
+
+                if (source.available() == 0 || System.nanoTime() - lastFlush >= flushDeadlineNanos) {
+                    sink.flush();
+                    flushes++;
+                    lastFlush = System.nanoTime();
+                    dirty = false;
+                }
+            }
+        } finally {
+            if (dirty) {
+                sink.flush();
+                flushes++;
+            }
+        }
+    }
+
+    public long getBytes() { return bytes; }
+
+    public long getReads() { return reads; }
+
+    public long getFlushes() { return flushes; }
+}
@@ -0,0 +1,425 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.Message;
+import net.schmizz.sshj.common.SSHException;
+import net.schmizz.sshj.common.SSHPacket;
+import net.schmizz.sshj.connection.Connection;
+import net.schmizz.sshj.connection.ConnectionException;
+import net.schmizz.sshj.connection.channel.direct.DirectConnection;
+import net.schmizz.sshj.transport.TransportException;
+
+/**
+ * Local ({@code -L}) port forwarding over {@code direct-tcpip} channels.
+ *
+ * One selector thread relays every connection of the forward. Local sockets are
+ * non-blocking; the channel side never blocks either: reads from a socket are
+ * capped at the channel's remote window, and channel data is only read once it
+ * is already buffered. The sshj transport thread reports new data, window
+ * adjustments and EOF/close on a channel by queueing it and waking the selector,
+ * so an idle connection costs a selection key and two small buffers rather than
+ * two copier threads. Only opening and closing channels, which wait for the
+ * server, run on a small pool.
+ */
+public class PortForwarder implements Closeable {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int CHANNEL_THREADS = 4;
+
+    /**
+     * A parsed {@code [bind_address:]port:host:hostport} forward specification.
+     */
+    public record Spec(String bindHost, int bindPort, String host, int port) {
+
+        public static Spec parse(String spec) {
+            List<String> parts = fields(spec.trim());
+            if (parts.size() < 3) {
+                throw new IllegalArgumentException("Expected [bind_address:]port:host:hostport, got " + spec);
+            }
+            int n = parts.size();
+            String bind = n > 3 ? String.join(":", parts.subList(0, n - 3)) : "127.0.0.1";
+            if (bind.isEmpty() || bind.equals("*")) bind = "0.0.0.0";
+            return new Spec(unbracket(bind), port(parts.get(n - 3), spec), unbracket(parts.get(n - 2)),
+                port(parts.get(n - 1), spec));
+        }
+
+        /** Splits on ':' outside of [brackets], which hold IPv6 addresses. */
+        private static List<String> fields(String spec) {
+            List<String> parts = new ArrayList<>(4);
+            boolean bracketed = false;
+            int start = 0;
+            for (int i = 0; i < spec.length(); i++) {
+                char c = spec.charAt(i);
+                if (c == '[') {
+                    bracketed = true;
+                } else if (c == ']') {
+                    bracketed = false;
+                } else if (c == ':' && !bracketed) {
+                    parts.add(spec.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            parts.add(spec.substring(start));
+            return parts;
+        }
+
+        private static String unbracket(String host) {
+            return host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+        }
+
+        private static int port(String value, String spec) {
+            try {
+                int port = Integer.parseInt(value);
+                if (port >= 0 && port <= 65535) return port;
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException("Bad port '" + value + "' in " + spec);
+        }
+
+        @Override
+        public String toString() {
+            return bindHost + ":" + bindPort + " -> " + host + ":" + port;
+        }
+    }
+
+    private final SSHClient client;
+    private final Spec spec;
+    private final Instant started = Instant.now();
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread relayThread;
+    private final ExecutorService channelOps;
+    private final Queue<Tunnel> opened = new ConcurrentLinkedQueue<>();
+    private final Queue<Tunnel> signalled = new ConcurrentLinkedQueue<>();
+    private final Set<Tunnel> tunnels = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingOpens = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private volatile String lastError;
+
+    public PortForwarder(SSHClient client, Spec spec) throws IOException {
+        this.client = client;
+        this.spec = spec;
+        this.selector = Selector.open();
+        try {
+            this.server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(spec.bindHost(), spec.bindPort()));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+        ThreadPoolExecutor ops = new ThreadPoolExecutor(CHANNEL_THREADS, CHANNEL_THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "forward-open");
+                t.setDaemon(true);
+                return t;
+            });
+        ops.allowCoreThreadTimeOut(true);
+        this.channelOps = ops;
+        this.relayThread = new Thread(this::relayLoop, "forward-" + getLocalPort());
+        relayThread.setDaemon(true);
+        relayThread.start();
+    }
+
+    public Spec getSpec() { return spec; }
+
+    public Instant getStarted() { return started; }
+
+    /** The bound local port, which differs from the spec when it asked for port 0. */
+    public int getLocalPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getActive() { return tunnels.size(); }
+
+    public int getOpening() { return pendingOpens.get(); }
+
+    public long getAccepted() { return accepted.sum(); }
+
+    public long getFailed() { return failed.sum(); }
+
+    /** Bytes sent from local clients to the remote end. */
+    public long getBytesOut() { return bytesOut.sum(); }
+
+    /** Bytes sent from the remote end back to local clients. */
+    public long getBytesIn() { return bytesIn.sum(); }
+
+    public String getLastError() { return lastError; }
+
+    public boolean isRunning() {
+        return relayThread.isAlive() && client.isConnected();
+    }
+
+    /**
+     * A direct-tcpip channel that tells the relay when there is something to do,
+     * instead of having a thread block on its streams.
+     */
+    private final class RelayChannel extends DirectConnection {
+        private volatile Tunnel tunnel;
+
+        RelayChannel(Connection conn, String host, int port) {
+            super(conn, host, port);
+        }
+
+        @Override
+        public void handle(Message msg, SSHPacket buf) throws ConnectionException, TransportException {
+            super.handle(msg, buf);
+            switch (msg) {
+                case CHANNEL_DATA, CHANNEL_WINDOW_ADJUST, CHANNEL_EOF, CHANNEL_CLOSE -> signal(tunnel);
+                default -> { }
+            }
+        }
+
+        @Override
+        public void notifyError(SSHException error) {
+            super.notifyError(error);
+            signal(tunnel);
+        }
+    }
+
+    /** One local client connection and its channel. */
+    private final class Tunnel {
+        final SocketChannel socket;
+        final RelayChannel channel;
+        final InputStream channelIn;
+        final OutputStream channelOut;
+        final ByteBuffer up = ByteBuffer.allocate(BUFFER_SIZE);
+        final ByteBuffer down = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        SelectionKey key;
+        boolean socketEof;
+        boolean channelEof;
+        boolean closed;
+
+        Tunnel(SocketChannel socket, RelayChannel channel) {
+            this.socket = socket;
+            this.channel = channel;
+            this.channelIn = channel.getInputStream();
+            this.channelOut = channel.getOutputStream();
+        }
+    }
+
+    private void signal(Tunnel tunnel) {
+        if (tunnel == null) return;
+        signalled.add(tunnel);
+        selector.wakeup();
+    }
+
+    private void relayLoop() {
+        try {
+            while (server.isOpen()) {
+                selector.select();
+
+                Tunnel t;
+                while ((t = opened.poll()) != null) register(t);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Tunnel tunnel = (Tunnel) key.attachment();
+                        if (key.isWritable()) toSocket(tunnel);
+                        if (key.isValid() && key.isReadable()) toChannel(tunnel);
+                    }
+                }
+
+                while ((t = signalled.poll()) != null) {
+                    if (t.closed || t.key == null) continue;
+                    toSocket(t);
+                    toChannel(t);
+                }
+            }
+        } catch (IOException e) {
+            lastError = e.getMessage();
+        } finally {
+            for (Tunnel t : tunnels) close(t);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socket;
+        while ((socket = server.accept()) != null) {
+            accepted.increment();
+            SocketChannel s = socket;
+            pendingOpens.incrementAndGet();
+            // Opening waits for the server's confirmation, so keep it off the selector
+            channelOps.execute(() -> {
+                try {
+                    RelayChannel channel = new RelayChannel(client.getConnection(), spec.host(), spec.port());
+                    channel.open();
+                    Tunnel tunnel = new Tunnel(s, channel);
+                    channel.tunnel = tunnel;
+                    opened.add(tunnel);
+                    selector.wakeup();
+                } catch (IOException e) {
+                    failed.increment();
+                    lastError = e.getMessage();
+                    closeQuietly(s);
+                } finally {
+                    pendingOpens.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void register(Tunnel t) {
+        try {
+            t.socket.configureBlocking(false);
+            t.socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            t.key = t.socket.register(selector, SelectionKey.OP_READ, t);
+            tunnels.add(t);
+            // Data may have arrived before the key existed
+            toSocket(t);
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            close(t);
+        }
+    }
+
+    /** Local client to remote: read no more than the remote window allows, so writes never block. */
+    private void toChannel(Tunnel t) {
+        if (t.closed || t.socketEof) return;
+        try {
+            while (true) {
+                long window = t.channel.getRemoteWinSize();
+                if (window <= 0) {
+                    // Resumed by the CHANNEL_WINDOW_ADJUST signal
+                    interest(t, SelectionKey.OP_READ, false);
+                    return;
+                }
+                t.up.clear().limit((int) Math.min(t.up.capacity(), window));
+                int n = t.socket.read(t.up);
+                if (n == 0) break;
+                if (n < 0) {
+                    t.socketEof = true;
+                    interest(t, SelectionKey.OP_READ, false);
+                    t.channelOut.close(); // sends EOF
+                    finishIfDone(t);
+                    return;
+                }
+                t.channelOut.write(t.up.array(), 0, n);
+                t.channelOut.flush();
+                bytesOut.add(n);
+            }
+            interest(t, SelectionKey.OP_READ, true);
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            close(t);
+        }
+    }
+
+    /** Remote to local client: only drains what the channel has already buffered. */
+    private void toSocket(Tunnel t) {
+        if (t.closed) return;
+        try {
+            while (true) {
+                if (t.down.hasRemaining()) {
+                    t.socket.write(t.down);
+                    if (t.down.hasRemaining()) {
+                        interest(t, SelectionKey.OP_WRITE, true);
+                        return;
+                    }
+                }
+                int available = t.channelIn.available();
+                if (available <= 0) break;
+                // Reading from the channel stream also sends window adjustments
+                int n = t.channelIn.read(t.down.array(), 0, Math.min(available, t.down.capacity()));
+                if (n <= 0) break;
+                t.down.position(0).limit(n);
+                bytesIn.add(n);
+            }
+            interest(t, SelectionKey.OP_WRITE, false);
+
+            if (!t.channelEof && (t.channel.isEOF() || !t.channel.isOpen())) {
+                t.channelEof = true;
+                t.socket.shutdownOutput();
+                if (!t.channel.isOpen()) t.socketEof = true;
+            }
+            finishIfDone(t);
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            close(t);
+        }
+    }
+
+    private void interest(Tunnel t, int op, boolean on) {
+        if (t.key == null || !t.key.isValid()) return;
+        int ops = t.key.interestOps();
+        t.key.interestOps(on ? ops | op : ops & ~op);
+    }
+
+    private void finishIfDone(Tunnel t) {
+        if (t.socketEof && t.channelEof && !t.down.hasRemaining()) close(t);
+    }
+
+    private void close(Tunnel t) {
+        if (t.closed) return;
+        t.closed = true;
+        tunnels.remove(t);
+        if (t.key != null) t.key.cancel();
+        closeQuietly(t.socket);
+        // Channel close waits for the server's reply
+        channelOps.execute(() -> {
+            try {
+                t.channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(server);
+        selector.wakeup();
+        try {
+            relayThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeQuietly(selector);
+        channelOps.shutdown();
+    }
+}
@@ -0,0 +1,197 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Speculative connections: DNS, TCP connect and key exchange for a host the user
+ * is likely to pick, run in the background while prompts are still up.
+ *
+ * {@link #take} hands the transport over for authentication and only then runs
+ * the attempt's {@code onTake} action, e.g. to record a host key accepted during
+ * the handshake. An attempt nobody takes is disconnected when it is cancelled,
+ * when newer attempts push it out (at most {@value #MAX_ATTEMPTS} are kept), or
+ * when it reaches {@link #MAX_AGE}, well inside the grace time sshd gives a
+ * connection to log in.
+ */
+public class PreConnector implements Closeable {
+
+    public static final int MAX_ATTEMPTS = 2;
+    public static final Duration MAX_AGE = Duration.ofSeconds(60);
+
+    /** Connects {@code client} up to (not including) authentication. */
+    public interface Handshake {
+        void run(TimedSSHClient client) throws IOException;
+    }
+
+    private static final class Attempt {
+        final TimedSSHClient client;
+        final Runnable onTake;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final long started = System.nanoTime();
+        volatile boolean cancelled;
+
+        Attempt(TimedSSHClient client, Runnable onTake) {
+            this.client = client;
+            this.onTake = onTake;
+        }
+
+        boolean expired() {
+            return System.nanoTime() - started > MAX_AGE.toNanos();
+        }
+
+        void cancel() {
+            cancelled = true;
+            // Closing the socket also aborts a connect or key exchange in progress
+            disconnect(client);
+        }
+    }
+
+    private final Map<SSHConnectionPool.Key, Attempt> attempts = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ssh-preconnect");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean closed;
+
+    /**
+     * Starts connecting to {@code key} unless an attempt for it is already
+     * running. {@code factory} creates the client; {@code handshake} connects it;
+     * {@code onTake} (may be null) runs when {@link #take} hands it over.
+     */
+    public void start(SSHConnectionPool.Key key, Supplier<TimedSSHClient> factory, Handshake handshake,
+                      Runnable onTake) {
+        List<Attempt> dropped = new ArrayList<>();
+        Attempt attempt;
+        synchronized (this) {
+            if (closed) return;
+            Iterator<Attempt> it = attempts.values().iterator();
+            while (it.hasNext()) {
+                Attempt a = it.next();
+                if (a.expired()) {
+                    dropped.add(a);
+                    it.remove();
+                }
+            }
+            if (attempts.containsKey(key)) {
+                dropped.forEach(Attempt::cancel);
+                return;
+            }
+            // Oldest first: the user has moved on from those hosts
+            it = attempts.values().iterator();
+            while (attempts.size() >= MAX_ATTEMPTS && it.hasNext()) {
+                dropped.add(it.next());
+                it.remove();
+            }
+            attempt = new Attempt(factory.get(), onTake);
+            attempts.put(key, attempt);
+        }
+        dropped.forEach(Attempt::cancel);
+
+        executor.execute(() -> {
+            try {
+                if (!attempt.cancelled) handshake.run(attempt.client);
+                attempt.done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                attempt.done.completeExceptionally(e);
+            }
+            if (attempt.cancelled) disconnect(attempt.client);
+        });
+        CompletableFuture.delayedExecutor(MAX_AGE.toMillis(), TimeUnit.MILLISECONDS, executor)
+            .execute(() -> expire(key, attempt));
+    }
+
+    /**
+     * The connected transport for {@code key}, waiting for its handshake to
+     * finish. Null when nothing was started for it or the attempt went stale, in
+     * which case the caller connects as usual. A failed handshake is rethrown.
+     */
+    public TimedSSHClient take(SSHConnectionPool.Key key) throws IOException {
+        Attempt attempt;
+        synchronized (this) {
+            attempt = attempts.remove(key);
+        }
+        if (attempt == null) return null;
+        try {
+            attempt.done.get();
+        } catch (InterruptedException e) {
+            attempt.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        } catch (ExecutionException e) {
+            disconnect(attempt.client);
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        }
+        if (attempt.cancelled || attempt.expired() || !attempt.client.isConnected()) {
+            attempt.cancel();
+            return null;
+        }
+        if (attempt.onTake != null) attempt.onTake.run();
+        return attempt.client;
+    }
+
+    /** Abandons the attempt for {@code key}, if any. */
+    public void cancel(SSHConnectionPool.Key key) {
+        Attempt attempt;
+        synchronized (this) {
+            attempt = attempts.remove(key);
+        }
+        if (attempt != null) attempt.cancel();
+    }
+
+    /** Abandons every attempt except the one for {@code keep} (may be null). */
+    public void cancelExcept(SSHConnectionPool.Key keep) {
+        List<Attempt> dropped = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<SSHConnectionPool.Key, Attempt>> it = attempts.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<SSHConnectionPool.Key, Attempt> e = it.next();
+                if (!e.getKey().equals(keep)) {
+                    dropped.add(e.getValue());
+                    it.remove();
+                }
+            }
+        }
+        dropped.forEach(Attempt::cancel);
+    }
+
+    /** Disconnects {@code attempt} if it is still waiting to be taken. */
+    private void expire(SSHConnectionPool.Key key, Attempt attempt) {
+        synchronized (this) {
+            if (!attempts.remove(key, attempt)) return;
+        }
+        attempt.cancel();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        cancelExcept(null);
+        executor.shutdownNow();
+    }
+
+    private static void disconnect(TimedSSHClient client) {
+        try {
+            client.close();
+        } catch (IOException | RuntimeException e) {
+            // not connected yet, or already gone
+        }
+    }
+}
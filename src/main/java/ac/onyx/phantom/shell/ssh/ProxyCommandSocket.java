@@ -0,0 +1,158 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+import javax.net.SocketFactory;
+
+/**
+ * A "socket" whose streams are the stdin/stdout of an ssh_config ProxyCommand.
+ *
+ * sshj connects through a {@link SocketFactory}, so handing it a factory for
+ * these lets the transport run over the command unchanged. The command starts
+ * when the client connects and is destroyed when the client disconnects.
+ */
+public class ProxyCommandSocket extends Socket {
+
+    private final String command;
+    private Process process;
+    private volatile boolean closed;
+
+    public ProxyCommandSocket(String command) {
+        this.command = command;
+    }
+
+    /**
+     * Factory for an SSH client's {@code setSocketFactory}, running the ProxyCommand
+     * with its {@code %h %p %r %n %%} tokens expanded for the host. The connecting
+     * overloads start the command right away; the address they are given is not
+     * used, since the command already names the target, and nor is a local one.
+     */
+    public static SocketFactory factory(String proxyCommand, SSHConfig host, String user) {
+        String command = expand(proxyCommand, host, user);
+        return new SocketFactory() {
+            @Override
+            public Socket createSocket() {
+                return new ProxyCommandSocket(command);
+            }
+
+            @Override
+            public Socket createSocket(String h, int p) throws IOException {
+                return connected(InetSocketAddress.createUnresolved(h, p));
+            }
+
+            @Override
+            public Socket createSocket(String h, int p, InetAddress la, int lp) throws IOException {
+                return connected(InetSocketAddress.createUnresolved(h, p));
+            }
+
+            @Override
+            public Socket createSocket(InetAddress a, int p) throws IOException {
+                return connected(new InetSocketAddress(a, p));
+            }
+
+            @Override
+            public Socket createSocket(InetAddress a, int p, InetAddress la, int lp) throws IOException {
+                return connected(new InetSocketAddress(a, p));
+            }
+
+            private Socket connected(SocketAddress endpoint) throws IOException {
+                Socket socket = createSocket();
+                socket.connect(endpoint);
+                return socket;
+            }
+        };
+    }
+
+    static String expand(String command, SSHConfig host, String user) {
+        StringBuilder sb = new StringBuilder(command.length() + 32);
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c != '%' || i + 1 == command.length()) {
+                sb.append(c);
+                continue;
+            }
+            char token = command.charAt(++i);
+            switch (token) {
+                case 'h' -> sb.append(host.getHostname());
+                case 'p' -> sb.append(host.getPort());
+                case 'r' -> sb.append(user);
+                case 'n' -> sb.append(host.getPatterns().isEmpty() ? host.getHostname() : host.getPatterns().get(0));
+                case '%' -> sb.append('%');
+                default -> sb.append('%').append(token);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint) throws IOException {
+        connect(endpoint, 0);
+    }
+
+    @Override
+    public synchronized void connect(SocketAddress endpoint, int timeout) throws IOException {
+        if (process != null) return;
+        boolean windows = System.getProperty("os.name").toLowerCase().contains("win");
+        ProcessBuilder pb = windows
+            ? new ProcessBuilder("cmd.exe", "/c", command)
+            : new ProcessBuilder("/bin/sh", "-c", "exec " + command);
+        // Like ssh, let the command's diagnostics through
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        process = pb.start();
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (process == null) throw new IOException("ProxyCommand not started");
+        return process.getInputStream();
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (process == null) throw new IOException("ProxyCommand not started");
+        return process.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return process != null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        // reads block on the pipe; the transport has its own timeouts
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+        // not a TCP socket
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+        // not a TCP socket
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (process != null) process.destroy();
+    }
+
+    @Override
+    public String toString() {
+        return "ProxyCommand[" + command + "]";
+    }
+}
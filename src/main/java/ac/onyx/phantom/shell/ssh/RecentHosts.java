@@ -0,0 +1,64 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers when each host alias was last connected to, across shell runs.
+ */
+public class RecentHosts {
+
+    private final Path file;
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+
+    public RecentHosts(Path file) {
+        this.file = file;
+        load();
+    }
+
+    public long lastUsed(String alias) {
+        return lastUsed.getOrDefault(alias, 0L);
+    }
+
+    public void touch(String alias) {
+        lastUsed.put(alias, System.currentTimeMillis());
+        save();
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(file)) return;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) continue;
+                try {
+                    lastUsed.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+                } catch (NumberFormatException e) {
+                    // skip malformed line
+                }
+            }
+        } catch (IOException e) {
+            // history is best-effort
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> e : lastUsed.entrySet()) {
+                    writer.write(e.getKey() + "\t" + e.getValue() + "\n");
+                }
+            }
+        } catch (IOException e) {
+            // history is best-effort
+        }
+    }
+}
@@ -1,15 +1,24 @@
 package ac.onyx.phantom.shell.ssh;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SSHConfig {
     private final List<String> patterns = new ArrayList<>();
+    // Every keyword seen for this entry (lowercase), first value wins as in ssh_config
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private String match; // criteria of a Match block, null for Host blocks
     private String hostname;
     private String user;
     private int port = 22; // default SSH port
     private String identityFile;
+    private final List<String> identityFiles = new ArrayList<>(1); // every IdentityFile, in order
     private String proxyCommand;
+    private String proxyJump;
+    private SSHConfigResolver origin; // resolver that produced this entry, for jump chains
 
     // Getters and setters
     public List<String> getPatterns() { return patterns; }
@@ -27,12 +36,109 @@ public class SSHConfig {
     public String getIdentityFile() { return identityFile; }
     public void setIdentityFile(String identityFile) { this.identityFile = identityFile; }
 
+    /** Every IdentityFile from all matching blocks, in order; ssh offers them all. */
+    public List<String> getIdentityFiles() { return Collections.unmodifiableList(identityFiles); }
+
     public String getProxyCommand() { return proxyCommand; }
     public void setProxyCommand(String proxyCommand) { this.proxyCommand = proxyCommand; }
 
+    public String getProxyJump() { return proxyJump; }
+    public void setProxyJump(String proxyJump) { this.proxyJump = proxyJump; }
+
+    /**
+     * Whether the host is reached through a ProxyJump chain or a ProxyCommand
+     * rather than a direct TCP connection.
+     */
+    public boolean isProxied() {
+        return isSet(proxyJump) || isSet(proxyCommand);
+    }
+
+    /** ProxyCommand to run, or null when unset or "none". */
+    public String getEffectiveProxyCommand() {
+        return isSet(proxyCommand) ? proxyCommand : null;
+    }
+
+    /**
+     * Jump hosts to pass through, outermost first; empty for a direct connection.
+     */
+    public List<SSHConfig> getJumpChain() {
+        if (!isSet(proxyJump)) return List.of();
+        return origin != null ? origin.jumpChain(this) : SSHConfigResolver.of(List.of()).jumpChain(this);
+    }
+
+    void setOrigin(SSHConfigResolver origin) { this.origin = origin; }
+
+    private static boolean isSet(String value) {
+        return value != null && !value.isBlank() && !value.equalsIgnoreCase("none");
+    }
+
+    public String getMatch() { return match; }
+    public void setMatch(String match) { this.match = match; }
+    public boolean isMatchBlock() { return match != null; }
+
+    public Map<String, String> getOptions() { return Collections.unmodifiableMap(options); }
+
+    /**
+     * Applies a keyword from the config. Only the first value for each keyword is
+     * used, the same way ssh resolves options across Host and Match blocks, except
+     * for IdentityFile, whose values accumulate.
+     */
+    public void set(String key, String value) {
+        String k = key.toLowerCase();
+        if (k.equals("identityfile") && !identityFiles.contains(value)) identityFiles.add(value);
+        if (options.containsKey(k)) return;
+        switch (k) {
+            case "hostname":
+                this.hostname = value;
+                break;
+            case "user":
+                this.user = value;
+                break;
+            case "port":
+                this.port = parsePort(value);
+                break;
+            case "identityfile":
+                this.identityFile = value;
+                break;
+            case "proxycommand":
+                this.proxyCommand = value;
+                break;
+            case "proxyjump":
+                this.proxyJump = value;
+                break;
+            default:
+                break;
+        }
+        options.put(k, value);
+    }
+
+    /**
+     * Parses a port number from the config, throwing IllegalArgumentException for
+     * anything outside 1-65535.
+     */
+    public static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value.trim());
+            if (port > 0 && port <= 65535) return port;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Bad port '" + value + "'");
+    }
+
+    /**
+     * Fills in every option not already set here from another entry, and appends
+     * its identity files.
+     */
+    public void mergeFrom(SSHConfig other) {
+        other.options.forEach(this::set);
+        for (String file : other.identityFiles) set("identityfile", file);
+    }
+
     /**
      * Generic getter by key name. Returns the value as a String or null if the key is unknown.
-     * Supported keys (case-insensitive): hostname, host, user, port, identityfile, proxycommand, patterns
+     * Supported keys (case-insensitive): hostname, host, user, port, identityfile, proxycommand, proxyjump, patterns,
+     * plus any other ssh_config keyword seen while parsing
      */
     public String get(String key) {
         if (key == null) return null;
@@ -53,10 +159,14 @@ public class SSHConfig {
             case "proxy-command":
             case "proxy_command":
                 return this.proxyCommand;
+            case "proxyjump":
+            case "proxy-jump":
+            case "proxy_jump":
+                return this.proxyJump;
             case "patterns":
                 return String.join(",", this.patterns);
             default:
-                return null;
+                return options.get(k);
         }
     }
 
@@ -0,0 +1,366 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps parsed ssh_config trees for the lifetime of the shell.
+ *
+ * Entries are dropped as soon as a WatchService reports a change to a file that
+ * was read or that an Include pattern would pick up. Parsed blocks are also
+ * written to a compact binary snapshot keyed by the mtime and size of every file
+ * (and of the directories they live in, so new files matched by an Include glob
+ * are noticed), which lets a cold start skip parsing when nothing changed.
+ *
+ * Directories are watched and stamped before the files in them are read, so an
+ * edit racing with a load either shows up in what was read or is reported.
+ */
+public class SSHConfigCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SSHConfigCache.class);
+
+    private static final int MAGIC = 0x50534333; // "PSC3"
+    private static final int MAX_LOADS = 3;
+
+    private record Stamp(Path path, long mtime, long size) {}
+
+    /** A reported change; {@code changed} is null when events were lost. */
+    private record Change(Path dir, Path changed) {}
+
+    private record Entry(List<SSHConfig> blocks, SSHConfigResolver resolver, Set<Path> files,
+                         List<Path> includes, Set<Path> dirs, boolean watched) {
+
+        /**
+         * Changes to unrelated files next to the config (known_hosts, keys) are
+         * ignored; files that were read count, and so does anything an Include
+         * pattern matches, since the next parse would pick it up.
+         */
+        boolean affectedBy(Change change) {
+            if (!dirs.contains(change.dir())) return false;
+            if (change.changed() == null || files.contains(change.changed())) return true;
+            for (Path include : includes) {
+                if (matches(include, change.changed())) return true;
+            }
+            return false;
+        }
+
+        private static boolean matches(Path include, Path changed) {
+            if (!changed.getParent().equals(include.getParent())) return false;
+            String name = include.getFileName().toString();
+            if (!HostGlob.isWildcard(name)) return changed.getFileName().toString().equals(name);
+            PathMatcher glob = changed.getFileSystem().getPathMatcher("glob:" + name);
+            return glob.matches(changed.getFileName());
+        }
+    }
+
+    /** What a load read, stamped before it was read. */
+    private record Loaded(List<SSHConfig> blocks, List<Path> files, List<Path> includes, List<Stamp> stamps) {}
+
+    private final Path snapshotDir;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> watched = new ConcurrentHashMap<>();
+    private volatile Queue<Change> loadChanges; // set while a load runs
+    private WatchService watcher;
+    private Thread watchThread;
+
+    public SSHConfigCache(Path snapshotDir) {
+        this.snapshotDir = snapshotDir;
+    }
+
+    public static Path defaultSnapshotDir() {
+        return Path.of(System.getProperty("user.home"), ".cache", "phantom-shell");
+    }
+
+    /**
+     * Returns the resolver for a config file, parsing it only when it changed.
+     */
+    public SSHConfigResolver resolver(File configFile) throws IOException {
+        return entry(configFile).resolver();
+    }
+
+    public List<SSHConfig> blocks(File configFile) throws IOException {
+        return entry(configFile).blocks();
+    }
+
+    public void invalidate() {
+        entries.clear();
+    }
+
+    private Entry entry(File configFile) throws IOException {
+        Path key = configFile.toPath().toAbsolutePath().normalize();
+        Entry entry = entries.get(key);
+        if (entry != null) return entry;
+
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null) return entry;
+
+            for (int attempt = 1; ; attempt++) {
+                Queue<Change> changes = new ConcurrentLinkedQueue<>();
+                loadChanges = changes;
+                try {
+                    entry = load(key);
+                } finally {
+                    loadChanges = null;
+                }
+                Entry loaded = entry;
+                boolean stale = changes.stream().anyMatch(loaded::affectedBy);
+                if (!stale && entry.watched()) {
+                    entries.put(key, entry);
+                    return entry;
+                }
+                // Unwatchable, or still being edited: use this parse once, without caching it
+                if (!stale || attempt == MAX_LOADS) return entry;
+            }
+        }
+    }
+
+    private Entry load(Path config) throws IOException {
+        Loaded loaded = readSnapshot(config);
+        if (loaded == null) {
+            loaded = parse(config);
+            writeSnapshot(config, loaded);
+        }
+        Set<Path> dirs = directories(config, loaded.files(), loaded.includes());
+        // Already registered by now; this only reports whether every directory is watched
+        boolean watching = watch(dirs);
+        return new Entry(loaded.blocks(), SSHConfigResolver.of(loaded.blocks()), new LinkedHashSet<>(loaded.files()),
+            List.copyOf(loaded.includes()), dirs, watching);
+    }
+
+    /**
+     * Parses the config after watching and stamping what it reads. A parse that
+     * reaches files or directories not covered yet is repeated with them covered.
+     */
+    private Loaded parse(Path config) throws IOException {
+        Set<Path> dirs = new LinkedHashSet<>(List.of(config.getParent()));
+        List<Path> known = List.of(config);
+        while (true) {
+            watch(dirs);
+            List<Stamp> stamps = new ArrayList<>();
+            for (Path p : dirs) stamps.add(stamp(p));
+            for (Path p : known) stamps.add(stamp(p));
+
+            List<Path> files = new ArrayList<>();
+            List<Path> includes = new ArrayList<>();
+            List<SSHConfig> blocks = SSHConfigParser.parse(config.toFile(), files, includes);
+            Set<Path> reached = directories(config, files, includes);
+            if (dirs.containsAll(reached) && known.containsAll(files)) {
+                return new Loaded(blocks, files, includes, stamps);
+            }
+            dirs.addAll(reached);
+            known = List.copyOf(files);
+        }
+    }
+
+    // --- change notification ---
+
+    /** Watches the directories; false when one of them cannot be watched. */
+    private boolean watch(Set<Path> dirs) {
+        try {
+            if (watcher == null) {
+                watcher = FileSystems.getDefault().newWatchService();
+                watchThread = new Thread(this::watchLoop, "ssh-config-watch");
+                watchThread.setDaemon(true);
+                watchThread.start();
+            }
+            for (Path dir : dirs) {
+                if (!watched.containsKey(dir) && Files.isDirectory(dir)) {
+                    watched.put(dir, dir.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY));
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            // Without a watcher the cache would go stale, so stop caching entirely
+            log.warn("Cannot watch ssh config directories, caching disabled", e);
+            entries.clear();
+            return false;
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Change change = new Change(dir, event.kind() == StandardWatchEventKinds.OVERFLOW
+                        ? null
+                        : dir.resolve((Path) event.context()));
+                    Queue<Change> loading = loadChanges;
+                    if (loading != null) loading.add(change);
+                    entries.values().removeIf(e -> e.affectedBy(change));
+                }
+                if (!key.reset()) {
+                    watched.remove(dir);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    /** Directories holding the config, the files it read and its Include patterns. */
+    private static Set<Path> directories(Path config, List<Path> files, List<Path> includes) {
+        Set<Path> dirs = new LinkedHashSet<>();
+        dirs.add(config.getParent());
+        for (Path f : files) {
+            if (f.getParent() != null) dirs.add(f.getParent());
+        }
+        for (Path include : includes) {
+            if (include.getParent() != null) dirs.add(include.getParent());
+        }
+        return dirs;
+    }
+
+    // --- binary snapshot ---
+
+    private Path snapshotFile(Path config) {
+        String name = UUID.nameUUIDFromBytes(config.toString().getBytes(StandardCharsets.UTF_8)) + ".bin";
+        return snapshotDir.resolve(name);
+    }
+
+    /**
+     * The snapshot's blocks if every file and directory it was read from is
+     * unchanged. The directories are watched before the stamps are compared.
+     */
+    private Loaded readSnapshot(Path config) {
+        Path file = snapshotFile(config);
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            int stampCount = in.readInt();
+            List<Stamp> stamps = new ArrayList<>(stampCount);
+            List<Path> files = new ArrayList<>();
+            for (int i = 0; i < stampCount; i++) {
+                Stamp stamp = new Stamp(Path.of(in.readUTF()), in.readLong(), in.readLong());
+                stamps.add(stamp);
+                if (in.readBoolean()) files.add(stamp.path());
+            }
+            int includeCount = in.readInt();
+            List<Path> includes = new ArrayList<>(includeCount);
+            for (int i = 0; i < includeCount; i++) includes.add(Path.of(in.readUTF()));
+            int count = in.readInt();
+            List<SSHConfig> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                SSHConfig block = new SSHConfig();
+                if (in.readBoolean()) block.setMatch(in.readUTF());
+                int patterns = in.readUnsignedShort();
+                for (int p = 0; p < patterns; p++) block.addPattern(in.readUTF());
+                int options = in.readUnsignedShort();
+                for (int o = 0; o < options; o++) block.set(in.readUTF(), in.readUTF());
+                blocks.add(block);
+            }
+
+            watch(directories(config, files, includes));
+            for (Stamp stamp : stamps) {
+                if (!stamp.equals(stamp(stamp.path()))) return null;
+            }
+            return new Loaded(blocks, files, includes, stamps);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Ignoring unreadable ssh config snapshot {}", file, e);
+            return null;
+        }
+    }
+
+    private void writeSnapshot(Path config, Loaded loaded) {
+        try {
+            Files.createDirectories(snapshotDir);
+            Path target = snapshotFile(config);
+            Path tmp = Files.createTempFile(snapshotDir, "snapshot", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(loaded.stamps().size());
+                for (Stamp s : loaded.stamps()) {
+                    out.writeUTF(s.path().toString());
+                    out.writeLong(s.mtime());
+                    out.writeLong(s.size());
+                    out.writeBoolean(loaded.files().contains(s.path()));
+                }
+                out.writeInt(loaded.includes().size());
+                for (Path include : loaded.includes()) out.writeUTF(include.toString());
+                out.writeInt(loaded.blocks().size());
+                for (SSHConfig block : loaded.blocks()) {
+                    out.writeBoolean(block.isMatchBlock());
+                    if (block.isMatchBlock()) out.writeUTF(block.getMatch());
+                    out.writeShort(block.getPatterns().size());
+                    for (String p : block.getPatterns()) out.writeUTF(p);
+                    List<Map.Entry<String, String>> options = settings(block);
+                    out.writeShort(options.size());
+                    for (Map.Entry<String, String> o : options) {
+                        out.writeUTF(o.getKey());
+                        out.writeUTF(o.getValue());
+                    }
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not write ssh config snapshot", e);
+        }
+    }
+
+    /** The options to set again on reading, with one entry per IdentityFile. */
+    private static List<Map.Entry<String, String>> settings(SSHConfig block) {
+        List<Map.Entry<String, String>> settings = new ArrayList<>(block.getOptions().size());
+        block.getOptions().forEach((key, value) -> {
+            if (!key.equals("identityfile")) settings.add(Map.entry(key, value));
+        });
+        for (String file : block.getIdentityFiles()) settings.add(Map.entry("identityfile", file));
+        return settings;
+    }
+
+    private static Stamp stamp(Path path) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Stamp(path, attrs.lastModifiedTime().toMillis(), attrs.isDirectory() ? 0 : attrs.size());
+        } catch (NoSuchFileException e) {
+            return new Stamp(path, -1, -1);
+        }
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            watchThread.interrupt();
+        }
+    }
+}
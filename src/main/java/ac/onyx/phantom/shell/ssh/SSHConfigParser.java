@@ -1,58 +1,219 @@
 package ac.onyx.phantom.shell.ssh;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Reads ssh_config files into Host and Match blocks, in file order.
+ *
+ * Include directives are expanded in place (relative paths resolve against the
+ * directory of the top-level config, globs in the last path segment are sorted),
+ * and options that appear before the first Host line become an implicit
+ * {@code Host *} block. Use {@link SSHConfigResolver} to look a host up.
+ */
 public class SSHConfigParser {
 
+    private static final int MAX_INCLUDE_DEPTH = 16;
+
     public static List<SSHConfig> parse(File configFile) throws IOException {
+        return parse(configFile, new ArrayList<>());
+    }
+
+    /**
+     * Parses a config and records every file that was read, includes first-seen order.
+     */
+    public static List<SSHConfig> parse(File configFile, List<Path> files) throws IOException {
+        return parse(configFile, files, new ArrayList<>());
+    }
+
+    /**
+     * Parses a config, recording every file that was read and every Include
+     * pattern as an absolute path, whose last segment may be a glob.
+     */
+    public static List<SSHConfig> parse(File configFile, List<Path> files, List<Path> includes) throws IOException {
         List<SSHConfig> hosts = new ArrayList<>();
         if (!configFile.exists()) return hosts;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
-            SSHConfig current = null;
+        Path path = configFile.toPath().toAbsolutePath();
+        new SSHConfigParser(path.getParent(), hosts, files, includes).read(path, 0);
+        return hosts;
+    }
+
+    private final Path baseDir;
+    private final List<SSHConfig> hosts;
+    private final List<Path> files;
+    private final List<Path> includes;
+    private SSHConfig current;
 
+    private SSHConfigParser(Path baseDir, List<SSHConfig> hosts, List<Path> files, List<Path> includes) {
+        this.baseDir = baseDir;
+        this.hosts = hosts;
+        this.files = files;
+        this.includes = includes;
+    }
+
+    private void read(Path file, int depth) throws IOException {
+        files.add(file);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
             String line;
+            int number = 0;
             while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#")) continue;
-
-                String[] parts = line.split("\\s+", 2);
-                if (parts.length < 2) continue;
-                String key = parts[0].toLowerCase();
-                String value = parts[1];
-
-                switch (key) {
-                    case "host":
-                        current = new SSHConfig();
-                        for (String pattern : value.split("\\s+")) {
-                            current.addPattern(pattern);
-                        }
-                        hosts.add(current);
-                        break;
-                    case "hostname":
-                        if (current != null) current.setHostname(value);
-                        break;
-                    case "user":
-                        if (current != null) current.setUser(value);
-                        break;
-                    case "port":
-                        if (current != null) current.setPort(Integer.parseInt(value));
-                        break;
-                    case "identityfile":
-                        if (current != null) current.setIdentityFile(value);
-                        break;
-                    case "proxycommand":
-                        if (current != null) current.setProxyCommand(value);
-                        break;
-                    default:
-                        // ignore unknown keys
-                        break;
+                number++;
+                try {
+                    parseLine(line, depth);
+                } catch (IllegalArgumentException e) {
+                    // Reported the way ssh does, e.g. "~/.ssh/config line 12: Bad port 'x'"
+                    throw new IOException(file + " line " + number + ": " + e.getMessage(), e);
                 }
             }
         }
+    }
 
-        return hosts;
+    private void parseLine(String line, int depth) throws IOException {
+        int len = line.length();
+        int i = skipSpace(line, 0);
+        if (i == len || line.charAt(i) == '#') return;
+
+        // keyword, then whitespace and/or a single '='
+        int keyEnd = i;
+        while (keyEnd < len && !isSpace(line.charAt(keyEnd)) && line.charAt(keyEnd) != '=') keyEnd++;
+        String key = line.substring(i, keyEnd).toLowerCase();
+        int v = skipSpace(line, keyEnd);
+        if (v < len && line.charAt(v) == '=') v = skipSpace(line, v + 1);
+        int end = len;
+        while (end > v && isSpace(line.charAt(end - 1))) end--;
+        if (v >= end) return;
+        String value = unquote(line.substring(v, end));
+
+        switch (key) {
+            case "host":
+                current = new SSHConfig();
+                for (String pattern : splitWords(value)) {
+                    current.addPattern(pattern);
+                }
+                hosts.add(current);
+                break;
+            case "match":
+                current = new SSHConfig();
+                current.setMatch(value);
+                hosts.add(current);
+                break;
+            case "include":
+                if (depth >= MAX_INCLUDE_DEPTH) {
+                    throw new IOException("Include nested too deeply: " + value);
+                }
+                // The included files start inside the enclosing block, and once they
+                // are done the lines after Include belong to it again, as in ssh
+                SSHConfig enclosing = current;
+                int before = hosts.size();
+                for (String spec : splitWords(value)) {
+                    for (Path included : expandInclude(spec)) {
+                        read(included, depth + 1);
+                    }
+                }
+                current = enclosing;
+                if (enclosing != null && hosts.size() > before) {
+                    // Continue it after the included blocks so that first-wins keeps line order
+                    current = new SSHConfig();
+                    enclosing.getPatterns().forEach(current::addPattern);
+                    current.setMatch(enclosing.getMatch());
+                    hosts.add(current);
+                }
+                break;
+            default:
+                if (current == null) {
+                    // Options before the first Host line apply to every host
+                    current = new SSHConfig();
+                    current.addPattern("*");
+                    hosts.add(current);
+                }
+                check(key, value);
+                current.set(key, value);
+                break;
+        }
+    }
+
+    /** Rejects malformed values even where an earlier block already set the option. */
+    private static void check(String key, String value) {
+        switch (key) {
+            case "port":
+                SSHConfig.parsePort(value);
+                break;
+            case "proxyjump":
+                if (!value.equalsIgnoreCase("none")) {
+                    for (String entry : value.split(",")) SSHConfigResolver.Jump.parse(entry.trim());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private List<Path> expandInclude(String spec) throws IOException {
+        String expanded = spec.startsWith("~")
+            ? System.getProperty("user.home") + spec.substring(1)
+            : spec;
+        Path path = baseDir.resolve(expanded).normalize();
+        if (!includes.contains(path)) includes.add(path);
+
+        String name = path.getFileName() == null ? "" : path.getFileName().toString();
+        List<Path> result = new ArrayList<>();
+        if (!HostGlob.isWildcard(name)) {
+            if (Files.isRegularFile(path)) result.add(path);
+            return result;
+        }
+        Path dir = path.getParent();
+        if (dir == null || !Files.isDirectory(dir)) return result;
+        try (DirectoryStream<Path> matches = Files.newDirectoryStream(dir, name)) {
+            for (Path p : matches) {
+                if (Files.isRegularFile(p)) result.add(p);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    static List<String> splitWords(String value) {
+        List<String> words = new ArrayList<>(2);
+        int len = value.length();
+        int i = 0;
+        while (i < len) {
+            i = skipSpace(value, i);
+            if (i == len) break;
+            int start = i;
+            if (value.charAt(i) == '"') {
+                int close = value.indexOf('"', i + 1);
+                if (close < 0) close = len;
+                words.add(value.substring(i + 1, close));
+                i = close + 1;
+                continue;
+            }
+            while (i < len && !isSpace(value.charAt(i))) i++;
+            words.add(value.substring(start, i));
+        }
+        return words;
+    }
+
+    private static String unquote(String value) {
+        int len = value.length();
+        if (len >= 2 && value.charAt(0) == '"' && value.charAt(len - 1) == '"'
+                && value.indexOf('"', 1) == len - 1) {
+            return value.substring(1, len - 1);
+        }
+        return value;
+    }
+
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && isSpace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t';
     }
 }
@@ -0,0 +1,293 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves host aliases against parsed ssh_config blocks with ssh semantics:
+ * every matching Host/Match block applies in file order and the first value
+ * for each keyword wins.
+ *
+ * Blocks whose patterns are all plain names are indexed by name, so they cost a
+ * single hash lookup. Only blocks with wildcards, negations or Match criteria are
+ * evaluated per lookup, each through matchers compiled once up front.
+ */
+public class SSHConfigResolver {
+
+    private static final int[] NONE = new int[0];
+    private static final int MAX_JUMPS = 8;
+
+    /**
+     * Decides whether a block applies to an alias, given what has been resolved so far.
+     */
+    private interface BlockMatcher {
+        boolean test(String alias, SSHConfig resolved);
+    }
+
+    private final List<SSHConfig> blocks;
+    private final Map<String, int[]> exact;
+    private final int[] evaluated;
+    private final BlockMatcher[] matchers;
+    private final boolean[] catchAll;
+    private final List<String> aliases;
+    private final Map<String, List<SSHConfig>> jumpChains = new ConcurrentHashMap<>();
+
+    private SSHConfigResolver(List<SSHConfig> blocks) {
+        this.blocks = blocks;
+        this.matchers = new BlockMatcher[blocks.size()];
+        this.catchAll = new boolean[blocks.size()];
+
+        Map<String, List<Integer>> byName = new HashMap<>();
+        List<Integer> needEval = new ArrayList<>();
+        Set<String> concrete = new LinkedHashSet<>();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            SSHConfig block = blocks.get(i);
+            if (block.isMatchBlock()) {
+                matchers[i] = compileMatch(block.getMatch());
+                needEval.add(i);
+                continue;
+            }
+            boolean literalOnly = true;
+            for (String p : block.getPatterns()) {
+                if (p.startsWith("!") || HostGlob.isWildcard(p)) {
+                    literalOnly = false;
+                } else {
+                    concrete.add(p);
+                }
+            }
+            if (literalOnly) {
+                for (String p : block.getPatterns()) {
+                    byName.computeIfAbsent(p.toLowerCase(), k -> new ArrayList<>()).add(i);
+                }
+            } else {
+                matchers[i] = compileHost(block.getPatterns());
+                catchAll[i] = block.getPatterns().stream().allMatch("*"::equals);
+                needEval.add(i);
+            }
+        }
+
+        this.exact = new HashMap<>(byName.size() * 2);
+        byName.forEach((name, idx) -> exact.put(name, idx.stream().mapToInt(Integer::intValue).toArray()));
+        this.evaluated = needEval.stream().mapToInt(Integer::intValue).toArray();
+        this.aliases = List.copyOf(concrete);
+    }
+
+    public static SSHConfigResolver of(List<SSHConfig> blocks) {
+        return new SSHConfigResolver(blocks);
+    }
+
+    /**
+     * Resolves the effective configuration for an alias. HostName defaults to the alias.
+     */
+    public SSHConfig resolve(String alias) {
+        String lower = alias.toLowerCase();
+        SSHConfig result = new SSHConfig();
+        result.addPattern(alias);
+
+        // Walk indexed and evaluated blocks together, in file order
+        int[] hits = exact.getOrDefault(lower, NONE);
+        int i = 0;
+        int j = 0;
+        while (i < hits.length || j < evaluated.length) {
+            int idx;
+            if (j >= evaluated.length || (i < hits.length && hits[i] < evaluated[j])) {
+                idx = hits[i++];
+            } else {
+                idx = evaluated[j++];
+                if (!matchers[idx].test(lower, result)) continue;
+            }
+            result.mergeFrom(blocks.get(idx));
+        }
+
+        if (result.getHostname() == null || result.getHostname().isBlank()) {
+            result.set("hostname", alias);
+        }
+        result.setOrigin(this);
+        return result;
+    }
+
+    /**
+     * Whether a Host block other than a catch-all {@code Host *} matches the alias,
+     * i.e. the config says something about this host in particular.
+     */
+    public boolean isDefined(String alias) {
+        String lower = alias.toLowerCase();
+        if (exact.containsKey(lower)) return true;
+        SSHConfig none = new SSHConfig();
+        for (int idx : evaluated) {
+            if (!catchAll[idx] && !blocks.get(idx).isMatchBlock() && matchers[idx].test(lower, none)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Jump hosts for a resolved host from its ProxyJump, outermost first. Each
+     * {@code [user@]host[:port]} entry is resolved with its own config, and the
+     * first entry's ProxyJump puts its chain in front, as ssh does. Chains are
+     * cached per alias for the life of this resolver, i.e. until the config changes.
+     */
+    public List<SSHConfig> jumpChain(SSHConfig host) {
+        String alias = host.getPatterns().isEmpty() ? host.getHostname() : host.getPatterns().get(0);
+        String key = alias.toLowerCase() + "|" + host.getProxyJump();
+        List<SSHConfig> chain = jumpChains.get(key);
+        if (chain == null) {
+            chain = buildChain(host, 0);
+            jumpChains.put(key, chain);
+        }
+        return chain;
+    }
+
+    private List<SSHConfig> buildChain(SSHConfig host, int depth) {
+        String jump = host.getProxyJump();
+        if (jump == null || jump.isBlank() || jump.equalsIgnoreCase("none")) return List.of();
+        if (depth >= MAX_JUMPS) {
+            throw new IllegalArgumentException("ProxyJump chain too long (loop?) at " + host.getPatterns());
+        }
+        List<SSHConfig> chain = new ArrayList<>();
+        String[] entries = jump.split(",");
+        for (int i = 0; i < entries.length; i++) {
+            SSHConfig hop = jumpHost(entries[i].trim());
+            if (i == 0) chain.addAll(buildChain(hop, depth + 1));
+            chain.add(hop);
+        }
+        return List.copyOf(chain);
+    }
+
+    /** One {@code [ssh://][user@]host[:port]} ProxyJump entry; user and port may be null. */
+    record Jump(String user, String host, String port) {
+
+        /** Parses an entry, throwing IllegalArgumentException for a bad port. */
+        static Jump parse(String spec) {
+            String rest = spec.startsWith("ssh://") ? spec.substring(6) : spec;
+            String user = null;
+            int at = rest.lastIndexOf('@');
+            if (at >= 0) {
+                user = rest.substring(0, at);
+                rest = rest.substring(at + 1);
+            }
+            String port = null;
+            if (rest.startsWith("[")) {
+                int end = rest.indexOf(']');
+                if (end > 0 && end + 1 < rest.length() && rest.charAt(end + 1) == ':') port = rest.substring(end + 2);
+                rest = rest.substring(1, end > 0 ? end : rest.length());
+            } else if (rest.indexOf(':') == rest.lastIndexOf(':') && rest.indexOf(':') > 0) {
+                port = rest.substring(rest.indexOf(':') + 1);
+                rest = rest.substring(0, rest.indexOf(':'));
+            }
+            if (port != null) SSHConfig.parsePort(port);
+            return new Jump(user == null || user.isEmpty() ? null : user, rest, port);
+        }
+    }
+
+    /** Resolves one ProxyJump entry. */
+    private SSHConfig jumpHost(String spec) {
+        Jump jump = Jump.parse(spec);
+        SSHConfig hop = new SSHConfig();
+        hop.addPattern(jump.host());
+        // Explicit user and port come first so they win over the jump host's own config
+        if (jump.user() != null) hop.set("user", jump.user());
+        if (jump.port() != null) hop.set("port", jump.port());
+        hop.mergeFrom(resolve(jump.host()));
+        hop.setOrigin(this);
+        return hop;
+    }
+
+    /**
+     * Concrete (non-wildcard) aliases, in the order they first appear.
+     */
+    public List<String> aliases() {
+        return aliases;
+    }
+
+    /**
+     * Every concrete alias, resolved.
+     */
+    public List<SSHConfig> hosts() {
+        List<SSHConfig> result = new ArrayList<>(aliases.size());
+        for (String alias : aliases) {
+            result.add(resolve(alias));
+        }
+        return result;
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    private static BlockMatcher compileHost(List<String> patterns) {
+        HostGlob[] positive = globs(patterns, false);
+        HostGlob[] negative = globs(patterns, true);
+        return (alias, resolved) -> anyMatch(positive, alias) && !anyMatch(negative, alias);
+    }
+
+    /**
+     * Supports the all, host, originalhost, user and localuser criteria. Criteria
+     * that need ssh itself (exec, canonical, final, localnetwork, tagged) never match.
+     */
+    private static BlockMatcher compileMatch(String criteria) {
+        List<String> words = SSHConfigParser.splitWords(criteria);
+        List<BlockMatcher> parts = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i).toLowerCase();
+            boolean negate = word.startsWith("!");
+            if (negate) word = word.substring(1);
+
+            BlockMatcher part;
+            if (word.equals("all")) {
+                part = (alias, resolved) -> true;
+            } else if (i + 1 < words.size() && isListCriterion(word)) {
+                List<String> list = Arrays.asList(words.get(++i).split(","));
+                BlockMatcher list0 = compileHost(list);
+                String criterion = word;
+                part = (alias, resolved) -> list0.test(subject(criterion, alias, resolved), resolved);
+            } else {
+                part = (alias, resolved) -> false;
+            }
+            parts.add(negate ? (alias, resolved) -> !part.test(alias, resolved) : part);
+        }
+        return (alias, resolved) -> {
+            for (BlockMatcher part : parts) {
+                if (!part.test(alias, resolved)) return false;
+            }
+            return !parts.isEmpty();
+        };
+    }
+
+    private static boolean isListCriterion(String word) {
+        return word.equals("host") || word.equals("originalhost") || word.equals("user") || word.equals("localuser");
+    }
+
+    private static String subject(String criterion, String alias, SSHConfig resolved) {
+        switch (criterion) {
+            case "host":
+                return resolved.getHostname() != null ? resolved.getHostname().toLowerCase() : alias;
+            case "user":
+                return (resolved.getUser() != null ? resolved.getUser() : System.getProperty("user.name")).toLowerCase();
+            case "localuser":
+                return System.getProperty("user.name").toLowerCase();
+            default:
+                return alias;
+        }
+    }
+
+    private static HostGlob[] globs(List<String> patterns, boolean negated) {
+        return patterns.stream()
+            .filter(p -> p.startsWith("!") == negated)
+            .map(p -> HostGlob.compile(negated ? p.substring(1) : p))
+            .toArray(HostGlob[]::new);
+    }
+
+    private static boolean anyMatch(HostGlob[] globs, String lower) {
+        for (HostGlob g : globs) {
+            if (g.matchesLower(lower)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,283 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.schmizz.sshj.SSHClient;
+
+/**
+ * Keeps authenticated SSH transports alive between commands.
+ *
+ * Connections are keyed by user@host:port. Callers lease a connection, open as
+ * many session channels on it as they need and release it afterwards; released
+ * connections stay open (with keepalives) until they have been idle for the TTL.
+ *
+ * Leases are counted per client: a dead connection is replaced with a new one
+ * whose count starts over, and a late release of the old one is ignored rather
+ * than taken off the new connection's count.
+ */
+public class SSHConnectionPool implements Closeable {
+
+    public static final Duration DEFAULT_IDLE_TTL = Duration.ofMinutes(5);
+    public static final int KEEP_ALIVE_INTERVAL_SECONDS = 30;
+
+    /**
+     * Opens and authenticates a new transport for a key.
+     */
+    @FunctionalInterface
+    public interface Connector {
+        SSHClient connect() throws IOException;
+    }
+
+    public record Key(String user, String host, int port) {
+        public static Key of(SSHConfig config, String user) {
+            return new Key(user, config.getHostname(), config.getPort());
+        }
+
+        @Override
+        public String toString() {
+            return user + "@" + host + ":" + port;
+        }
+    }
+
+    public record PooledConnection(Key key, Instant created, Instant lastUsed, int leases, boolean connected) {
+        public Duration age() { return Duration.between(created, Instant.now()); }
+        public Duration idle() { return Duration.between(lastUsed, Instant.now()); }
+    }
+
+    private static final class Slot {
+        SSHClient client;
+        CompletableFuture<SSHClient> connecting; // set while one caller connects
+        Instant created;
+        Instant lastUsed;
+        int leases;
+
+        boolean usable() {
+            return client != null && client.isConnected() && client.isAuthenticated();
+        }
+    }
+
+    private final Map<Key, Slot> slots = new ConcurrentHashMap<>();
+    private final Duration idleTtl;
+    private final ScheduledExecutorService reaper;
+
+    public SSHConnectionPool() {
+        this(DEFAULT_IDLE_TTL);
+    }
+
+    public SSHConnectionPool(Duration idleTtl) {
+        this.idleTtl = idleTtl;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ssh-pool-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, Math.min(idleTtl.toSeconds() / 2, 30));
+        reaper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates an unconnected client with keepalives enabled, suitable for pooling.
+     */
+    public static TimedSSHClient newClient() {
+        return newClient(TransportSettings.DEFAULTS);
+    }
+
+    /**
+     * Creates an unconnected client tuned for one host (algorithms, compression,
+     * keepalive, windows), suitable for pooling.
+     */
+    public static TimedSSHClient newClient(TransportSettings settings) {
+        TimedSSHClient client = new TimedSSHClient(settings.config());
+        settings.apply(client);
+        return client;
+    }
+
+    /**
+     * Leases the pooled connection for a key, or returns null when there is no live one.
+     */
+    public SSHClient lease(Key key) {
+        Slot slot = slots.get(key);
+        if (slot == null) return null;
+        synchronized (slot) {
+            if (!slot.usable()) return null;
+            slot.leases++;
+            slot.lastUsed = Instant.now();
+            return slot.client;
+        }
+    }
+
+    /**
+     * Whether there is a live pooled connection for a key, without leasing it.
+     */
+    public boolean isLive(Key key) {
+        Slot slot = slots.get(key);
+        if (slot == null) return false;
+        synchronized (slot) {
+            return slot.usable();
+        }
+    }
+
+    /**
+     * Leases the pooled connection for a key, connecting through the connector when needed.
+     * The connection is made outside the slot's lock; callers arriving for the same
+     * key meanwhile wait for that connection instead of opening their own.
+     */
+    public SSHClient acquire(Key key, Connector connector) throws IOException {
+        while (true) {
+            Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+            CompletableFuture<SSHClient> connecting;
+            SSHClient stale = null;
+            boolean mine = false;
+            synchronized (slot) {
+                // Lost a race with the reaper; retry with a fresh slot
+                if (slots.get(key) != slot) continue;
+                if (slot.usable()) {
+                    slot.leases++;
+                    slot.lastUsed = Instant.now();
+                    return slot.client;
+                }
+                if (slot.connecting == null) {
+                    stale = slot.client;
+                    slot.client = null;
+                    slot.connecting = new CompletableFuture<>();
+                    mine = true;
+                }
+                connecting = slot.connecting;
+            }
+            if (mine) {
+                closeQuietly(stale);
+                return connect(key, slot, connector, connecting);
+            }
+            await(connecting);
+        }
+    }
+
+    private SSHClient connect(Key key, Slot slot, Connector connector,
+                              CompletableFuture<SSHClient> connecting) throws IOException {
+        SSHClient client;
+        try {
+            client = connector.connect();
+        } catch (IOException | RuntimeException e) {
+            synchronized (slot) {
+                slot.connecting = null;
+                slots.remove(key, slot);
+            }
+            connecting.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (slot) {
+            slot.connecting = null;
+            if (slots.get(key) == slot) {
+                slot.client = client;
+                slot.created = Instant.now();
+                slot.leases = 1;
+                slot.lastUsed = slot.created;
+                connecting.complete(client);
+                return client;
+            }
+        }
+        // Evicted (or the pool closed) while connecting
+        closeQuietly(client);
+        IOException e = new IOException("Connection to " + key + " was evicted while connecting");
+        connecting.completeExceptionally(e);
+        throw e;
+    }
+
+    private static void await(CompletableFuture<SSHClient> connecting) throws IOException {
+        try {
+            connecting.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for connection");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns a lease on {@code client}, as handed out by {@link #lease} or
+     * {@link #acquire}. It stays open until idle for the TTL. Nothing happens when
+     * the pool has since dropped or replaced that client.
+     */
+    public void release(Key key, SSHClient client) {
+        Slot slot = slots.get(key);
+        if (slot == null || client == null) return;
+        synchronized (slot) {
+            if (slot.client != client) return;
+            if (slot.leases > 0) slot.leases--;
+            slot.lastUsed = Instant.now();
+        }
+    }
+
+    /**
+     * Drops a connection from the pool, e.g. after a transport error.
+     */
+    public void evict(Key key) {
+        Slot slot = slots.remove(key);
+        if (slot == null) return;
+        synchronized (slot) {
+            closeQuietly(slot.client);
+            slot.client = null;
+        }
+    }
+
+    public List<PooledConnection> snapshot() {
+        List<PooledConnection> result = new ArrayList<>();
+        slots.forEach((key, slot) -> {
+            synchronized (slot) {
+                if (slot.client != null) {
+                    result.add(new PooledConnection(key, slot.created, slot.lastUsed, slot.leases, slot.usable()));
+                }
+            }
+        });
+        result.sort(Comparator.comparing(PooledConnection::created));
+        return result;
+    }
+
+    public Duration getIdleTtl() { return idleTtl; }
+
+    void evictIdle() {
+        Instant cutoff = Instant.now().minus(idleTtl);
+        slots.forEach((key, slot) -> {
+            synchronized (slot) {
+                boolean idle = slot.leases == 0 && slot.lastUsed != null && slot.lastUsed.isBefore(cutoff);
+                if (idle || (slot.client != null && !slot.usable() && slot.leases == 0)) {
+                    closeQuietly(slot.client);
+                    slot.client = null;
+                    slots.remove(key, slot);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        reaper.shutdownNow();
+        slots.keySet().forEach(this::evict);
+    }
+
+    private static void closeQuietly(SSHClient client) {
+        if (client == null) return;
+        try {
+            client.disconnect();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+/**
+ * Interactive shell sessions that outlive a single attach.
+ *
+ * An attached session has two threads: one pumping remote output to the
+ * terminal and one forwarding keystrokes. Pressing the escape key (Ctrl+] by
+ * default) detaches it: both threads stop and the session keeps running in the
+ * background with no threads of its own. One shared drain task reads the output
+ * of every detached session into a bounded per-session buffer (oldest bytes are
+ * dropped once it is full), so remote programs never block on a full window.
+ * Reattaching replays the buffer first.
+ *
+ * Threads come from pools whose idle threads exit after a keep-alive, the drain
+ * thread included, and the drain task only runs while something is detached, so
+ * an idle manager holds no threads at all once they have timed out.
+ */
+public class SessionManager implements Closeable {
+
+    public static final int DETACH_KEY = 0x1d; // Ctrl+]
+    public static final int DEFAULT_BUFFER_BYTES = 256 * 1024;
+
+    private static final long DRAIN_INTERVAL_MS = 50;
+    private static final Duration KEEP_ALIVE = Duration.ofSeconds(30);
+
+    public enum State { ATTACHED, DETACHED, CLOSED }
+
+    /** How an attach ended. */
+    public enum Outcome { DETACHED, CLOSED }
+
+    private final int bufferBytes;
+    private final Map<Integer, ManagedSession> sessions = new ConcurrentSkipListMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final ExecutorService workers;
+    private final ScheduledThreadPoolExecutor drainer;
+    private ScheduledFuture<?> drainTask; // guarded by this
+
+    public SessionManager(int bufferBytes) {
+        this(bufferBytes, KEEP_ALIVE);
+    }
+
+    /** {@code keepAlive} is how long an idle thread lingers before it exits. */
+    SessionManager(int bufferBytes, Duration keepAlive) {
+        this.bufferBytes = bufferBytes;
+        this.workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, keepAlive.toMillis(), TimeUnit.MILLISECONDS,
+            new SynchronousQueue<>(), daemon("ssh-session"));
+        this.drainer = new ScheduledThreadPoolExecutor(1, daemon("ssh-session-drain"));
+        drainer.setKeepAliveTime(keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+        drainer.allowCoreThreadTimeOut(true);
+        // A cancelled drain task must leave the queue, or it keeps the thread waiting for it
+        drainer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * One remote shell. {@code onClose} runs once when it ends, e.g. to give
+     * back the pooled transport.
+     */
+    public final class ManagedSession {
+        private final int id;
+        private final String host;
+        private final Session session;
+        private final Session.Shell shell;
+        private final Terminal terminal;
+        private final OutputPump pump;
+        private final InputForwarder forwarder;
+        private final Runnable onClose;
+        private final Instant started = Instant.now();
+        private final DetachedBuffer buffer = new DetachedBuffer(bufferBytes);
+        private volatile State state = State.DETACHED;
+        private volatile boolean detaching;
+        private volatile Instant lastAttached = started;
+
+        private ManagedSession(int id, String host, Session session, Session.Shell shell, Terminal terminal,
+                               Runnable onClose) {
+            this.id = id;
+            this.host = host;
+            this.session = session;
+            this.shell = shell;
+            this.terminal = terminal;
+            this.onClose = onClose;
+            // One pump and forwarder for the session's life, so their counters cover every attach
+            this.pump = new OutputPump(shell.getInputStream(), terminal.output(), () -> shell.isOpen() && !detaching);
+            this.forwarder = new InputForwarder(terminal.input(), shell.getOutputStream(),
+                () -> shell.isOpen() && !detaching);
+            forwarder.setEscape(DETACH_KEY);
+        }
+
+        public int getId() { return id; }
+
+        public String getHost() { return host; }
+
+        public State getState() { return state; }
+
+        public Duration getAge() { return Duration.between(started, Instant.now()); }
+
+        /** Time since the session was last attached; zero while attached. */
+        public Duration getDetachedFor() {
+            return state == State.ATTACHED ? Duration.ZERO : Duration.between(lastAttached, Instant.now());
+        }
+
+        public long getBuffered() { return buffer.size(); }
+
+        public long getDropped() { return buffer.dropped(); }
+
+        public OutputPump getOutputPump() { return pump; }
+
+        public InputForwarder getInputForwarder() { return forwarder; }
+
+        /** Sends a control byte (e.g. Ctrl+C) to the remote shell while attached. */
+        public void sendNow(int b) throws IOException {
+            if (state == State.ATTACHED) forwarder.sendNow(b);
+        }
+
+        public void resize(int columns, int rows) {
+            try {
+                shell.changeWindowDimensions(columns, rows, 0, 0);
+            } catch (IOException e) {
+                // remote gone; noticed by the pump or the drain task
+            }
+        }
+    }
+
+    /**
+     * Registers a started shell that will run on {@code terminal}; it stays
+     * detached until {@link #attach}.
+     */
+    public ManagedSession open(String host, Session session, Session.Shell shell, Terminal terminal,
+                               Runnable onClose) {
+        ManagedSession s = new ManagedSession(ids.incrementAndGet(), host, session, shell, terminal, onClose);
+        sessions.put(s.id, s);
+        return s;
+    }
+
+    public List<ManagedSession> list() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public ManagedSession get(int id) {
+        return sessions.get(id);
+    }
+
+    /** The detached session that was attached most recently, or null. */
+    public ManagedSession lastDetached() {
+        ManagedSession best = null;
+        for (ManagedSession s : sessions.values()) {
+            if (s.state == State.DETACHED && (best == null || s.lastAttached.isAfter(best.lastAttached))) best = s;
+        }
+        return best;
+    }
+
+    /**
+     * Connects the session to the terminal until it is detached with the escape
+     * key or the remote shell exits. The terminal must already be in raw mode.
+     */
+    public Outcome attach(ManagedSession s) throws IOException, InterruptedException {
+        synchronized (s) {
+            if (s.state != State.DETACHED) throw new IOException("Session " + s.id + " is " + s.state.name().toLowerCase());
+            s.state = State.ATTACHED;
+            s.lastAttached = Instant.now();
+        }
+        updateDrainer();
+
+        OutputStream out = s.terminal.output();
+        long dropped = s.buffer.dropped();
+        if (dropped > 0) {
+            out.write(("\r\n[" + dropped + " bytes of output dropped while detached]\r\n").getBytes());
+        }
+        s.buffer.replayTo(out);
+        out.flush();
+        // The terminal may have been resized while detached
+        Size size = s.terminal.getSize();
+        s.resize(size.getColumns(), size.getRows());
+
+        CompletableFuture<Outcome> ended = new CompletableFuture<>();
+        Worker output = start(() -> {
+            s.pump.run();
+            ended.complete(Outcome.CLOSED);
+        });
+        Worker input = start(() -> {
+            try {
+                if (s.forwarder.forward()) ended.complete(Outcome.DETACHED);
+            } catch (IOException e) {
+                // remote closed or interrupted; the pump reports the outcome
+            }
+        });
+
+        Outcome outcome;
+        try {
+            outcome = ended.get();
+        } catch (ExecutionException e) {
+            outcome = Outcome.CLOSED;
+        } finally {
+            // Both workers must be gone before the drain task may read the streams
+            s.detaching = true;
+            input.stop();
+            output.stop();
+            synchronized (s) {
+                if (s.state == State.ATTACHED) s.state = State.DETACHED;
+            }
+            s.detaching = false;
+        }
+        out.flush();
+
+        if (outcome == Outcome.CLOSED || !s.shell.isOpen()) {
+            close(s);
+            return Outcome.CLOSED;
+        }
+        s.lastAttached = Instant.now();
+        updateDrainer();
+        return Outcome.DETACHED;
+    }
+
+    /** Ends a session: closes its shell and channel and runs its close hook. */
+    public void close(ManagedSession s) {
+        synchronized (s) {
+            if (s.state == State.CLOSED) return;
+            s.state = State.CLOSED;
+        }
+        sessions.remove(s.id);
+        try {
+            s.shell.close();
+        } catch (IOException e) {
+            // already closed by the remote
+        }
+        try {
+            s.session.close();
+        } catch (IOException e) {
+            // already closed by the remote
+        }
+        s.buffer.clear();
+        s.onClose.run();
+        updateDrainer();
+    }
+
+    @Override
+    public void close() {
+        for (ManagedSession s : list()) close(s);
+        drainer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /** Runs the drain task only while at least one session is detached. */
+    private synchronized void updateDrainer() {
+        boolean needed = sessions.values().stream().anyMatch(s -> s.state == State.DETACHED);
+        if (needed && drainTask == null && !drainer.isShutdown()) {
+            drainTask = drainer.scheduleWithFixedDelay(this::drain, DRAIN_INTERVAL_MS, DRAIN_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        } else if (!needed && drainTask != null) {
+            drainTask.cancel(false);
+            drainTask = null;
+        }
+    }
+
+    private void drain() {
+        byte[] chunk = new byte[8192];
+        for (ManagedSession s : sessions.values()) {
+            boolean ended;
+            synchronized (s) {
+                if (s.state != State.DETACHED) continue;
+                try {
+                    // Only what has already arrived; never block the shared task
+                    InputStream in = s.shell.getInputStream();
+                    int avail;
+                    while ((avail = in.available()) > 0) {
+                        int n = in.read(chunk, 0, Math.min(avail, chunk.length));
+                        if (n <= 0) break;
+                        s.buffer.write(chunk, n);
+                    }
+                    ended = !s.shell.isOpen();
+                } catch (IOException e) {
+                    ended = true;
+                }
+            }
+            if (ended) close(s);
+        }
+    }
+
+    private Worker start(Runnable task) {
+        Worker worker = new Worker(task);
+        workers.execute(worker);
+        return worker;
+    }
+
+    /** A task whose thread can be interrupted and waited for. */
+    private static final class Worker implements Runnable {
+        private final Runnable task;
+        private final AtomicReference<Thread> thread = new AtomicReference<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Worker(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            thread.set(Thread.currentThread());
+            try {
+                if (!done.isDone()) task.run();
+            } finally {
+                thread.set(null);
+                Thread.interrupted(); // don't leak the interrupt into the pooled thread
+                done.complete(null);
+            }
+        }
+
+        /** Interrupts the task if it is still running and waits for it to return. */
+        void stop() {
+            if (done.isDone()) return;
+            Thread t = thread.get();
+            if (t != null) t.interrupt();
+            try {
+                done.get(1, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                // a read that ignores interrupts ends on the next byte or when the stream closes
+            }
+        }
+    }
+
+    /** Ring buffer of output produced while detached; keeps the newest bytes. */
+    private static final class DetachedBuffer {
+        private final byte[] ring;
+        private int start;
+        private int size;
+        private long dropped;
+
+        DetachedBuffer(int capacity) {
+            this.ring = new byte[Math.max(1, capacity)];
+        }
+
+        synchronized void write(byte[] data, int length) {
+            int offset = 0;
+            if (length > ring.length) {
+                dropped += length - ring.length;
+                offset = length - ring.length;
+                length = ring.length;
+            }
+            int overflow = size + length - ring.length;
+            if (overflow > 0) {
+                start = (start + overflow) % ring.length;
+                size -= overflow;
+                dropped += overflow;
+            }
+            int end = (start + size) % ring.length;
+            int first = Math.min(length, ring.length - end);
+            System.arraycopy(data, offset, ring, end, first);
+            System.arraycopy(data, offset + first, ring, 0, length - first);
+            size += length;
+        }
+
+        synchronized void replayTo(OutputStream out) throws IOException {
+            int first = Math.min(size, ring.length - start);
+            out.write(ring, start, first);
+            out.write(ring, 0, size - first);
+            clear();
+        }
+
+        synchronized void clear() {
+            start = 0;
+            size = 0;
+            dropped = 0;
+        }
+
+        synchronized long size() { return size; }
+
+        synchronized long dropped() { return dropped; }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
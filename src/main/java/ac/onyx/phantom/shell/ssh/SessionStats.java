@@ -0,0 +1,204 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timing and traffic figures for integrated SSH sessions, live and recent.
+ *
+ * Phases (connect, kex, auth, pty, shell) are recorded per session and into the
+ * {@code phantom.ssh.phase} timer. Byte, packet and flush counts are not counted
+ * separately: they are read from the counters the {@link OutputPump} and
+ * {@link InputForwarder} already keep, so the copy loops pay nothing extra. The
+ * {@code phantom.ssh.*} function counters add up closed and live sessions.
+ */
+public class SessionStats {
+
+    public enum Phase { CONNECT, KEX, AUTH, PTY, SHELL }
+
+    private static final int RECENT = 20;
+
+    /** Work that is timed as one phase. */
+    public interface TimedCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * One session from connect to close.
+     */
+    public static final class Tracker {
+        private final String host;
+        private final Instant started = Instant.now();
+        private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+        private final AtomicInteger authAttempts = new AtomicInteger();
+        private volatile boolean pooled;
+        private volatile OutputPump output;
+        private volatile InputForwarder input;
+        private volatile Instant ended;
+
+        Tracker(String host) {
+            this.host = host;
+        }
+
+        /** Streams whose counters become this session's traffic figures. */
+        public void attach(OutputPump output, InputForwarder input) {
+            if (output != null) this.output = output;
+            if (input != null) this.input = input;
+        }
+
+        /** Marks the transport as reused from the pool, so connect/kex/auth did not run. */
+        public void setPooled(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        public String getHost() { return host; }
+
+        public boolean isPooled() { return pooled; }
+
+        public int getAuthAttempts() { return authAttempts.get(); }
+
+        public Duration getAge() {
+            return Duration.between(started, ended != null ? ended : Instant.now());
+        }
+
+        public boolean isLive() { return ended == null; }
+
+        /** Phase duration, or null when the phase has not run. */
+        public synchronized Duration phase(Phase phase) {
+            Long nanos = phaseNanos.get(phase);
+            return nanos == null ? null : Duration.ofNanos(nanos);
+        }
+
+        public long bytesIn() { OutputPump o = output; return o == null ? 0 : o.getBytes(); }
+
+        public long readsIn() { OutputPump o = output; return o == null ? 0 : o.getReads(); }
+
+        public long flushes() { OutputPump o = output; return o == null ? 0 : o.getFlushes(); }
+
+        public long bytesOut() { InputForwarder i = input; return i == null ? 0 : i.getBytes(); }
+
+        public long packetsOut() { InputForwarder i = input; return i == null ? 0 : i.getPackets(); }
+
+        private synchronized void record(Phase phase, long nanos) {
+            phaseNanos.merge(phase, nanos, Long::sum);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final Set<Tracker> live = ConcurrentHashMap.newKeySet();
+    private final Deque<Tracker> recent = new ArrayDeque<>();
+    private final Map<String, Long> closedTotals = new ConcurrentHashMap<>();
+
+    public SessionStats(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("phantom.ssh.sessions.live", live, Set::size).register(registry);
+        traffic("phantom.ssh.bytes", "in", Tracker::bytesIn);
+        traffic("phantom.ssh.bytes", "out", Tracker::bytesOut);
+        traffic("phantom.ssh.reads", "in", Tracker::readsIn);
+        traffic("phantom.ssh.packets", "out", Tracker::packetsOut);
+        traffic("phantom.ssh.flushes", "in", Tracker::flushes);
+    }
+
+    private void traffic(String name, String direction, ToLongFunction<Tracker> value) {
+        String key = name + "." + direction;
+        FunctionCounter.builder(name, this, s -> s.total(key, value))
+            .tag("direction", direction)
+            .register(registry);
+    }
+
+    private double total(String key, ToLongFunction<Tracker> value) {
+        long sum = closedTotals.getOrDefault(key, 0L);
+        for (Tracker t : live) sum += value.applyAsLong(t);
+        return sum;
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    public Tracker open(String host) {
+        Tracker tracker = new Tracker(host);
+        live.add(tracker);
+        return tracker;
+    }
+
+    public void close(Tracker tracker) {
+        if (tracker == null || !live.contains(tracker)) return;
+        // Fold the final counts into the totals before the tracker leaves the live set
+        closedTotals.merge("phantom.ssh.bytes.in", tracker.bytesIn(), Long::sum);
+        closedTotals.merge("phantom.ssh.bytes.out", tracker.bytesOut(), Long::sum);
+        closedTotals.merge("phantom.ssh.reads.in", tracker.readsIn(), Long::sum);
+        closedTotals.merge("phantom.ssh.packets.out", tracker.packetsOut(), Long::sum);
+        closedTotals.merge("phantom.ssh.flushes.in", tracker.flushes(), Long::sum);
+        tracker.ended = Instant.now();
+        live.remove(tracker);
+        synchronized (recent) {
+            recent.addFirst(tracker);
+            if (recent.size() > RECENT) recent.removeLast();
+        }
+    }
+
+    /**
+     * Runs {@code call} as one phase of the session (which may be null for
+     * connections that are not interactive sessions) and records its duration.
+     */
+    public <T> T time(Tracker tracker, Phase phase, TimedCall<T> call) throws IOException {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = call.call();
+            outcome = "ok";
+            return result;
+        } finally {
+            record(tracker, phase, System.nanoTime() - start, outcome);
+        }
+    }
+
+    /** Records a phase measured elsewhere (e.g. the key exchange inside connect). */
+    public void record(Tracker tracker, Phase phase, long nanos, String outcome) {
+        Timer.builder("phantom.ssh.phase")
+            .tag("phase", phase.name().toLowerCase())
+            .tag("outcome", outcome)
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+        if (tracker != null) tracker.record(phase, nanos);
+    }
+
+    /** Counts one authentication attempt by method ("publickey", "password"). */
+    public void authAttempt(Tracker tracker, String method, boolean success) {
+        Counter.builder("phantom.ssh.auth.attempts")
+            .tag("method", method)
+            .tag("outcome", success ? "ok" : "rejected")
+            .register(registry)
+            .increment();
+        if (tracker != null) tracker.authAttempts.incrementAndGet();
+    }
+
+    public List<Tracker> live() {
+        return new ArrayList<>(live);
+    }
+
+    public List<Tracker> recent() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+/**
+ * Parallel, resumable SFTP file transfer.
+ *
+ * The file is split into fixed-size chunks that several workers take from a
+ * queue. Each worker has its own SFTP channel on the shared transport, so every
+ * stream gets its own flow-control window, and keeps several requests in flight
+ * within its chunk. Local data goes through positional {@link FileChannel} I/O,
+ * so chunks can complete in any order.
+ *
+ * Data lands in {@code <target>.part} and is renamed into place at the end. A
+ * state file records the source size, mtime and chunk size plus the finished
+ * chunks. A later run with the same source skips those chunks, and a changed
+ * source starts over.
+ */
+public class SftpTransfer {
+
+    public static final int DEFAULT_STREAMS = 4;
+    public static final long DEFAULT_CHUNK_SIZE = 16L * 1024 * 1024;
+
+    private static final int BLOCK_SIZE = 32 * 1024;
+    private static final int MAX_UNCONFIRMED = 16;
+    private static final String PART = ".part";
+
+    /** Snapshot for progress reporting. */
+    public record Progress(long total, long transferred, long resumed, double bytesPerSecond) {}
+
+    public record Result(long size, long transferred, long resumed, double seconds) {
+        public double bytesPerSecond() {
+            return seconds > 0 ? transferred / seconds : 0;
+        }
+    }
+
+    private final SSHClient client;
+    private final int streams;
+    private final long chunkSize;
+
+    public SftpTransfer(SSHClient client, int streams, long chunkSize) {
+        this.client = client;
+        this.streams = Math.max(1, streams);
+        this.chunkSize = Math.max(BLOCK_SIZE, chunkSize);
+    }
+
+    /**
+     * Downloads {@code remote} to {@code local}, resuming a previous partial download.
+     */
+    public Result get(String remote, Path local, Consumer<Progress> progress) throws IOException {
+        try (SFTPClient sftp = client.newSFTPClient()) {
+            FileAttributes attrs = sftp.stat(remote);
+            long size = attrs.getSize();
+            Path part = local.resolveSibling(local.getFileName() + PART);
+            ChunkState state = ChunkState.open(part.resolveSibling(part.getFileName() + ".state"),
+                size, attrs.getMtime(), chunkSize);
+            // A partial download only counts while the .part file still holds every finished chunk
+            if (!state.isEmpty() && (!Files.isRegularFile(part) || Files.size(part) < state.doneEnd())) state.reset();
+            if (state.isEmpty()) Files.deleteIfExists(part);
+
+            try (FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                Result result = transfer(size, state, progress, () -> new Worker() {
+                    private SFTPClient channel;
+                    private RemoteFile source;
+
+                    @Override
+                    public void copy(long offset, long length, LongAdder counter) throws IOException {
+                        if (source == null) {
+                            channel = client.newSFTPClient();
+                            source = channel.open(remote, EnumSet.of(OpenMode.READ));
+                        }
+                        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+                        try (InputStream in = source.new ReadAheadRemoteFileInputStream(MAX_UNCONFIRMED, offset, length)) {
+                            long position = offset;
+                            long end = offset + length;
+                            while (position < end) {
+                                buffer.clear().limit((int) Math.min(BLOCK_SIZE, end - position));
+                                int n = in.read(buffer.array(), 0, buffer.limit());
+                                if (n < 0) throw new IOException("Remote file shrank at offset " + position);
+                                buffer.limit(n);
+                                while (buffer.hasRemaining()) {
+                                    position += file.write(buffer, position);
+                                }
+                                counter.add(n);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        if (source != null) source.close();
+                        if (channel != null) channel.close();
+                    }
+                });
+                file.force(false);
+                Files.move(part, local, StandardCopyOption.REPLACE_EXISTING);
+                state.delete();
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Uploads {@code local} to {@code remote}, resuming a previous partial upload
+     * whose state is kept under {@code stateDir}.
+     */
+    public Result put(Path local, String remote, Path stateDir, Consumer<Progress> progress) throws IOException {
+        long size = Files.size(local);
+        long mtime = Files.getLastModifiedTime(local).toMillis() / 1000;
+        String part = remote + PART;
+        String key = Integer.toHexString((client.getRemoteHostname() + "|" + remote + "|" + local.toAbsolutePath()).hashCode());
+        Files.createDirectories(stateDir);
+        ChunkState state = ChunkState.open(stateDir.resolve("put-" + key + ".state"), size, mtime, chunkSize);
+
+        try (SFTPClient sftp = client.newSFTPClient();
+             FileChannel file = FileChannel.open(local, StandardOpenOption.READ)) {
+            // A partial upload only counts while the .part file still holds every finished chunk
+            FileAttributes partial = state.isEmpty() ? null : sftp.statExistence(part);
+            if (partial == null || partial.getSize() < state.doneEnd()) state.reset();
+            EnumSet<OpenMode> mode = state.isEmpty()
+                ? EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC)
+                : EnumSet.of(OpenMode.WRITE, OpenMode.CREAT);
+            sftp.open(part, mode).close();
+
+            Result result = transfer(size, state, progress, () -> new Worker() {
+                private SFTPClient channel;
+                private RemoteFile target;
+
+                @Override
+                public void copy(long offset, long length, LongAdder counter) throws IOException {
+                    if (target == null) {
+                        channel = client.newSFTPClient();
+                        target = channel.open(part, EnumSet.of(OpenMode.WRITE));
+                    }
+                    ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+                    // close() waits until the server has confirmed every write of the chunk
+                    try (OutputStream out = target.new RemoteFileOutputStream(offset, MAX_UNCONFIRMED)) {
+                        long position = offset;
+                        long end = offset + length;
+                        while (position < end) {
+                            buffer.clear().limit((int) Math.min(BLOCK_SIZE, end - position));
+                            int n = file.read(buffer, position);
+                            if (n < 0) throw new IOException("Local file shrank at offset " + position);
+                            out.write(buffer.array(), 0, n);
+                            position += n;
+                            counter.add(n);
+                        }
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (target != null) target.close();
+                    if (channel != null) channel.close();
+                }
+            });
+
+            // SFTP v3 rename does not overwrite
+            if (sftp.statExistence(remote) != null) sftp.rm(remote);
+            sftp.rename(part, remote);
+            state.delete();
+            return result;
+        }
+    }
+
+    /** Copies one byte range; one instance per worker thread. */
+    private interface Worker extends AutoCloseable {
+        void copy(long offset, long length, LongAdder counter) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private interface WorkerFactory {
+        Worker create();
+    }
+
+    private Result transfer(long size, ChunkState state, Consumer<Progress> progress, WorkerFactory workers)
+            throws IOException {
+        Queue<Integer> chunks = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < state.chunkCount(); i++) {
+            if (!state.isDone(i)) chunks.add(i);
+        }
+        long resumed = state.doneBytes();
+        LongAdder transferred = new LongAdder();
+        long start = System.nanoTime();
+
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sftp-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(() -> progress.accept(progress(size, resumed, transferred.sum(), start)),
+            500, 500, TimeUnit.MILLISECONDS);
+
+        int threads = Math.min(streams, Math.max(1, chunks.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "sftp-transfer");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < threads; w++) {
+                futures.add(pool.submit(() -> {
+                    try (Worker worker = workers.create()) {
+                        Integer chunk;
+                        while ((chunk = chunks.poll()) != null) {
+                            long offset = chunk * chunkSize;
+                            worker.copy(offset, Math.min(chunkSize, size - offset), transferred);
+                            state.markDone(chunk);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    chunks.clear(); // stop the other workers after their current chunk
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException io ? io : new IOException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transfer interrupted; run again to resume", e);
+        } finally {
+            pool.shutdownNow();
+            ticker.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        progress.accept(progress(size, resumed, transferred.sum(), start));
+        return new Result(size, transferred.sum(), resumed, seconds);
+    }
+
+    private static Progress progress(long size, long resumed, long transferred, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Progress(size, resumed + transferred, resumed, seconds > 0 ? transferred / seconds : 0);
+    }
+
+    /**
+     * Finished chunks of one transfer, persisted after every chunk.
+     */
+    static final class ChunkState {
+        private static final String MAGIC = "phantom-transfer 1";
+
+        private final Path file;
+        private final long size;
+        private final long mtime;
+        private final long chunkSize;
+        private final BitSet done = new BitSet();
+
+        private ChunkState(Path file, long size, long mtime, long chunkSize) {
+            this.file = file;
+            this.size = size;
+            this.mtime = mtime;
+            this.chunkSize = chunkSize;
+        }
+
+        /** Loads the state if it describes the same source and chunking, else starts empty. */
+        static ChunkState open(Path file, long size, long mtime, long chunkSize) {
+            ChunkState state = new ChunkState(file, size, mtime, chunkSize);
+            try {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                if (lines.size() == 3 && lines.get(0).equals(MAGIC)
+                        && lines.get(1).equals(size + " " + mtime + " " + chunkSize)) {
+                    for (String index : lines.get(2).split(",")) {
+                        if (!index.isBlank()) state.done.set(Integer.parseInt(index.trim()));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // no usable state: start from scratch
+            }
+            return state;
+        }
+
+        int chunkCount() {
+            return (int) ((size + chunkSize - 1) / chunkSize);
+        }
+
+        synchronized boolean isEmpty() {
+            return done.isEmpty();
+        }
+
+        synchronized boolean isDone(int chunk) {
+            return done.get(chunk);
+        }
+
+        synchronized long doneBytes() {
+            long bytes = 0;
+            for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+                bytes += Math.min(chunkSize, size - (long) i * chunkSize);
+            }
+            return bytes;
+        }
+
+        /** Where the last finished chunk ends; 0 when none is. */
+        synchronized long doneEnd() {
+            int last = done.length() - 1;
+            return last < 0 ? 0 : Math.min(size, (last + 1) * chunkSize);
+        }
+
+        synchronized void reset() {
+            done.clear();
+        }
+
+        synchronized void markDone(int chunk) throws IOException {
+            done.set(chunk);
+            StringBuilder indices = new StringBuilder();
+            for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+                if (indices.length() > 0) indices.append(',');
+                indices.append(i);
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, MAGIC + "\n" + size + " " + mtime + " " + chunkSize + "\n" + indices + "\n",
+                StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.schmizz.sshj.common.Buffer;
+import net.schmizz.sshj.common.KeyType;
+import net.schmizz.sshj.common.SSHPacket;
+import net.schmizz.sshj.userauth.UserAuthException;
+import net.schmizz.sshj.userauth.keyprovider.KeyProvider;
+import net.schmizz.sshj.userauth.method.AuthPublickey;
+
+/**
+ * Client for an OpenSSH-compatible key agent ({@code SSH_AUTH_SOCK}).
+ *
+ * Only the two requests public key authentication needs are implemented:
+ * listing identities and signing. Each request uses its own short-lived
+ * connection to the agent's Unix socket, so one instance can be shared.
+ */
+public class SshAgent {
+
+    private static final byte REQUEST_IDENTITIES = 11;
+    private static final byte IDENTITIES_ANSWER = 12;
+    private static final byte SIGN_REQUEST = 13;
+    private static final byte SIGN_RESPONSE = 14;
+    private static final int RSA_SHA2_256 = 2;
+    private static final int RSA_SHA2_512 = 4;
+    private static final int MAX_MESSAGE = 256 * 1024;
+
+    /** A key held by the agent. */
+    public record Identity(byte[] blob, String comment, PublicKey key) {
+        public String fingerprint() {
+            return KnownHostsIndex.fingerprint(key);
+        }
+    }
+
+    private final Path socket;
+
+    public SshAgent(Path socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * The agent named by ssh_config {@code IdentityAgent}, else {@code SSH_AUTH_SOCK};
+     * null when there is none or it is disabled with {@code none}.
+     */
+    public static Path socketFor(String identityAgent) {
+        String path = identityAgent;
+        if (path == null || path.isBlank() || path.equals("SSH_AUTH_SOCK")) path = System.getenv("SSH_AUTH_SOCK");
+        if (path == null || path.isBlank() || path.equalsIgnoreCase("none")) return null;
+        if (path.startsWith("~")) path = System.getProperty("user.home") + path.substring(1);
+        Path p = Path.of(path);
+        return Files.exists(p) ? p : null;
+    }
+
+    public Path getSocket() {
+        return socket;
+    }
+
+    /** Keys the agent offers; keys sshj cannot parse are left out. */
+    public List<Identity> identities() throws IOException {
+        Buffer.PlainBuffer reply = call(new Buffer.PlainBuffer().putByte(REQUEST_IDENTITIES), IDENTITIES_ANSWER);
+        try {
+            int count = reply.readUInt32AsInt();
+            List<Identity> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] blob = reply.readBytes();
+                String comment = reply.readString();
+                try {
+                    result.add(new Identity(blob, comment, new Buffer.PlainBuffer(blob).readPublicKey()));
+                } catch (Buffer.BufferException | RuntimeException e) {
+                    // certificate or key type sshj does not know; skip it
+                }
+            }
+            return result;
+        } catch (Buffer.BufferException e) {
+            throw new IOException("Malformed agent reply", e);
+        }
+    }
+
+    /**
+     * Signs {@code data} with the agent's key {@code blob}; returns the SSH
+     * signature encoding (algorithm name followed by the signature bytes).
+     */
+    public byte[] sign(byte[] blob, byte[] data, String algorithm) throws IOException {
+        int flags = switch (algorithm) {
+            case "rsa-sha2-256" -> RSA_SHA2_256;
+            case "rsa-sha2-512" -> RSA_SHA2_512;
+            default -> 0;
+        };
+        Buffer.PlainBuffer request = new Buffer.PlainBuffer()
+            .putByte(SIGN_REQUEST).putBytes(blob).putBytes(data).putUInt32(flags);
+        try {
+            return call(request, SIGN_RESPONSE).readBytes();
+        } catch (Buffer.BufferException e) {
+            throw new IOException("Malformed agent reply", e);
+        }
+    }
+
+    /** Public key authentication with an agent-held key. */
+    public AuthPublickey authMethod(Identity identity) {
+        return new AgentAuth(this, identity);
+    }
+
+    private Buffer.PlainBuffer call(Buffer.PlainBuffer request, byte expected) throws IOException {
+        try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            ch.connect(UnixDomainSocketAddress.of(socket));
+            byte[] body = request.getCompactData();
+            ByteBuffer out = ByteBuffer.allocate(4 + body.length).putInt(body.length).put(body).flip();
+            while (out.hasRemaining()) ch.write(out);
+
+            ByteBuffer header = readFully(ch, ByteBuffer.allocate(4));
+            int length = header.getInt();
+            if (length <= 0 || length > MAX_MESSAGE) throw new IOException("Bad agent message length " + length);
+            byte[] reply = readFully(ch, ByteBuffer.allocate(length)).array();
+            if (reply[0] != expected) throw new IOException("Agent refused the request (reply type " + reply[0] + ")");
+            Buffer.PlainBuffer buf = new Buffer.PlainBuffer(reply);
+            buf.rpos(1);
+            return buf;
+        }
+    }
+
+    private static ByteBuffer readFully(SocketChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) throw new EOFException("Agent closed the connection");
+        }
+        return buf.flip();
+    }
+
+    /**
+     * AuthPublickey whose signature comes from the agent. The algorithm sshj
+     * negotiated for the key (e.g. rsa-sha2-512) is read back from the request.
+     */
+    private static final class AgentAuth extends AuthPublickey {
+
+        private final SshAgent agent;
+        private final Identity identity;
+
+        AgentAuth(SshAgent agent, Identity identity) {
+            super(new KeyProvider() {
+                @Override
+                public PrivateKey getPrivate() throws IOException {
+                    throw new IOException("Private key is held by the agent");
+                }
+
+                @Override
+                public PublicKey getPublic() {
+                    return identity.key();
+                }
+
+                @Override
+                public KeyType getType() {
+                    return KeyType.fromKey(identity.key());
+                }
+
+                @Override
+                public String toString() {
+                    return "agent:" + identity.comment();
+                }
+            });
+            this.agent = agent;
+            this.identity = identity;
+        }
+
+        @Override
+        protected SSHPacket putSig(SSHPacket reqBuf) throws UserAuthException {
+            byte[] request = reqBuf.getCompactData();
+            try {
+                // msg id, user, service, "publickey", true, algorithm, key
+                Buffer.PlainBuffer fields = new Buffer.PlainBuffer(request);
+                fields.readByte();
+                fields.readString();
+                fields.readString();
+                fields.readString();
+                fields.readBoolean();
+                String algorithm = fields.readString();
+
+                byte[] signed = new Buffer.PlainBuffer()
+                    .putString(params.getTransport().getSessionID())
+                    .putRawBytes(request)
+                    .getCompactData();
+                return reqBuf.putString(agent.sign(identity.blob(), signed, algorithm));
+            } catch (IOException e) {
+                throw new UserAuthException("Agent could not sign with " + identity.comment(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.schmizz.sshj.Config;
+import net.schmizz.sshj.SSHClient;
+
+/**
+ * SSHClient that records how long the transport handshake took, so connect time
+ * can be split into the TCP connect and the version/key exchange.
+ *
+ * It also runs cleanup hooks on disconnect, so a transport that runs over a
+ * bastion can give back its lease on the bastion when it goes away.
+ */
+public class TimedSSHClient extends SSHClient {
+
+    private volatile long handshakeNanos;
+    private final List<Runnable> disconnectHooks = new CopyOnWriteArrayList<>();
+
+    public TimedSSHClient(Config config) {
+        super(config);
+    }
+
+    @Override
+    protected void onConnect() throws IOException {
+        // Called once the socket is connected; runs the ident and key exchange
+        long start = System.nanoTime();
+        try {
+            super.onConnect();
+        } finally {
+            handshakeNanos = System.nanoTime() - start;
+        }
+    }
+
+    public long getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    /** Runs {@code hook} once, after the first disconnect. */
+    public void onDisconnect(Runnable hook) {
+        disconnectHooks.add(hook);
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        try {
+            super.disconnect();
+        } finally {
+            for (Runnable hook : disconnectHooks) {
+                if (disconnectHooks.remove(hook)) hook.run();
+            }
+        }
+    }
+}
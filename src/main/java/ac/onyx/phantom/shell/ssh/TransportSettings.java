@@ -0,0 +1,165 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import net.schmizz.keepalive.KeepAlive;
+import net.schmizz.keepalive.KeepAliveProvider;
+import net.schmizz.keepalive.KeepAliveRunner;
+import net.schmizz.sshj.DefaultConfig;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.Factory;
+import net.schmizz.sshj.transport.compression.DelayedZlibCompression;
+import net.schmizz.sshj.transport.compression.NoneCompression;
+import net.schmizz.sshj.transport.compression.ZlibCompression;
+
+/**
+ * Transport options for one host, taken from its resolved ssh_config entry.
+ *
+ * Understood keywords: {@code Compression}, {@code Ciphers}, {@code MACs},
+ * {@code KexAlgorithms}, {@code HostKeyAlgorithms} (with OpenSSH's {@code +}, {@code -}
+ * and {@code ^} list prefixes), {@code ServerAliveInterval}, {@code ServerAliveCountMax}
+ * and {@code ConnectTimeout}. ssh_config has no keyword for channel windows, so
+ * {@code PhantomWindowSize} and {@code PhantomMaxPacketSize} (sizes like {@code 8M})
+ * set them; list them under {@code IgnoreUnknown} to keep OpenSSH happy.
+ * Algorithms sshj does not implement are skipped.
+ */
+public record TransportSettings(boolean compression,
+                                String ciphers,
+                                String macs,
+                                String kexAlgorithms,
+                                String hostKeyAlgorithms,
+                                int serverAliveInterval,
+                                int serverAliveCountMax,
+                                int connectTimeoutSeconds,
+                                long windowSize,
+                                int maxPacketSize) {
+
+    /** Defaults when the config says nothing (sshj's windows, the pool's keepalive). */
+    public static final TransportSettings DEFAULTS = new TransportSettings(false, null, null, null, null,
+        SSHConnectionPool.KEEP_ALIVE_INTERVAL_SECONDS, 3, 0, 0, 0);
+
+    public static TransportSettings of(SSHConfig host) {
+        return new TransportSettings(
+            "yes".equalsIgnoreCase(host.get("compression")),
+            host.get("ciphers"),
+            host.get("macs"),
+            host.get("kexalgorithms"),
+            host.get("hostkeyalgorithms"),
+            intOption(host.get("serveraliveinterval"), DEFAULTS.serverAliveInterval()),
+            intOption(host.get("serveralivecountmax"), DEFAULTS.serverAliveCountMax()),
+            intOption(host.get("connecttimeout"), 0),
+            size(host.get("phantomwindowsize")),
+            (int) size(host.get("phantommaxpacketsize")));
+    }
+
+    /**
+     * A fresh sshj config with this host's algorithm preferences.
+     */
+    public DefaultConfig config() {
+        DefaultConfig config = new DefaultConfig();
+        config.setKeepAliveProvider(KeepAliveProvider.KEEP_ALIVE);
+        config.setCipherFactories(select(config.getCipherFactories(), ciphers));
+        config.setMACFactories(select(config.getMACFactories(), macs));
+        config.setKeyExchangeFactories(select(config.getKeyExchangeFactories(), kexAlgorithms));
+        config.setKeyAlgorithms(select(config.getKeyAlgorithms(), hostKeyAlgorithms));
+        if (compression) {
+            // Same order as SSHClient.useCompression(): delayed zlib, zlib, then none
+            config.setCompressionFactories(List.of(
+                new DelayedZlibCompression.Factory(), new ZlibCompression.Factory(), new NoneCompression.Factory()));
+        }
+        return config;
+    }
+
+    /**
+     * Applies the per-connection settings to a client built from {@link #config()}.
+     */
+    public void apply(SSHClient client) {
+        if (connectTimeoutSeconds > 0) client.setConnectTimeout(connectTimeoutSeconds * 1000);
+        if (windowSize > 0) client.getConnection().setWindowSize(windowSize);
+        if (maxPacketSize > 0) client.getConnection().setMaxPacketSize(maxPacketSize);
+        KeepAlive keepAlive = client.getConnection().getKeepAlive();
+        keepAlive.setKeepAliveInterval(Math.max(0, serverAliveInterval));
+        if (keepAlive instanceof KeepAliveRunner runner && serverAliveCountMax > 0) {
+            runner.setMaxAliveCount(serverAliveCountMax);
+        }
+    }
+
+    /**
+     * Orders and filters sshj's algorithms by an OpenSSH algorithm list: a plain
+     * list replaces the defaults, {@code +} appends, {@code -} removes and
+     * {@code ^} moves to the front. Patterns may use wildcards.
+     */
+    static <T> List<Factory.Named<T>> select(List<Factory.Named<T>> available, String spec) {
+        if (spec == null || spec.isBlank()) return available;
+        char op = spec.charAt(0);
+        String list = (op == '+' || op == '-' || op == '^') ? spec.substring(1) : spec;
+
+        Map<String, Factory.Named<T>> byName = new LinkedHashMap<>();
+        for (Factory.Named<T> f : available) byName.put(f.getName(), f);
+        List<Factory.Named<T>> named = new ArrayList<>();
+        for (String pattern : list.split(",")) {
+            HostGlob glob = HostGlob.compile(pattern.trim());
+            byName.forEach((name, f) -> {
+                if (glob.matches(name) && !named.contains(f)) named.add(f);
+            });
+        }
+
+        List<Factory.Named<T>> result = new ArrayList<>();
+        switch (op) {
+            case '+' -> {
+                result.addAll(available);
+                named.stream().filter(f -> !result.contains(f)).forEach(result::add);
+            }
+            case '-' -> available.stream().filter(f -> !named.contains(f)).forEach(result::add);
+            case '^' -> {
+                result.addAll(named);
+                available.stream().filter(f -> !named.contains(f)).forEach(result::add);
+            }
+            default -> result.addAll(named);
+        }
+        // Nothing sshj supports was listed: keep the defaults rather than fail every handshake
+        return result.isEmpty() ? available : result;
+    }
+
+    private static int intOption(String value, int defaultValue) {
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /** Parses sizes such as {@code 262144}, {@code 256K} or {@code 8M}; 0 when unset. */
+    static long size(String value) {
+        if (value == null || value.isBlank()) return 0;
+        String v = value.trim().toUpperCase();
+        long unit = 1;
+        char last = v.charAt(v.length() - 1);
+        if (last == 'K' || last == 'M' || last == 'G') {
+            unit = last == 'K' ? 1024 : last == 'M' ? 1024 * 1024 : 1024L * 1024 * 1024;
+            v = v.substring(0, v.length() - 1);
+        }
+        try {
+            return Long.parseLong(v) * unit;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner sj = new StringJoiner(", ");
+        sj.add(compression ? "zlib" : "no compression");
+        if (ciphers != null) sj.add("ciphers " + ciphers);
+        if (macs != null) sj.add("macs " + macs);
+        if (kexAlgorithms != null) sj.add("kex " + kexAlgorithms);
+        if (windowSize > 0) sj.add("window " + windowSize);
+        if (maxPacketSize > 0) sj.add("packet " + maxPacketSize);
+        return sj.toString();
+    }
+}
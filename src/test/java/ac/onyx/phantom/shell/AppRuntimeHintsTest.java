@@ -0,0 +1,28 @@
+package ac.onyx.phantom.shell;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBindingProcessor;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import ac.onyx.phantom.shell.agent.AgentRequest;
+import ac.onyx.phantom.shell.agent.AgentResponse;
+
+class AppRuntimeHintsTest {
+
+    @Test
+    void agentWireRecordsAreRegisteredForBinding() throws Exception {
+        RuntimeHints hints = new RuntimeHints();
+        new RegisterReflectionForBindingProcessor().registerReflectionHints(hints.reflection(), App.class);
+
+        for (Class<?> type : new Class<?>[] { AgentRequest.class, AgentResponse.class }) {
+            assertThat(RuntimeHintsPredicates.reflection().onType(type)).accepts(hints);
+            assertThat(RuntimeHintsPredicates.reflection().onConstructor(type.getDeclaredConstructors()[0]))
+                .accepts(hints);
+        }
+        assertThat(RuntimeHintsPredicates.reflection().onMethod(AgentRequest.class, "requestId")).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onMethod(AgentResponse.class, "returncode")).accepts(hints);
+    }
+}
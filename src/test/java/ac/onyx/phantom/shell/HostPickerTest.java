@@ -0,0 +1,115 @@
+package ac.onyx.phantom.shell;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
+import org.jline.utils.AttributedString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ac.onyx.phantom.shell.ssh.HostSearchIndex;
+import ac.onyx.phantom.shell.ssh.SSHConfig;
+
+class HostPickerTest {
+
+    private static final String DOWN = "\033[B";
+
+    private final SSHConfig aa = host("aa");
+    private final SSHConfig bb = host("bb");
+    private final SSHConfig cc = host("cc");
+    // Most recently used first: aa, bb, cc
+    private final Map<String, Long> lastUsed = Map.of("aa", 3L, "bb", 2L, "cc", 1L);
+    private final HostSearchIndex index = new HostSearchIndex(List.of(aa, bb, cc), alias -> lastUsed.getOrDefault(alias, 0L));
+    private final AtomicLong generation = new AtomicLong();
+
+    private PipedOutputStream keys;
+    private Terminal terminal;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        keys = new PipedOutputStream();
+        terminal = TerminalBuilder.builder()
+            .system(false)
+            .streams(new PipedInputStream(keys), new ByteArrayOutputStream())
+            .type("xterm")
+            .size(new Size(80, 24))
+            .build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        keys.close();
+        terminal.close();
+    }
+
+    @Test
+    void picksTheHighlightedHost() throws Exception {
+        CompletableFuture<SSHConfig> choice = start();
+
+        type(DOWN + "\r");
+
+        assertThat(choice.get(5, TimeUnit.SECONDS)).isSameAs(bb);
+    }
+
+    @Test
+    void theCursorStaysOnItsHostWhenStatusUpdatesReRankTheList() throws Exception {
+        CompletableFuture<SSHConfig> choice = start();
+        type(DOWN);
+        Thread.sleep(200);
+
+        // cc answers its probe and moves to the top, pushing bb down a row
+        index.setReachability(cc, HostSearchIndex.UP);
+        generation.incrementAndGet();
+        Thread.sleep(500);
+        type("\r");
+
+        assertThat(choice.get(5, TimeUnit.SECONDS)).isSameAs(bb);
+        assertThat(index.search("", 3).matches()).extracting(HostSearchIndex.Match::host).containsExactly(cc, aa, bb);
+    }
+
+    @Test
+    void escapeCancels() throws Exception {
+        CompletableFuture<SSHConfig> choice = start();
+
+        type("\033");
+
+        assertThat(choice.get(5, TimeUnit.SECONDS)).isNull();
+    }
+
+    private CompletableFuture<SSHConfig> start() {
+        HostPicker picker = new HostPicker(terminal, index, "Select a remote")
+            .withStatus(h -> new AttributedString(""), generation::get);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return picker.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private void type(String text) throws Exception {
+        keys.write(text.getBytes(StandardCharsets.UTF_8));
+        keys.flush();
+    }
+
+    private static SSHConfig host(String alias) {
+        SSHConfig host = new SSHConfig();
+        host.addPattern(alias);
+        host.set("hostname", alias + ".example.com");
+        return host;
+    }
+}
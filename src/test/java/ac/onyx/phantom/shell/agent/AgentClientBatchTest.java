@@ -0,0 +1,110 @@
+package ac.onyx.phantom.shell.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.EOFException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AgentClientBatchTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private Path dir;
+    private StubAgentServer server;
+    private AgentClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("agent-batch");
+        server = new StubAgentServer(dir.resolve("agent.sock"), 0);
+        client = new AgentClient("t", server.getSocketPath());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        server.close();
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    void resultsArriveInCompletionOrderAndKeepTheirIndex() {
+        List<String[]> batch = List.of(
+            new String[] { "sleep", "300" },
+            new String[] { "sleep", "100" },
+            new String[] { "echo", "fast" });
+        List<AgentClient.BatchResult> seen = new ArrayList<>();
+
+        List<AgentClient.BatchResult> results = assertTimeoutPreemptively(TIMEOUT,
+            () -> client.executeBatch(batch, 3, seen::add));
+
+        assertThat(results).extracting(AgentClient.BatchResult::index).containsExactly(2, 1, 0);
+        assertThat(seen).isEqualTo(results);
+        assertThat(results).allMatch(AgentClient.BatchResult::ok);
+        assertThat(results.get(0).command()).isEqualTo("echo");
+        assertThat(results.get(0).args()).containsExactly("fast");
+        assertThat(results.get(0).response().stdout()).isEqualTo("echo fast\n");
+    }
+
+    @Test
+    void keepsAtMostConcurrencyRequestsInFlight() {
+        List<String[]> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) batch.add(new String[] { "sleep", "30" });
+
+        List<AgentClient.BatchResult> results = assertTimeoutPreemptively(TIMEOUT,
+            () -> client.executeBatch(batch, 4, r -> {}));
+
+        assertThat(results).hasSize(20).allMatch(AgentClient.BatchResult::ok);
+        assertThat(server.getMaxActive()).isBetween(1, 4);
+        assertThat(server.getReceived("sleep")).isEqualTo(20);
+    }
+
+    @Test
+    void aFailingCommandDoesNotStopTheRest() {
+        List<String[]> batch = List.of(
+            new String[] { "echo", "a" },
+            new String[] { "exit", "3" },
+            new String[] { "echo", "b" });
+
+        List<AgentClient.BatchResult> results = assertTimeoutPreemptively(TIMEOUT,
+            () -> client.executeBatch(batch, 2, r -> {}));
+
+        assertThat(results).hasSize(3);
+        AgentClient.BatchResult failed = results.stream().filter(r -> r.index() == 1).findFirst().orElseThrow();
+        assertThat(failed.ok()).isFalse();
+        assertThat(failed.failure()).isNull();
+        assertThat(failed.response().exitCode()).isEqualTo(3);
+        assertThat(results).filteredOn(r -> r.index() != 1).allMatch(AgentClient.BatchResult::ok);
+    }
+
+    @Test
+    void completesWithFailuresWhenTheAgentHangsUpMidBatch() throws Exception {
+        // Let the client settle on one pipelined connection, so the hangup drops the whole batch
+        client.execute("echo", "warm-up");
+        Thread.sleep(AgentConnection.PROBE_GRACE_MS * 3);
+        List<String[]> batch = List.of(
+            new String[] { "sleep", "300" },
+            new String[] { "sleep", "300" },
+            new String[] { "hangup" });
+
+        List<AgentClient.BatchResult> results = assertTimeoutPreemptively(TIMEOUT,
+            () -> client.executeBatch(batch, 3, r -> {}));
+
+        assertThat(results).hasSize(3).noneMatch(AgentClient.BatchResult::ok);
+        assertThat(results).allSatisfy(r -> {
+            assertThat(r.failure()).isInstanceOf(EOFException.class);
+            assertThat(r.response()).isNull();
+        });
+        // Nothing was sent twice
+        assertThat(server.getReceived("sleep")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,99 @@
+package ac.onyx.phantom.shell.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class AgentCodecTest {
+
+    @Test
+    void requestRoundTripsThroughAFrame() throws Exception {
+        AgentRequest request = new AgentRequest("tok", "ls", new String[] { "-la", "/tmp" }, "id-1", true);
+        ByteBuffer frame = AgentCodec.encode(request, new AgentCodec.FrameBuffer());
+
+        assertThat(frame.getInt(frame.position())).isEqualTo(frame.remaining() - 4);
+        AgentRequest decoded = new AgentCodec.FrameReader().readRequest(channel(copy(frame)));
+        assertThat(decoded.command()).isEqualTo("ls");
+        assertThat(decoded.args()).containsExactly("-la", "/tmp");
+        assertThat(decoded.requestId()).isEqualTo("id-1");
+        assertThat(decoded.stream()).isTrue();
+    }
+
+    @Test
+    void streamFlagIsOnlyWrittenWhenSet() throws Exception {
+        AgentCodec.FrameBuffer buf = new AgentCodec.FrameBuffer();
+        AgentCodec.encode(new AgentRequest("", "ls", new String[0], "id", false), buf);
+        ByteBuffer body = buf.body();
+        String json = new String(body.array(), body.position(), body.remaining(), StandardCharsets.UTF_8);
+
+        // Everything else is always written, empty or not, as the agent expects
+        assertThat(json).contains("\"request_id\":\"id\"", "\"args\":[]", "\"token\":\"\"").doesNotContain("stream");
+
+        AgentCodec.encode(new AgentRequest("tok", "ls", null, "id", true), buf);
+        body = buf.body();
+        json = new String(body.array(), body.position(), body.remaining(), StandardCharsets.UTF_8);
+
+        assertThat(json).contains("\"args\":null", "\"stream\":true");
+    }
+
+    @Test
+    void readsFramesSplitAcrossManyReads() throws Exception {
+        AgentCodec.FrameBuffer buf = new AgentCodec.FrameBuffer();
+        byte[] first = copy(AgentCodec.encode(AgentResponse.output("a", "x".repeat(20_000), "", 0), buf));
+        byte[] second = copy(AgentCodec.encode(AgentResponse.exit("b", 3), buf));
+        byte[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+
+        // At most 7 bytes per read, so headers and bodies arrive in pieces
+        ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(both) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        });
+        AgentCodec.FrameReader reader = new AgentCodec.FrameReader();
+
+        AgentResponse one = reader.readResponse(in);
+        AgentResponse two = reader.readResponse(in);
+        assertThat(one.requestId()).isEqualTo("a");
+        assertThat(one.stdout()).hasSize(20_000);
+        assertThat(two.requestId()).isEqualTo("b");
+        assertThat(two.exitCode()).isEqualTo(3);
+    }
+
+    @Test
+    void truncatedFrameIsAnEof() throws Exception {
+        byte[] frame = copy(AgentCodec.encode(AgentResponse.exit("a", 0), new AgentCodec.FrameBuffer()));
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 2);
+
+        assertThatThrownBy(() -> new AgentCodec.FrameReader().readResponse(channel(truncated)))
+            .isInstanceOf(EOFException.class);
+    }
+
+    @Test
+    void unknownResponseFieldsAreIgnored() throws Exception {
+        byte[] json = "{\"request_id\":\"a\",\"returncode\":2,\"extra\":{\"x\":1}}".getBytes(StandardCharsets.UTF_8);
+
+        AgentResponse response = AgentCodec.decodeResponse(json, 0, json.length);
+        assertThat(response.exitCode()).isEqualTo(2);
+        assertThat(response.isError()).isFalse();
+    }
+
+    private static byte[] copy(ByteBuffer frame) {
+        return Arrays.copyOfRange(frame.array(), frame.arrayOffset() + frame.position(),
+            frame.arrayOffset() + frame.limit());
+    }
+
+    private static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,134 @@
+package ac.onyx.phantom.shell.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.EOFException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AgentConnectionTest {
+
+    private Path dir;
+    private StubAgentServer server;
+    private AgentConnection connection;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("agent-conn");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (connection != null) connection.close();
+        if (server != null) server.close();
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    void pipelinesOnOneConnectionOnceTheAgentKeepsItOpen() throws Exception {
+        start(false);
+        assertThat(send("echo", "first").get(5, TimeUnit.SECONDS).stdout()).isEqualTo("echo first\n");
+        awaitMode(AgentConnection.Mode.PIPELINED);
+
+        List<CompletableFuture<AgentResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) futures.add(send("echo", Integer.toString(i)));
+        for (int i = 0; i < 50; i++) {
+            assertThat(futures.get(i).get(5, TimeUnit.SECONDS).stdout()).isEqualTo("echo " + i + "\n");
+        }
+        assertThat(server.getConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void fallsBackToAConnectionPerRequestForOneShotAgents() throws Exception {
+        start(true);
+        assertThat(send("echo", "first").get(5, TimeUnit.SECONDS).exitCode()).isZero();
+        awaitMode(AgentConnection.Mode.ONE_SHOT);
+
+        List<CompletableFuture<AgentResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) futures.add(send("echo", Integer.toString(i)));
+        for (int i = 0; i < 20; i++) {
+            assertThat(futures.get(i).get(5, TimeUnit.SECONDS).stdout()).isEqualTo("echo " + i + "\n");
+        }
+        // Every request ran exactly once, each on its own connection
+        assertThat(server.getReceived("echo")).isEqualTo(21);
+        assertThat(server.getConnections()).isEqualTo(21);
+    }
+
+    @Test
+    void requestsSentBeforeDetectionStillWorkAgainstOneShotAgents() throws Exception {
+        start(true);
+        List<CompletableFuture<AgentResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) futures.add(send("echo", Integer.toString(i)));
+
+        for (CompletableFuture<AgentResponse> f : futures) assertThat(f.get(5, TimeUnit.SECONDS).exitCode()).isZero();
+        assertThat(server.getReceived("echo")).isEqualTo(10);
+    }
+
+    @Test
+    void requestsInFlightWhenTheAgentHangsUpFailAndAreNotResent() throws Exception {
+        start(false);
+        send("echo", "warm-up").get(5, TimeUnit.SECONDS);
+        awaitMode(AgentConnection.Mode.PIPELINED);
+
+        List<CompletableFuture<AgentResponse>> sleeps = new ArrayList<>();
+        for (int i = 0; i < 3; i++) sleeps.add(send("sleep", "300"));
+        send("hangup");
+
+        for (CompletableFuture<AgentResponse> f : sleeps) {
+            assertThatThrownBy(() -> f.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(EOFException.class);
+        }
+        Thread.sleep(AgentConnection.PROBE_GRACE_MS * 2);
+        assertThat(server.getReceived("sleep")).isEqualTo(3);
+
+        // The next request reconnects, and the agent is still treated as pipelining
+        assertThat(send("echo", "again").get(5, TimeUnit.SECONDS).stdout()).isEqualTo("echo again\n");
+        assertThat(connection.getMode()).isEqualTo(AgentConnection.Mode.PIPELINED);
+    }
+
+    @Test
+    void streamingChunksReachTheListenerBeforeTheFinalFrame() throws Exception {
+        start(false);
+        List<String> chunks = new ArrayList<>();
+        AgentRequest request = new AgentRequest("t", "repeat", new String[] { "3", "line" },
+            UUID.randomUUID().toString(), true);
+
+        AgentResponse last = connection.send(request, chunk -> chunks.add(chunk.data())).get(5, TimeUnit.SECONDS);
+        assertThat(chunks).containsExactly("line\n", "line\n", "line\n");
+        assertThat(last.exitCode()).isZero();
+    }
+
+    @Test
+    void failsWhenNoAgentIsListening() {
+        connection = new AgentConnection(dir.resolve("missing.sock"));
+
+        assertThatThrownBy(() -> send("echo").get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+    }
+
+    private void start(boolean oneShot) throws Exception {
+        server = new StubAgentServer(dir.resolve("agent.sock"), 0, oneShot);
+        connection = new AgentConnection(server.getSocketPath());
+    }
+
+    private CompletableFuture<AgentResponse> send(String command, String... args) {
+        return connection.send(new AgentRequest("t", command, args, UUID.randomUUID().toString(), false));
+    }
+
+    private void awaitMode(AgentConnection.Mode mode) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connection.getMode() != mode && System.nanoTime() < deadline) Thread.sleep(10);
+        assertThat(connection.getMode()).isEqualTo(mode);
+    }
+}
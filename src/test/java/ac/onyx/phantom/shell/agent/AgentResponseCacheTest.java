@@ -0,0 +1,107 @@
+package ac.onyx.phantom.shell.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.EOFException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class AgentResponseCacheTest {
+
+    private final AgentResponseCache cache = new AgentResponseCache(2);
+    private final AtomicInteger sent = new AtomicInteger();
+
+    @Test
+    void servesRepeatsFromTheCacheWhileFresh() {
+        cache.setTtl("status", Duration.ofMinutes(1));
+
+        assertThat(cache.get("status", new String[0], this::answer).join().stdout()).isEqualTo("1");
+        assertThat(cache.get("status", new String[0], this::answer).join().stdout()).isEqualTo("1");
+        assertThat(sent).hasValue(1);
+        assertThat(cache.stats().hits()).isEqualTo(1);
+    }
+
+    @Test
+    void commandsWithoutTtlAreAlwaysSent() {
+        cache.get("uptime", null, this::answer).join();
+        cache.get("uptime", null, this::answer).join();
+
+        assertThat(sent).hasValue(2);
+        assertThat(cache.stats().entries()).isZero();
+    }
+
+    @Test
+    void identicalRequestsInFlightShareOneSend() {
+        cache.setTtl("status", Duration.ofMinutes(1));
+        CompletableFuture<AgentResponse> reply = new CompletableFuture<>();
+
+        CompletableFuture<AgentResponse> first = cache.get("status", null, () -> reply);
+        CompletableFuture<AgentResponse> second = cache.get("status", null, this::answer);
+        reply.complete(AgentResponse.output("x", "shared", "", 0));
+
+        assertThat(first.join().stdout()).isEqualTo("shared");
+        assertThat(second.join().stdout()).isEqualTo("shared");
+        assertThat(sent).hasValue(0);
+        assertThat(cache.stats().shared()).isEqualTo(1);
+    }
+
+    @Test
+    void callersCannotCompleteOrCancelTheCachedFuture() {
+        cache.setTtl("status", Duration.ofMinutes(1));
+        CompletableFuture<AgentResponse> reply = new CompletableFuture<>();
+
+        cache.get("status", null, () -> reply).cancel(true);
+        cache.get("status", null, this::answer).complete(AgentResponse.output("x", "forged", "", 0));
+        reply.complete(AgentResponse.output("x", "real", "", 0));
+
+        assertThat(cache.get("status", null, this::answer).join().stdout()).isEqualTo("real");
+        assertThat(sent).hasValue(0);
+    }
+
+    @Test
+    void failuresAndAgentErrorsAreNotCached() {
+        cache.setTtl("status", Duration.ofMinutes(1));
+
+        assertThat(cache.get("status", null, () -> CompletableFuture.failedFuture(new EOFException())))
+            .isCompletedExceptionally();
+        cache.get("status", null,
+            () -> CompletableFuture.completedFuture(new AgentResponse("x", null, null, null, null, null, null, "busy", null)))
+            .join();
+        cache.get("status", null, this::answer).join();
+
+        assertThat(sent).hasValue(1);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        cache.setTtl("status", Duration.ofMinutes(1));
+        cache.get("status", new String[] { "a" }, this::answer).join();
+        cache.get("status", new String[] { "b" }, this::answer).join();
+        cache.get("status", new String[] { "a" }, this::answer).join();
+        cache.get("status", new String[] { "c" }, this::answer).join();
+
+        cache.get("status", new String[] { "a" }, this::answer).join();
+        cache.get("status", new String[] { "b" }, this::answer).join();
+        assertThat(sent).hasValue(4); // a, b, c, then b again
+        assertThat(cache.stats().evictions()).isEqualTo(2);
+    }
+
+    @Test
+    void zeroTtlStopsCachingAndDropsEntries() {
+        cache.setTtl("status", Duration.ofMinutes(1));
+        cache.get("status", null, this::answer).join();
+
+        cache.setTtl("status", Duration.ZERO);
+        cache.get("status", null, this::answer).join();
+
+        assertThat(sent).hasValue(2);
+        assertThat(cache.getTtls()).isEmpty();
+    }
+
+    private CompletableFuture<AgentResponse> answer() {
+        return CompletableFuture.completedFuture(AgentResponse.output("x", Integer.toString(sent.incrementAndGet()), "", 0));
+    }
+}
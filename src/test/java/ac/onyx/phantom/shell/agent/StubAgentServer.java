@@ -0,0 +1,174 @@
+package ac.onyx.phantom.shell.agent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for phantom-agent on a Unix socket, used by the benchmarks and tests.
+ *
+ * It speaks the same length-prefixed JSON frames, echoes {@code request_id} and
+ * answers every command with {@code "<command> <args...>"} on stdout after an
+ * optional delay. Streaming requests get their output as chunk frames, and
+ * {@code repeat <n> <text>} streams n lines. {@code sleep <ms>} waits that long
+ * before answering, {@code exit <code>} answers with that return code and
+ * {@code hangup} closes the connection without answering. Requests on one
+ * connection are served concurrently, so responses can come back out of order.
+ * A one-shot server behaves like older agents: it reads one request per
+ * connection, answers it and closes the connection.
+ *
+ * Counters record connections, requests received per command and the most
+ * requests ever being served at once.
+ */
+public class StubAgentServer implements Closeable {
+
+    private final Path socketPath;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "stub-agent");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long delayMicros;
+    private final boolean oneShot;
+    private final LongAdder connections = new LongAdder();
+    private final Map<String, LongAdder> received = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    public StubAgentServer(Path socketPath, long delayMicros) throws IOException {
+        this(socketPath, delayMicros, false);
+    }
+
+    public StubAgentServer(Path socketPath, long delayMicros, boolean oneShot) throws IOException {
+        this.socketPath = socketPath;
+        this.delayMicros = delayMicros;
+        this.oneShot = oneShot;
+        Files.deleteIfExists(socketPath);
+        this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        workers.submit(this::acceptLoop);
+    }
+
+    public Path getSocketPath() { return socketPath; }
+
+    public long getConnections() { return connections.sum(); }
+
+    /** Requests received for {@code command}, answered or not. */
+    public long getReceived(String command) {
+        LongAdder n = received.get(command);
+        return n == null ? 0 : n.sum();
+    }
+
+    /** The most requests that were being served at the same time. */
+    public int getMaxActive() { return maxActive.get(); }
+
+    private void acceptLoop() {
+        try {
+            while (server.isOpen()) {
+                SocketChannel ch = server.accept();
+                connections.increment();
+                workers.submit(() -> serve(ch));
+            }
+        } catch (IOException e) {
+            // server closed
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        try (ch) {
+            AgentCodec.FrameReader frames = new AgentCodec.FrameReader();
+            while (true) {
+                AgentRequest request = frames.readRequest(ch);
+                received.computeIfAbsent(request.command(), c -> new LongAdder()).increment();
+                if ("hangup".equals(request.command())) return;
+                if (oneShot) {
+                    respond(ch, request);
+                    return;
+                }
+                workers.submit(() -> respond(ch, request));
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private void respond(SocketChannel ch, AgentRequest request) {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        AgentResponse last;
+        try {
+            if (delayMicros > 0) TimeUnit.MICROSECONDS.sleep(delayMicros);
+            if ("sleep".equals(request.command())) TimeUnit.MILLISECONDS.sleep(intArg(request, 0));
+            int code = "exit".equals(request.command()) ? intArg(request, 0) : 0;
+
+            StringBuilder out = new StringBuilder(request.command());
+            if (request.args() != null) {
+                for (String a : request.args()) out.append(' ').append(a);
+            }
+            out.append('\n');
+            String id = request.requestId();
+
+            if (request.stream()) {
+                // "repeat <n> <text>" streams n lines, one chunk each
+                int lines = "repeat".equals(request.command()) ? repeatCount(request) : 1;
+                String line = lines > 1 ? out.substring(out.indexOf(" ", 7) + 1) : out.toString();
+                for (int i = 0; i < lines; i++) {
+                    writeFrame(ch, AgentResponse.chunk(id, "stdout", line));
+                }
+                last = AgentResponse.exit(id, code);
+            } else {
+                last = AgentResponse.output(id, out.toString(), "", code);
+            }
+        } catch (IOException | InterruptedException e) {
+            return; // client went away
+        } finally {
+            // Done before the answer goes out, so a client that has it never sees the request as active
+            active.decrementAndGet();
+        }
+        try {
+            writeFrame(ch, last);
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private void writeFrame(SocketChannel ch, AgentResponse response) throws IOException {
+        synchronized (ch) {
+            AgentCodec.write(ch, AgentCodec.encode(response, AgentCodec.buffer()));
+        }
+    }
+
+    private static int repeatCount(AgentRequest request) {
+        return Math.max(1, intArg(request, 1));
+    }
+
+    private static int intArg(AgentRequest request, int defaultValue) {
+        if (request.args() != null && request.args().length > 0) {
+            try {
+                return Integer.parseInt(request.args()[0]);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        workers.shutdownNow();
+        Files.deleteIfExists(socketPath);
+    }
+}
@@ -0,0 +1,209 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sshd.core.CoreModuleProperties;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.impl.ExternalTerminal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+
+class BroadcastGroupTest {
+
+    @TempDir
+    Path dir;
+
+    private TestSshServer server;
+    private final AtomicLong read = new AtomicLong();
+    private final List<SSHClient> clients = new ArrayList<>();
+    private BroadcastGroup group;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestSshServer(dir);
+        server.getServer().setShellFactory(channel -> new Shell());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (group != null) group.close();
+        for (SSHClient client : clients) client.close();
+        server.close();
+    }
+
+    @Test
+    void aHostThatStopsReadingIsQueuedForThenLeftOut() throws Exception {
+        // A small window fills after a few keystrokes when the shell does not read
+        CoreModuleProperties.WINDOW_SIZE.set(server.getServer(), 1024L);
+        group = open(host("reader"), host("stuck"));
+        BroadcastGroup.Member reader = group.getMembers().get(0);
+        BroadcastGroup.Member stuck = group.getMembers().get(1);
+        byte[] keys = new byte[1024];
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 16; i++) group.broadcast(keys, 0, keys.length);
+            awaitRead(16 * 1024);
+            assertThat(stuck.isEnabled()).isTrue();
+
+            for (int i = 0; i < 64; i++) group.broadcast(keys, 0, keys.length);
+            awaitRead(80 * 1024);
+        });
+        assertThat(stuck.isEnabled()).isFalse();
+        assertThat(reader.isEnabled()).isTrue();
+    }
+
+    @Test
+    void aLongLineWithoutNewlinesIsShownBeforeTheHostGoesQuiet() throws Exception {
+        group = open(host("stream"));
+        ByteArrayOutputStream screen = new ByteArrayOutputStream();
+        // Not a pty terminal, so that reads with a timeout return when nothing is typed
+        try (PipedOutputStream keys = new PipedOutputStream();
+             Terminal terminal = new ExternalTerminal("test", "xterm", new PipedInputStream(keys), screen,
+                 StandardCharsets.UTF_8)) {
+            CompletableFuture<Void> running = CompletableFuture.runAsync(() -> {
+                try {
+                    group.run(terminal);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            // The shell keeps writing for seconds, never pausing long enough to count as quiet
+            long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+            while (count(screen, 'x') < 4096 && System.nanoTime() < deadline) Thread.sleep(20);
+
+            assertThat(running).isNotDone();
+            assertThat(count(screen, 'x')).isGreaterThanOrEqualTo(4096);
+            group.close();
+        }
+    }
+
+    private static long count(ByteArrayOutputStream screen, char c) {
+        return screen.toString(StandardCharsets.UTF_8).chars().filter(ch -> ch == c).count();
+    }
+
+    private void awaitRead(long bytes) throws InterruptedException {
+        while (read.get() < bytes) {
+            group.flushBacklogs();
+            Thread.sleep(5);
+        }
+        assertThat(read.get()).isEqualTo(bytes);
+    }
+
+    private BroadcastGroup open(SSHConfig... hosts) throws InterruptedException {
+        List<String> failures = new ArrayList<>();
+        BroadcastGroup opened = BroadcastGroup.open(List.of(hosts), new FanOutExec.HostConnector() {
+            @Override
+            public SSHClient open(SSHConfig host) throws IOException {
+                SSHClient client = new SSHClient();
+                client.addHostKeyVerifier(new PromiscuousVerifier());
+                client.connect(host.getHostname(), host.getPort());
+                client.authPassword(host.getUser(), "secret");
+                synchronized (clients) {
+                    clients.add(client);
+                }
+                return client;
+            }
+
+            @Override
+            public void close(SSHConfig host, SSHClient client) {
+                // closed after the test
+            }
+        }, 2, new Size(80, 24), failures::add);
+        assertThat(failures).isEmpty();
+        return opened;
+    }
+
+    private SSHConfig host(String user) {
+        SSHConfig host = new SSHConfig();
+        host.addPattern(user);
+        host.set("hostname", "127.0.0.1");
+        host.set("port", String.valueOf(server.getPort()));
+        host.set("user", user);
+        return host;
+    }
+
+    /**
+     * Reads and counts its input, except for user "stuck", which never reads, and
+     * user "stream", which writes a long line without newlines for a few seconds.
+     */
+    private final class Shell implements Command {
+        private InputStream in;
+        private OutputStream out;
+        private ExitCallback exit;
+        private Thread thread;
+
+        @Override
+        public void setInputStream(InputStream in) { this.in = in; }
+
+        @Override
+        public void setOutputStream(OutputStream out) { this.out = out; }
+
+        @Override
+        public void setErrorStream(OutputStream err) { }
+
+        @Override
+        public void setExitCallback(ExitCallback callback) { this.exit = callback; }
+
+        @Override
+        public void start(ChannelSession channel, Environment env) {
+            String user = channel.getSession().getUsername();
+            if (user.equals("stuck")) return;
+            thread = user.equals("stream") ? new Thread(this::stream, "test-shell") : new Thread(() -> {
+                byte[] buf = new byte[4096];
+                try {
+                    int n;
+                    while ((n = in.read(buf)) > 0) read.addAndGet(n);
+                } catch (IOException e) {
+                    // channel closed
+                }
+            }, "test-shell");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void stream() {
+            byte[] chunk = "x".repeat(512).getBytes(StandardCharsets.UTF_8);
+            try {
+                for (int i = 0; i < 150; i++) {
+                    out.write(chunk);
+                    out.flush();
+                    Thread.sleep(20);
+                }
+            } catch (IOException | InterruptedException e) {
+                // channel closed
+            }
+            exit.onExit(0);
+        }
+
+        @Override
+        public void destroy(ChannelSession channel) {
+            if (thread != null) thread.interrupt();
+        }
+    }
+}
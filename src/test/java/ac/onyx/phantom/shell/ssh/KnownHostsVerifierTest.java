@@ -0,0 +1,99 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class KnownHostsVerifierTest {
+
+    @TempDir
+    Path dir;
+
+    private KnownHostsIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new KnownHostsIndex(dir.resolve("known_hosts"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.close();
+    }
+
+    @Test
+    void acceptNewAddsAnUnknownKeyAtOnce() throws Exception {
+        PublicKey key = newKey();
+        KnownHostsVerifier verifier = new KnownHostsVerifier(List.of(index), null, KnownHostsVerifier.Policy.ACCEPT_NEW, false);
+
+        assertThat(verifier.verify("web", 22, key)).isTrue();
+
+        assertThat(index.lookup("web", 22)).hasSize(1);
+    }
+
+    @Test
+    void aHeldKeyIsOnlyAddedOnCommit() throws Exception {
+        PublicKey key = newKey();
+        KnownHostsVerifier verifier = new KnownHostsVerifier(List.of(index), null, KnownHostsVerifier.Policy.ACCEPT_NEW, false)
+            .holdNewKeys();
+
+        assertThat(verifier.verify("web", 2222, key)).isTrue();
+        assertThat(index.lookup("web", 2222)).isEmpty();
+        assertThat(dir.resolve("known_hosts")).doesNotExist();
+
+        verifier.commitNewKey();
+        verifier.commitNewKey();
+
+        assertThat(index.lookup("web", 2222)).extracting(KnownHostsIndex.HostKey::blob)
+            .containsExactly(KnownHostsIndex.blob(key));
+    }
+
+    @Test
+    void aHeldKeyAddedMeanwhileIsNotAddedTwice() throws Exception {
+        PublicKey key = newKey();
+        KnownHostsVerifier held = new KnownHostsVerifier(List.of(index), null, KnownHostsVerifier.Policy.ACCEPT_NEW, false)
+            .holdNewKeys();
+        assertThat(held.verify("web", 22, key)).isTrue();
+
+        index.add("web", 22, key, false).get();
+        held.commitNewKey();
+
+        assertThat(index.lookup("web", 22)).hasSize(1);
+        assertThat(Files.readAllLines(dir.resolve("known_hosts"))).hasSize(1);
+    }
+
+    @Test
+    void anAddedKeyIsListedOnceAfterTheFileIsReloaded() throws Exception {
+        PublicKey key = newKey();
+        index.add("web", 22, key, false).get();
+
+        // Someone else edits the file, so the next lookup reloads it with our appended line
+        Files.writeString(dir.resolve("known_hosts"), "# edited\n", StandardOpenOption.APPEND);
+
+        assertThat(index.lookup("web", 22)).hasSize(1);
+    }
+
+    @Test
+    void strictRejectsAnUnknownKey() throws Exception {
+        KnownHostsVerifier verifier = new KnownHostsVerifier(List.of(index), null, KnownHostsVerifier.Policy.STRICT, false);
+
+        assertThat(verifier.verify("web", 22, newKey())).isFalse();
+        assertThat(verifier.getProblem()).contains("StrictHostKeyChecking is yes");
+    }
+
+    private static PublicKey newKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        return generator.generateKeyPair().getPublic();
+    }
+}
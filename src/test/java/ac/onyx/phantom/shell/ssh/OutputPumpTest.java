@@ -0,0 +1,121 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class OutputPumpTest {
+
+    /** Remembers what had been written at each flush. */
+    private static final class RecordingSink extends ByteArrayOutputStream {
+        final BlockingQueue<String> flushed = new LinkedBlockingQueue<>();
+        int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            writes++;
+        }
+
+        @Override
+        public void flush() {
+            flushed.add(toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Serves {@code size} bytes in small reads, always reporting the rest as available. */
+    private static final class StreamingSource extends InputStream {
+        private int remaining;
+
+        StreamingSource(int size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            return remaining-- > 0 ? 'x' : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) return -1;
+            int n = Math.min(Math.min(len, 512), remaining);
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+    }
+
+    @Test
+    void flushesAsSoonAsTheSourceHasNothingMoreBuffered() throws Exception {
+        PipedOutputStream remote = new PipedOutputStream();
+        PipedInputStream source = new PipedInputStream(remote);
+        RecordingSink sink = new RecordingSink();
+        // A deadline this long would hold the echo back if the pump waited for it
+        OutputPump pump = new OutputPump(source, sink, () -> true, 1024, 60_000);
+        Thread thread = new Thread(pump);
+        thread.start();
+
+        remote.write("ls\n".getBytes(StandardCharsets.UTF_8));
+        remote.flush();
+        assertThat(sink.flushed.poll(2, TimeUnit.SECONDS)).isEqualTo("ls\n");
+
+        remote.write("a".getBytes(StandardCharsets.UTF_8));
+        remote.flush();
+        assertThat(sink.flushed.poll(2, TimeUnit.SECONDS)).isEqualTo("ls\na");
+
+        remote.close();
+        thread.join(2000);
+        assertThat(thread.isAlive()).isFalse();
+        assertThat(pump.getBytes()).isEqualTo(4);
+    }
+
+    @Test
+    void sustainedOutputIsFlushedOnlyWhenItStops() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        OutputPump pump = new OutputPump(new StreamingSource(1 << 20), sink, () -> true, 64 * 1024, 60_000);
+
+        pump.pump();
+
+        assertThat(pump.getBytes()).isEqualTo(1 << 20);
+        assertThat(sink.size()).isEqualTo(1 << 20);
+        // Each write carries a whole buffer drained from many small reads
+        assertThat(sink.writes).isEqualTo(16);
+        assertThat(pump.getReads()).isEqualTo((1 << 20) / 512);
+        assertThat(pump.getFlushes()).isEqualTo(1);
+    }
+
+    @Test
+    void sustainedOutputIsFlushedEveryDeadline() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        OutputPump pump = new OutputPump(new StreamingSource(1 << 20), sink, () -> true, 64 * 1024, 0);
+
+        pump.pump();
+
+        assertThat(pump.getFlushes()).isEqualTo(16);
+    }
+
+    @Test
+    void stopsOnceTheChannelCloses() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        OutputPump pump = new OutputPump(new StreamingSource(1 << 20), sink, () -> false);
+
+        pump.pump();
+
+        assertThat(pump.getBytes()).isZero();
+        assertThat(pump.getFlushes()).isZero();
+    }
+}
@@ -0,0 +1,205 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.schmizz.sshj.SSHClient;
+
+class PortForwarderTest {
+
+    /** What the target service does with one connection. */
+    @FunctionalInterface
+    private interface Service {
+        void serve(Socket socket) throws IOException;
+    }
+
+    @TempDir
+    Path dir;
+
+    private TestSshServer sshd;
+    private SSHClient client;
+    private ServerSocket target;
+    private PortForwarder forwarder;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        sshd = new TestSshServer(dir);
+        client = sshd.connect();
+        target = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (forwarder != null) forwarder.close();
+        client.disconnect();
+        sshd.close();
+        target.close();
+        threads.shutdownNow();
+    }
+
+    @Test
+    void relaysDataBothWaysOnSeveralConnectionsAtOnce() throws Exception {
+        start(socket -> {
+            // Echo until EOF, then half-close back
+            socket.getInputStream().transferTo(socket.getOutputStream());
+            socket.shutdownOutput();
+        });
+
+        List<CompletableFuture<Void>> clients = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            byte[] data = new byte[512 * 1024 + c];
+            new Random(c).nextBytes(data);
+            clients.add(CompletableFuture.runAsync(() -> {
+                try (Socket socket = connect()) {
+                    CompletableFuture<byte[]> echoed = readAll(socket);
+                    socket.getOutputStream().write(data);
+                    socket.shutdownOutput();
+                    assertThat(echoed.get(10, TimeUnit.SECONDS)).isEqualTo(data);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, threads));
+        }
+        CompletableFuture.allOf(clients.toArray(new CompletableFuture[0])).get(20, TimeUnit.SECONDS);
+
+        long total = 4L * 512 * 1024 + 6;
+        assertThat(forwarder.getAccepted()).isEqualTo(4);
+        assertThat(forwarder.getBytesOut()).isEqualTo(total);
+        assertThat(forwarder.getBytesIn()).isEqualTo(total);
+        awaitIdle();
+    }
+
+    @Test
+    void localHalfCloseReachesTheTargetWhichCanStillAnswer() throws Exception {
+        start(socket -> {
+            // Answers only after the client has finished sending
+            long n = socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+            socket.getOutputStream().write(("got " + n).getBytes(StandardCharsets.UTF_8));
+            socket.close();
+        });
+
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(new byte[100_000]);
+            socket.shutdownOutput();
+
+            assertThat(new String(readAll(socket).get(10, TimeUnit.SECONDS), StandardCharsets.UTF_8))
+                .isEqualTo("got 100000");
+        }
+        awaitIdle();
+    }
+
+    @Test
+    void remoteEofReachesTheLocalClientAfterItsData() throws Exception {
+        // The test server closes the channel once the target stops sending, so this
+        // covers EOF and close arriving together rather than a lasting half-close
+        start(socket -> {
+            socket.getOutputStream().write("hello".getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+        });
+
+        try (Socket socket = connect()) {
+            InputStream in = socket.getInputStream();
+            assertThat(new String(in.readNBytes(5), StandardCharsets.UTF_8)).isEqualTo("hello");
+            assertThat(in.read()).isEqualTo(-1);
+        }
+        awaitIdle();
+        assertThat(forwarder.getBytesIn()).isEqualTo(5);
+    }
+
+    @Test
+    void closesTheLocalSocketWhenTheChannelCannotBeOpened() throws Exception {
+        int closedPort;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = unused.getLocalPort();
+        }
+        forwarder = new PortForwarder(client, PortForwarder.Spec.parse("0:127.0.0.1:" + closedPort));
+
+        try (Socket socket = connect()) {
+            assertThat(socket.getInputStream().read()).isEqualTo(-1);
+        }
+        assertThat(forwarder.getFailed()).isEqualTo(1);
+        assertThat(forwarder.getLastError()).isNotNull();
+    }
+
+    @Test
+    void parsesForwardSpecs() {
+        assertThat(PortForwarder.Spec.parse("8080:db:5432"))
+            .isEqualTo(new PortForwarder.Spec("127.0.0.1", 8080, "db", 5432));
+        assertThat(PortForwarder.Spec.parse("*:8080:db:5432").bindHost()).isEqualTo("0.0.0.0");
+        assertThat(PortForwarder.Spec.parse("[::1]:8080:[fe80::1]:22"))
+            .isEqualTo(new PortForwarder.Spec("::1", 8080, "fe80::1", 22));
+        assertThatThrownBy(() -> PortForwarder.Spec.parse("8080:db"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PortForwarder.Spec.parse("8080:db:70000"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("Bad port '70000'");
+    }
+
+    private void start(Service service) throws IOException {
+        threads.execute(() -> {
+            while (!target.isClosed()) {
+                try {
+                    Socket socket = target.accept();
+                    threads.execute(() -> {
+                        try (socket) {
+                            service.serve(socket);
+                        } catch (IOException e) {
+                            // test tears down
+                        }
+                    });
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        forwarder = new PortForwarder(client, PortForwarder.Spec.parse("0:127.0.0.1:" + target.getLocalPort()));
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), forwarder.getLocalPort());
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    private CompletableFuture<byte[]> readAll(Socket socket) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                socket.getInputStream().transferTo(out);
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, threads);
+    }
+
+    /** Tunnels go away once both directions have finished. */
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (forwarder.getActive() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertThat(forwarder.getActive()).isZero();
+    }
+}
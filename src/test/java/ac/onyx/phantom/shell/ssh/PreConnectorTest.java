@@ -0,0 +1,65 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+
+class PreConnectorTest {
+
+    @TempDir
+    Path dir;
+
+    private TestSshServer server;
+    private PreConnector preConnector;
+    private final SSHConnectionPool.Key key = new SSHConnectionPool.Key(TestSshServer.USER, "127.0.0.1", 0);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestSshServer(dir);
+        preConnector = new PreConnector();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        preConnector.close();
+        server.close();
+    }
+
+    @Test
+    void takeHandsOverTheConnectedTransportAndRunsOnTake() throws Exception {
+        AtomicInteger taken = new AtomicInteger();
+        preConnector.start(key, SSHConnectionPool::newClient, this::handshake, taken::incrementAndGet);
+
+        try (TimedSSHClient client = preConnector.take(key)) {
+            assertThat(client).isNotNull();
+            assertThat(client.isConnected()).isTrue();
+            assertThat(taken).hasValue(1);
+        }
+        assertThat(preConnector.take(key)).isNull();
+    }
+
+    @Test
+    void cancelledAttemptsNeverRunOnTake() throws Exception {
+        AtomicInteger taken = new AtomicInteger();
+        preConnector.start(key, SSHConnectionPool::newClient, this::handshake, taken::incrementAndGet);
+
+        preConnector.cancelExcept(null);
+
+        assertThat(preConnector.take(key)).isNull();
+        assertThat(taken).hasValue(0);
+    }
+
+    private void handshake(TimedSSHClient client) throws IOException {
+        client.addHostKeyVerifier(new PromiscuousVerifier());
+        client.connect("127.0.0.1", server.getPort());
+    }
+}
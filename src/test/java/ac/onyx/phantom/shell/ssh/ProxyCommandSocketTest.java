@@ -0,0 +1,89 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.net.SocketFactory;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+
+class ProxyCommandSocketTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void needsAPosixShell() {
+        assumeTrue(Files.isExecutable(Path.of("/bin/sh")), "needs /bin/sh");
+    }
+
+    @Test
+    void expandsTokens() {
+        SSHConfig host = new SSHConfig();
+        host.addPattern("web");
+        host.set("hostname", "web.example.com");
+        host.set("port", "2222");
+
+        assertThat(ProxyCommandSocket.expand("nc -X connect %h %p # %r@%n 100%% %x", host, "bob"))
+            .isEqualTo("nc -X connect web.example.com 2222 # bob@web 100% %x");
+    }
+
+    @Test
+    void startsTheCommandOnlyOnConnect() throws Exception {
+        Socket socket = ProxyCommandSocket.factory("cat", new SSHConfig(), "me").createSocket();
+
+        assertThat(socket.isConnected()).isFalse();
+        assertThatThrownBy(socket::getInputStream).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void everyConnectingOverloadRunsTheCommand() throws Exception {
+        SocketFactory factory = ProxyCommandSocket.factory("cat", new SSHConfig(), "me");
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        for (Socket socket : List.of(
+                factory.createSocket("ignored", 22),
+                factory.createSocket("ignored", 22, loopback, 0),
+                factory.createSocket(loopback, 22),
+                factory.createSocket(loopback, 22, loopback, 0))) {
+            assertThat(socket.isConnected()).isTrue();
+            socket.getOutputStream().write("ping\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            assertThat(new String(socket.getInputStream().readNBytes(5), StandardCharsets.UTF_8)).isEqualTo("ping\n");
+            socket.close();
+            assertThat(socket.isClosed()).isTrue();
+        }
+    }
+
+    @Test
+    void carriesAnSshSession() throws Exception {
+        assumeTrue(Files.isExecutable(Path.of("/bin/bash")), "needs bash for /dev/tcp");
+        try (TestSshServer sshd = new TestSshServer(dir); SSHClient client = new SSHClient()) {
+            SSHConfig host = new SSHConfig();
+            host.set("hostname", "127.0.0.1");
+            host.set("port", Integer.toString(sshd.getPort()));
+            client.addHostKeyVerifier(new PromiscuousVerifier());
+            client.setSocketFactory(ProxyCommandSocket.factory(
+                "bash -c 'exec 3<>/dev/tcp/%h/%p; cat <&3 & exec cat >&3'", host, TestSshServer.USER));
+
+            client.connect(host.getHostname(), host.getPort());
+            client.authPassword(TestSshServer.USER, "secret");
+
+            assertThat(client.isAuthenticated()).isTrue();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SSHConfigCacheTest {
+
+    @TempDir
+    Path home;
+
+    @TempDir
+    Path snapshots;
+
+    private SSHConfigCache cache;
+    private File config;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cache = new SSHConfigCache(snapshots);
+        config = home.resolve("config").toFile();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    void keepsTheParsedConfigUntilItChanges() throws Exception {
+        write("config", "Host web\n  User a\n");
+        SSHConfigResolver first = cache.resolver(config);
+        assertThat(cache.resolver(config)).isSameAs(first);
+
+        write("config", "Host web\n  User b\n");
+
+        assertThat(awaitNewResolver(first).resolve("web").getUser()).isEqualTo("b");
+    }
+
+    @Test
+    void unrelatedFilesNextToTheConfigAreIgnored() throws Exception {
+        write("config", "Host web\n  User a\n");
+        SSHConfigResolver first = cache.resolver(config);
+
+        write("known_hosts", "web ssh-ed25519 AAAA\n");
+        Thread.sleep(300);
+
+        assertThat(cache.resolver(config)).isSameAs(first);
+    }
+
+    @Test
+    void aNewFileMatchingAnIncludeGlobNextToTheConfigIsPickedUp() throws Exception {
+        write("config", "Include extra-*\nHost web\n");
+        SSHConfigResolver first = cache.resolver(config);
+        assertThat(first.isDefined("db")).isFalse();
+
+        write("extra-db", "Host db\n  User ops\n");
+
+        assertThat(awaitNewResolver(first).resolve("db").getUser()).isEqualTo("ops");
+    }
+
+    @Test
+    void changesInIncludedDirectoriesAreNoticed() throws Exception {
+        Files.createDirectories(home.resolve("conf.d"));
+        write("conf.d/a.conf", "Host a\n");
+        write("config", "Include conf.d/*.conf\n");
+        SSHConfigResolver first = cache.resolver(config);
+
+        write("conf.d/b.conf", "Host b\n");
+
+        assertThat(awaitNewResolver(first).aliases()).containsExactly("a", "b");
+    }
+
+    @Test
+    void aColdStartReusesAnUpToDateSnapshot() throws Exception {
+        write("config", "Host web\n  User a\n  Port 2222\n");
+        cache.resolver(config);
+        cache.close();
+
+        cache = new SSHConfigCache(snapshots);
+        SSHConfig web = cache.resolver(config).resolve("web");
+
+        assertThat(web.getUser()).isEqualTo("a");
+        assertThat(web.getPort()).isEqualTo(2222);
+        try (var files = Files.list(snapshots)) {
+            assertThat(files).hasSize(1);
+        }
+    }
+
+    @Test
+    void aSnapshotKeepsEveryIdentityFile() throws Exception {
+        write("config", "Host web\n  IdentityFile ~/.ssh/a\n  IdentityFile ~/.ssh/b\nHost *\n  IdentityFile ~/.ssh/c\n");
+        cache.resolver(config);
+        cache.close();
+
+        cache = new SSHConfigCache(snapshots);
+
+        assertThat(cache.resolver(config).resolve("web").getIdentityFiles())
+            .containsExactly("~/.ssh/a", "~/.ssh/b", "~/.ssh/c");
+    }
+
+    @Test
+    void aColdStartIgnoresASnapshotOfAnOlderConfig() throws Exception {
+        write("config", "Host web\n  User a\n");
+        cache.resolver(config);
+        cache.close();
+
+        write("config", "Host web\n  User bb\n");
+        cache = new SSHConfigCache(snapshots);
+
+        assertThat(cache.resolver(config).resolve("web").getUser()).isEqualTo("bb");
+    }
+
+    private SSHConfigResolver awaitNewResolver(SSHConfigResolver old) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        SSHConfigResolver current = cache.resolver(config);
+        while (current == old && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            current = cache.resolver(config);
+        }
+        assertThat(current).isNotSameAs(old);
+        return current;
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.writeString(home.resolve(name), content);
+    }
+}
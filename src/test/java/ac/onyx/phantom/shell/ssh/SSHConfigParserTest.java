@@ -0,0 +1,148 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SSHConfigParserTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsHostBlocksInFileOrder() throws Exception {
+        Path config = write("config", """
+            # comment
+            Host web www
+              HostName web.example.com
+              User=deploy
+              Port = 2222
+
+            Host "db"
+              IdentityFile "~/.ssh/id db"
+            """);
+
+        List<SSHConfig> blocks = SSHConfigParser.parse(config.toFile());
+
+        assertThat(blocks).hasSize(2);
+        assertThat(blocks.get(0).getPatterns()).containsExactly("web", "www");
+        assertThat(blocks.get(0).getHostname()).isEqualTo("web.example.com");
+        assertThat(blocks.get(0).getUser()).isEqualTo("deploy");
+        assertThat(blocks.get(0).getPort()).isEqualTo(2222);
+        assertThat(blocks.get(1).getPatterns()).containsExactly("db");
+        assertThat(blocks.get(1).getIdentityFile()).isEqualTo("~/.ssh/id db");
+    }
+
+    @Test
+    void optionsBeforeTheFirstHostApplyToEveryHost() throws Exception {
+        Path config = write("config", """
+            User everyone
+            Host web
+              HostName web.example.com
+            """);
+
+        List<SSHConfig> blocks = SSHConfigParser.parse(config.toFile());
+
+        assertThat(blocks.get(0).getPatterns()).containsExactly("*");
+        assertThat(blocks.get(0).getUser()).isEqualTo("everyone");
+    }
+
+    @Test
+    void linesAfterAnIncludeStillBelongToTheEnclosingHost() throws Exception {
+        write("extra.conf", """
+            Port 2200
+            Host *
+              User star
+            """);
+        Path config = write("config", """
+            Host web
+              Include extra.conf
+              HostName web.example.com
+              User outer
+            Host db
+            """);
+
+        SSHConfigResolver resolver = SSHConfigResolver.of(SSHConfigParser.parse(config.toFile()));
+
+        SSHConfig web = resolver.resolve("web");
+        assertThat(web.getPort()).isEqualTo(2200); // before the included Host line: still Host web
+        assertThat(web.getHostname()).isEqualTo("web.example.com");
+        assertThat(web.getUser()).isEqualTo("star"); // the included block came first
+        SSHConfig db = resolver.resolve("db");
+        assertThat(db.getHostname()).isEqualTo("db");
+        assertThat(db.getUser()).isEqualTo("star");
+        assertThat(db.getPort()).isEqualTo(22);
+    }
+
+    @Test
+    void expandsIncludeGlobsInSortedOrderAndRecordsTheFilesRead() throws Exception {
+        Files.createDirectories(dir.resolve("conf.d"));
+        write("conf.d/20-b.conf", "Host b\n  User bee\n");
+        write("conf.d/10-a.conf", "Host a\n  User ay\n");
+        write("conf.d/ignored.txt", "Host c\n");
+        Path config = write("config", "Include conf.d/*.conf\n");
+        List<Path> files = new ArrayList<>();
+
+        List<SSHConfig> blocks = SSHConfigParser.parse(config.toFile(), files);
+
+        assertThat(blocks).extracting(b -> b.getPatterns().get(0)).containsExactly("a", "b");
+        assertThat(files).containsExactly(config.toAbsolutePath(),
+            dir.resolve("conf.d/10-a.conf"), dir.resolve("conf.d/20-b.conf"));
+    }
+
+    @Test
+    void rejectsIncludeLoops() throws Exception {
+        Path config = write("config", "Include config\n");
+
+        assertThatThrownBy(() -> SSHConfigParser.parse(config.toFile()))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("Include nested too deeply");
+    }
+
+    @Test
+    void reportsABadPortWithItsFileAndLine() throws Exception {
+        write("extra.conf", "Host db\n  Port 22x\n");
+        Path config = write("config", "Host web\n  Port 22\nInclude extra.conf\n");
+
+        assertThatThrownBy(() -> SSHConfigParser.parse(config.toFile()))
+            .isInstanceOf(IOException.class)
+            .hasMessage(dir.resolve("extra.conf") + " line 2: Bad port '22x'");
+    }
+
+    @Test
+    void rejectsOutOfRangePortsEvenWhenAnEarlierBlockSetThePort() throws Exception {
+        Path config = write("config", "Host *\n  Port 22\nHost web\n  Port 70000\n");
+
+        assertThatThrownBy(() -> SSHConfigParser.parse(config.toFile()))
+            .isInstanceOf(IOException.class)
+            .hasMessageEndingWith("config line 4: Bad port '70000'");
+    }
+
+    @Test
+    void reportsABadPortInAProxyJump() throws Exception {
+        Path config = write("config", "Host web\n  ProxyJump ops@gate:22,inner:ssh\n");
+
+        assertThatThrownBy(() -> SSHConfigParser.parse(config.toFile()))
+            .isInstanceOf(IOException.class)
+            .hasMessageEndingWith("config line 2: Bad port 'ssh'");
+    }
+
+    @Test
+    void missingConfigHasNoHosts() throws Exception {
+        assertThat(SSHConfigParser.parse(dir.resolve("absent").toFile())).isEmpty();
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content);
+        return file;
+    }
+}
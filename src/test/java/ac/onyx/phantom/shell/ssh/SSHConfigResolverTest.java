@@ -0,0 +1,112 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SSHConfigResolverTest {
+
+    @Test
+    void firstValueWinsAcrossMatchingBlocksInFileOrder() {
+        SSHConfigResolver resolver = SSHConfigResolver.of(List.of(
+            block(List.of("web"), "user", "deploy"),
+            block(List.of("*.internal", "!bastion.internal"), "user", "ops", "port", "2200"),
+            block(List.of("*"), "user", "me", "port", "2222", "hostname", "ignored")));
+
+        SSHConfig web = resolver.resolve("web");
+        assertThat(web.getUser()).isEqualTo("deploy");
+        assertThat(web.getPort()).isEqualTo(2222);
+        assertThat(web.getHostname()).isEqualTo("ignored");
+
+        SSHConfig db = resolver.resolve("db.internal");
+        assertThat(db.getUser()).isEqualTo("ops");
+        assertThat(db.getPort()).isEqualTo(2200);
+
+        assertThat(resolver.resolve("bastion.internal").getUser()).isEqualTo("me");
+    }
+
+    @Test
+    void identityFilesAccumulateAcrossMatchingBlocksInOrder() {
+        SSHConfigResolver resolver = SSHConfigResolver.of(List.of(
+            block(List.of("web"), "identityfile", "~/.ssh/web", "identityfile", "~/.ssh/deploy"),
+            block(List.of("*"), "identityfile", "~/.ssh/deploy", "identityfile", "~/.ssh/id_ed25519")));
+
+        SSHConfig web = resolver.resolve("web");
+
+        assertThat(web.getIdentityFiles()).containsExactly("~/.ssh/web", "~/.ssh/deploy", "~/.ssh/id_ed25519");
+        assertThat(web.getIdentityFile()).isEqualTo("~/.ssh/web");
+        assertThat(resolver.resolve("db").getIdentityFiles()).containsExactly("~/.ssh/deploy", "~/.ssh/id_ed25519");
+    }
+
+    @Test
+    void hostNameDefaultsToTheAlias() {
+        SSHConfigResolver resolver = SSHConfigResolver.of(List.of(block(List.of("web"), "user", "deploy")));
+
+        assertThat(resolver.resolve("Web").getHostname()).isEqualTo("Web");
+    }
+
+    @Test
+    void matchBlocksSeeWhatWasResolvedBefore() {
+        SSHConfig match = new SSHConfig();
+        match.setMatch("host *.example.com");
+        match.set("user", "matched");
+        SSHConfigResolver resolver = SSHConfigResolver.of(List.of(
+            block(List.of("web"), "hostname", "web.example.com"),
+            match));
+
+        assertThat(resolver.resolve("web").getUser()).isEqualTo("matched");
+        assertThat(resolver.resolve("other").getUser()).isNull();
+    }
+
+    @Test
+    void onlyHostsNamedBySomeBlockBesidesCatchAllsAreDefined() {
+        SSHConfig match = new SSHConfig();
+        match.setMatch("all");
+        SSHConfigResolver resolver = SSHConfigResolver.of(List.of(
+            block(List.of("web"), "user", "deploy"),
+            block(List.of("*.internal"), "user", "ops"),
+            block(List.of("*"), "user", "me"),
+            match));
+
+        assertThat(resolver.isDefined("web")).isTrue();
+        assertThat(resolver.isDefined("WEB")).isTrue();
+        assertThat(resolver.isDefined("db.internal")).isTrue();
+        assertThat(resolver.isDefined("wbe")).isFalse();
+    }
+
+    @Test
+    void listsConcreteAliasesInFileOrder() {
+        SSHConfigResolver resolver = SSHConfigResolver.of(List.of(
+            block(List.of("web", "www"), "user", "a"),
+            block(List.of("*.internal", "db"), "user", "b"),
+            block(List.of("web"), "port", "2222")));
+
+        assertThat(resolver.aliases()).containsExactly("web", "www", "db");
+        assertThat(resolver.hosts()).extracting(SSHConfig::getPort).containsExactly(2222, 22, 22);
+    }
+
+    @Test
+    void jumpChainsPutTheFirstHopsOwnJumpsInFront() {
+        SSHConfigResolver resolver = SSHConfigResolver.of(List.of(
+            block(List.of("app"), "proxyjump", "ops@gate:2200,inner"),
+            block(List.of("gate"), "hostname", "gate.example.com", "proxyjump", "edge"),
+            block(List.of("edge"), "user", "root")));
+
+        List<SSHConfig> chain = resolver.resolve("app").getJumpChain();
+
+        assertThat(chain).extracting(h -> h.getPatterns().get(0)).containsExactly("edge", "gate", "inner");
+        assertThat(chain.get(1).getUser()).isEqualTo("ops");
+        assertThat(chain.get(1).getPort()).isEqualTo(2200);
+        assertThat(chain.get(1).getHostname()).isEqualTo("gate.example.com");
+        assertThat(chain.get(0).getUser()).isEqualTo("root");
+    }
+
+    private static SSHConfig block(List<String> patterns, String... options) {
+        SSHConfig block = new SSHConfig();
+        patterns.forEach(block::addPattern);
+        for (int i = 0; i < options.length; i += 2) block.set(options[i], options[i + 1]);
+        return block;
+    }
+}
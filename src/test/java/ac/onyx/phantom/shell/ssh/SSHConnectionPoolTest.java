@@ -0,0 +1,175 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import net.schmizz.sshj.SSHClient;
+
+class SSHConnectionPoolTest {
+
+    /** Looks connected and authenticated until disconnected. */
+    private static final class FakeClient extends SSHClient {
+        volatile boolean connected = true;
+
+        @Override
+        public boolean isConnected() { return connected; }
+
+        @Override
+        public boolean isAuthenticated() { return connected; }
+
+        @Override
+        public void disconnect() { connected = false; }
+    }
+
+    private static final SSHConnectionPool.Key KEY = new SSHConnectionPool.Key("me", "alpha", 22);
+    private static final SSHConnectionPool.Key OTHER = new SSHConnectionPool.Key("me", "beta", 22);
+
+    private final SSHConnectionPool pool = new SSHConnectionPool(Duration.ofMinutes(5));
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final AtomicInteger connects = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        pool.close();
+    }
+
+    @Test
+    void reusesTheLiveConnection() throws Exception {
+        SSHClient first = pool.acquire(KEY, this::connect);
+        SSHClient second = pool.acquire(KEY, this::connect);
+
+        assertThat(second).isSameAs(first);
+        assertThat(connects).hasValue(1);
+        assertThat(pool.snapshot()).singleElement().extracting(SSHConnectionPool.PooledConnection::leases).isEqualTo(2);
+    }
+
+    @Test
+    void callersForOneKeyShareOneConnectAndDoNotBlockOthers() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        SSHConnectionPool.Connector slow = () -> {
+            entered.countDown();
+            await(proceed);
+            return connect();
+        };
+
+        List<Future<SSHClient>> waiting = new ArrayList<>();
+        for (int i = 0; i < 5; i++) waiting.add(callers.submit(() -> pool.acquire(KEY, slow)));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // The slot's lock is free while connecting: other keys and lookups go ahead
+        assertThat(callers.submit(() -> pool.acquire(OTHER, this::connect)).get(2, TimeUnit.SECONDS)).isNotNull();
+        assertThat(callers.submit(() -> pool.isLive(KEY)).get(2, TimeUnit.SECONDS)).isFalse();
+        assertThat(callers.submit(() -> pool.lease(KEY)).get(2, TimeUnit.SECONDS)).isNull();
+
+        proceed.countDown();
+        SSHClient client = waiting.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<SSHClient> f : waiting) assertThat(f.get(5, TimeUnit.SECONDS)).isSameAs(client);
+        assertThat(connects).hasValue(2); // one for KEY, one for OTHER
+        assertThat(pool.snapshot()).filteredOn(c -> c.key().equals(KEY))
+            .singleElement().extracting(SSHConnectionPool.PooledConnection::leases).isEqualTo(5);
+    }
+
+    @Test
+    void aFailedConnectFailsItsWaitersAndIsRetriedAfterwards() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        SSHConnectionPool.Connector failing = () -> {
+            entered.countDown();
+            await(proceed);
+            throw new IOException("Connection refused");
+        };
+
+        Future<SSHClient> first = callers.submit(() -> pool.acquire(KEY, failing));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<SSHClient> second = callers.submit(() -> pool.acquire(KEY, failing));
+        Thread.sleep(50);
+        proceed.countDown();
+
+        for (Future<SSHClient> f : List.of(first, second)) {
+            assertThatThrownBy(() -> f.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IOException.class)
+                .hasRootCauseMessage("Connection refused");
+        }
+        assertThat(pool.acquire(KEY, this::connect)).isNotNull();
+        assertThat(connects).hasValue(1);
+    }
+
+    @Test
+    void replacesADeadConnection() throws Exception {
+        FakeClient dead = (FakeClient) pool.acquire(KEY, this::connect);
+        dead.connected = false;
+
+        SSHClient fresh = pool.acquire(KEY, this::connect);
+
+        assertThat(fresh).isNotSameAs(dead);
+        assertThat(connects).hasValue(2);
+    }
+
+    @Test
+    void aLateReleaseOfADeadConnectionLeavesItsReplacementLeased() throws Exception {
+        try (SSHConnectionPool eager = new SSHConnectionPool(Duration.ZERO)) {
+            FakeClient dead = (FakeClient) eager.acquire(KEY, this::connect);
+            eager.acquire(KEY, this::connect);
+            dead.connected = false;
+            FakeClient fresh = (FakeClient) eager.acquire(KEY, this::connect);
+
+            eager.release(KEY, dead);
+            eager.release(KEY, dead);
+            eager.evictIdle();
+
+            assertThat(eager.snapshot()).singleElement().extracting(SSHConnectionPool.PooledConnection::leases).isEqualTo(1);
+            assertThat(fresh.connected).isTrue();
+        }
+    }
+
+    @Test
+    void aConnectionEvictedWhileConnectingIsClosed() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        FakeClient late = new FakeClient();
+        Future<SSHClient> acquiring = callers.submit(() -> pool.acquire(KEY, () -> {
+            entered.countDown();
+            await(proceed);
+            return late;
+        }));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        pool.evict(KEY);
+        proceed.countDown();
+
+        assertThatThrownBy(() -> acquiring.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class);
+        assertThat(late.connected).isFalse();
+        assertThat(pool.snapshot()).isEmpty();
+    }
+
+    private SSHClient connect() {
+        connects.incrementAndGet();
+        return new FakeClient();
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) throw new IOException("Timed out");
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.impl.ExternalTerminal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+class SessionManagerTest {
+
+    private static final int FLOOD = 5000;
+
+    @TempDir
+    Path dir;
+
+    private TestSshServer server;
+    private SSHClient client;
+    private final ByteArrayOutputStream screen = new ByteArrayOutputStream();
+    private PipedOutputStream keys;
+    private Terminal terminal;
+    private SessionManager manager;
+    private final AtomicInteger closed = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestSshServer(dir);
+        server.getServer().setShellFactory(channel -> new Shell());
+        client = server.connect();
+        keys = new PipedOutputStream();
+        // Not a pty terminal, so that reads with a timeout return when nothing is typed
+        terminal = new ExternalTerminal("test", "xterm", new PipedInputStream(keys), screen, StandardCharsets.UTF_8);
+        terminal.setSize(new Size(80, 24));
+        terminal.enterRawMode();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (manager != null) manager.close();
+        terminal.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void aDetachedSessionKeepsRunningAndReplaysTheNewestOutputOnReattach() throws Exception {
+        manager = new SessionManager(1000);
+        SessionManager.ManagedSession s = open();
+
+        CompletableFuture<SessionManager.Outcome> first = attach(s);
+        type("hi");
+        await(() -> screen().contains("hi"));
+        // The shell floods once it is detached
+        type("f");
+        detach();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(SessionManager.Outcome.DETACHED);
+        assertThat(s.getState()).isEqualTo(SessionManager.State.DETACHED);
+
+        await(() -> s.getBuffered() == 1000 && s.getDropped() == FLOOD - 1000);
+        screen.reset();
+        CompletableFuture<SessionManager.Outcome> second = attach(s);
+        await(() -> count('z') == 1000);
+
+        assertThat(screen()).contains("[" + (FLOOD - 1000) + " bytes of output dropped while detached]")
+            .endsWith("z".repeat(1000));
+        assertThat(s.getBuffered()).isZero();
+        assertThat(s.getDropped()).isZero();
+        type("q");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(SessionManager.Outcome.CLOSED);
+    }
+
+    @Test
+    void anEndedSessionRunsItsCloseHookOnceAndLeavesNoThreadsBehind() throws Exception {
+        manager = new SessionManager(1000, Duration.ofMillis(100));
+        SessionManager.ManagedSession s = open();
+
+        // Detach once so that the drain thread has been started
+        CompletableFuture<SessionManager.Outcome> first = attach(s);
+        detach();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(SessionManager.Outcome.DETACHED);
+        await(() -> threads() > 0);
+
+        CompletableFuture<SessionManager.Outcome> second = attach(s);
+        type("q");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(SessionManager.Outcome.CLOSED);
+        manager.close(s);
+
+        assertThat(s.getState()).isEqualTo(SessionManager.State.CLOSED);
+        assertThat(manager.list()).isEmpty();
+        assertThat(closed).hasValue(1);
+        await(() -> threads() == 0);
+    }
+
+    private SessionManager.ManagedSession open() throws IOException {
+        Session session = client.startSession();
+        Session.Shell shell = session.startShell();
+        return manager.open("test", session, shell, terminal, closed::incrementAndGet);
+    }
+
+    private CompletableFuture<SessionManager.Outcome> attach(SessionManager.ManagedSession s) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return manager.attach(s);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private void type(String text) throws IOException {
+        keys.write(text.getBytes(StandardCharsets.UTF_8));
+        keys.flush();
+    }
+
+    private void detach() throws IOException {
+        keys.write(SessionManager.DETACH_KEY);
+        keys.flush();
+    }
+
+    private String screen() {
+        return screen.toString(StandardCharsets.UTF_8);
+    }
+
+    private long count(char c) {
+        return screen().chars().filter(ch -> ch == c).count();
+    }
+
+    /** Live threads of any session manager. */
+    private static long threads() {
+        return Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.isAlive() && t.getName().startsWith("ssh-session"))
+            .count();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("timed out").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Echoes its input; "f" writes {@link #FLOOD} bytes of "z" a little later,
+     * "q" exits.
+     */
+    private static final class Shell implements Command {
+        private InputStream in;
+        private OutputStream out;
+        private ExitCallback exit;
+        private Thread thread;
+
+        @Override
+        public void setInputStream(InputStream in) { this.in = in; }
+
+        @Override
+        public void setOutputStream(OutputStream out) { this.out = out; }
+
+        @Override
+        public void setErrorStream(OutputStream err) { }
+
+        @Override
+        public void setExitCallback(ExitCallback callback) { this.exit = callback; }
+
+        @Override
+        public void start(ChannelSession channel, Environment env) {
+            thread = new Thread(this::run, "test-shell");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void run() {
+            try {
+                int b;
+                while ((b = in.read()) >= 0) {
+                    if (b == 'q') break;
+                    if (b == 'f') {
+                        Thread.sleep(300);
+                        out.write("z".repeat(FLOOD).getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        out.write(b);
+                    }
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // channel closed
+            }
+            exit.onExit(0);
+        }
+
+        @Override
+        public void destroy(ChannelSession channel) {
+            if (thread != null) thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ac.onyx.phantom.shell.ssh;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.schmizz.sshj.SSHClient;
+
+class SftpTransferTest {
+
+    private static final long CHUNK = 64 * 1024;
+    private static final int SIZE = 16 * (int) CHUNK + 1000;
+
+    @TempDir
+    Path dir;
+
+    private TestSshServer server;
+    private SSHClient client;
+    private Path remote;
+    private Path local;
+    private byte[] data;
+    /** Reads at or past this offset fail, as if the connection dropped there. */
+    private volatile long failFrom = Long.MAX_VALUE;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestSshServer(dir);
+        SftpSubsystemFactory sftp = new SftpSubsystemFactory();
+        sftp.addSftpEventListener(new SftpEventListener() {
+            @Override
+            public void reading(ServerSession session, String remoteHandle, FileHandle localHandle, long offset,
+                                byte[] buf, int bufOffset, int length) throws IOException {
+                if (offset >= failFrom) throw new IOException("dropped");
+            }
+        });
+        server.getServer().setSubsystemFactories(List.of(sftp));
+        client = server.connect();
+
+        data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+        remote = Files.write(dir.resolve("remote.bin"), data);
+        local = dir.resolve("local.bin");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void anInterruptedDownloadResumesWhereItStopped() throws Exception {
+        interruptedDownload();
+
+        SftpTransfer.Result result = transfer().get(remote.toString(), local, p -> { });
+
+        assertThat(Files.readAllBytes(local)).isEqualTo(data);
+        assertThat(result.resumed()).isEqualTo(8 * CHUNK);
+        assertThat(result.transferred()).isEqualTo(SIZE - 8 * CHUNK);
+        assertThat(dir.resolve("local.bin.part")).doesNotExist();
+        assertThat(dir.resolve("local.bin.part.state")).doesNotExist();
+    }
+
+    @Test
+    void aDownloadWhosePartFileWasDeletedStartsOver() throws Exception {
+        interruptedDownload();
+        Files.delete(dir.resolve("local.bin.part"));
+
+        SftpTransfer.Result result = transfer().get(remote.toString(), local, p -> { });
+
+        assertThat(Files.readAllBytes(local)).isEqualTo(data);
+        assertThat(result.resumed()).isZero();
+    }
+
+    @Test
+    void aDownloadWhosePartFileWasTruncatedStartsOver() throws Exception {
+        interruptedDownload();
+        try (FileChannel part = FileChannel.open(dir.resolve("local.bin.part"), StandardOpenOption.WRITE)) {
+            part.truncate(3 * CHUNK);
+        }
+
+        SftpTransfer.Result result = transfer().get(remote.toString(), local, p -> { });
+
+        assertThat(Files.readAllBytes(local)).isEqualTo(data);
+        assertThat(result.resumed()).isZero();
+    }
+
+    /** Downloads the first 8 chunks, then fails on the 9th. */
+    private void interruptedDownload() {
+        failFrom = 8 * CHUNK;
+        assertThatThrownBy(() -> transfer().get(remote.toString(), local, p -> { })).isInstanceOf(IOException.class);
+        assertThat(local).doesNotExist();
+        failFrom = Long.MAX_VALUE;
+    }
+
+    private SftpTransfer transfer() {
+        return new SftpTransfer(client, 1, CHUNK);
+    }
+}
@@ -0,0 +1,67 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes large generated ssh_config trees for the benchmarks and tests.
+ *
+ * The layout mirrors what config generators produce: a small top-level file that
+ * includes {@code conf.d/*.conf}, one included file per few thousand hosts, a few
+ * wildcard groups with a negation, a Match block and trailing {@code Host *} defaults.
+ */
+public final class SyntheticConfig {
+
+    public static final int HOSTS_PER_FILE = 5000;
+
+    private SyntheticConfig() {}
+
+    /**
+     * Writes the tree under {@code dir} and returns the top-level config file.
+     */
+    public static Path write(Path dir, int hosts) throws IOException {
+        Path confDir = Files.createDirectories(dir.resolve("conf.d"));
+        Path main = dir.resolve("config");
+        try (BufferedWriter w = Files.newBufferedWriter(main, StandardCharsets.UTF_8)) {
+            w.write("# generated\n");
+            w.write("ServerAliveInterval 30\n\n");
+            w.write("Include conf.d/*.conf\n\n");
+            w.write("Host *.dc1.example.com !bastion.dc1.example.com\n");
+            w.write("    ProxyJump bastion.dc1.example.com\n\n");
+            w.write("Host db-*\n");
+            w.write("    User postgres\n\n");
+            w.write("Match host *.internal user deploy\n");
+            w.write("    IdentityFile ~/.ssh/deploy_ed25519\n\n");
+            w.write("Host *\n");
+            w.write("    User ops\n");
+            w.write("    Port 22\n");
+        }
+
+        int files = (hosts + HOSTS_PER_FILE - 1) / HOSTS_PER_FILE;
+        for (int f = 0; f < files; f++) {
+            Path part = confDir.resolve(String.format("%04d.conf", f));
+            try (BufferedWriter w = Files.newBufferedWriter(part, StandardCharsets.UTF_8)) {
+                int end = Math.min(hosts, (f + 1) * HOSTS_PER_FILE);
+                for (int i = f * HOSTS_PER_FILE; i < end; i++) {
+                    w.write("Host " + alias(i) + "\n");
+                    w.write("    HostName 10." + ((i >> 16) & 255) + "." + ((i >> 8) & 255) + "." + (i & 255) + "\n");
+                    if (i % 3 == 0) w.write("    Port " + (2200 + i % 100) + "\n");
+                    if (i % 7 == 0) w.write("    User svc" + (i % 13) + "\n");
+                    w.write("\n");
+                }
+            }
+        }
+        return main;
+    }
+
+    /**
+     * Alias of the i-th generated host.
+     */
+    public static String alias(int i) {
+        String role = (i % 5 == 0) ? "db" : (i % 2 == 0 ? "web" : "app");
+        return role + "-" + i;
+    }
+}
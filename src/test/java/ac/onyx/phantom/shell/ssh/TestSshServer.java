@@ -0,0 +1,51 @@
+package ac.onyx.phantom.shell.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+
+/**
+ * In-process SSH server on a loopback port for the tests. It accepts any
+ * password and allows every port forward.
+ */
+public class TestSshServer implements Closeable {
+
+    public static final String USER = "test";
+
+    private final SshServer server;
+
+    public TestSshServer(Path dir) throws IOException {
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(dir.resolve("hostkey.ser")));
+        server.setPasswordAuthenticator((user, password, session) -> true);
+        server.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
+        server.start();
+    }
+
+    public SshServer getServer() { return server; }
+
+    public int getPort() { return server.getPort(); }
+
+    /** A client connected and authenticated to this server, trusting its key. */
+    public SSHClient connect() throws IOException {
+        SSHClient client = new SSHClient();
+        client.addHostKeyVerifier(new PromiscuousVerifier());
+        client.connect("127.0.0.1", getPort());
+        client.authPassword(USER, "secret");
+        return client;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(true);
+    }
+}